@@ -0,0 +1,74 @@
+package com.example.fruitqualityprediction.sbprocessing;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.tracking.ChangeDetector;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+/**
+ * Runs the change detector on rendered frames, which needs the native OpenCV library. The region
+ * helpers are covered by the JVM ChangeDetectorTest.
+ */
+public class ChangeDetectorInstrumentedTest {
+
+    private ChangeDetector changeDetector;
+    private Mat frame;
+
+    @Before
+    public void setUp() {
+        OpenCVLoader.initDebug();
+        changeDetector = new ChangeDetector(16);
+        frame = new Mat(480, 640, CvType.CV_8UC4, new Scalar(40, 120, 40, 255));
+        Imgproc.circle(frame, new Point(200, 200), 40, new Scalar(220, 30, 30, 255), Core.FILLED);
+    }
+
+    @Test
+    public void everythingChangedWithoutReference() {
+        List<Rect> changes = changeDetector.findChanges(frame);
+        assertEquals(1, changes.size());
+        assertEquals(new Rect(0, 0, 640, 480), changes.get(0));
+    }
+
+    @Test
+    public void staticScene() {
+        changeDetector.setReference(frame);
+        Mat noisy = frame.clone();
+        Core.add(noisy, new Scalar(3, 3, 3, 0), noisy);
+        assertTrue(changeDetector.findChanges(noisy).isEmpty());
+    }
+
+    @Test
+    public void everythingChangedAfterReset() {
+        changeDetector.setReference(frame);
+        changeDetector.reset();
+        List<Rect> changes = changeDetector.findChanges(frame);
+        assertEquals(1, changes.size());
+        assertEquals(new Rect(0, 0, 640, 480), changes.get(0));
+    }
+
+    @Test
+    public void findsChangedRegion() {
+        changeDetector.setReference(frame);
+        Mat next = frame.clone();
+        Imgproc.circle(next, new Point(500, 350), 40, new Scalar(220, 30, 30, 255), Core.FILLED);
+
+        List<Rect> changes = changeDetector.findChanges(next);
+        assertEquals(1, changes.size());
+        Rect change = changes.get(0);
+        assertTrue(change.contains(new Point(460, 310)) && change.contains(new Point(539, 389)));
+        assertFalse(change.contains(new Point(200, 200)));
+        assertTrue(ChangeDetector.coverage(changes, next.size()) < 0.1);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.fruitqualityprediction.sbprocessing;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.Blob;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.ColorStrawberryDetector;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+public class ColorStrawberryDetectorTest {
+
+    private ColorStrawberryDetector detector;
+    private Mat image;
+    private Mat mask;
+
+    @Before
+    public void setUp() {
+        OpenCVLoader.initDebug();
+        detector = new ColorStrawberryDetector();
+        image = new Mat(600, 800, CvType.CV_8UC3, new Scalar(255, 255, 255));
+
+        // A round strawberry, an elongated stem and a few hundred red specks
+        mask = Mat.zeros(600, 800, CvType.CV_8UC1);
+        Imgproc.circle(mask, new Point(200, 200), 80, new Scalar(255), Core.FILLED);
+        Imgproc.rectangle(mask, new Point(500, 100), new Point(540, 500), new Scalar(255), Core.FILLED);
+        for (int x = 5; x < 800; x += 10) {
+            for (int y = 520; y < 600; y += 20) {
+                mask.put(y, x, 255);
+            }
+        }
+    }
+
+    @Test
+    public void findBlobs() {
+        List<Blob> blobs = detector.findBlobs(mask);
+        assertEquals(2 + 80 * 4, blobs.size());
+
+        // Labels are numbered in scan order, so the stem that starts higher comes first
+        assertEquals(new Rect(500, 100, 41, 401), blobs.get(0).getBoundingBox());
+        Blob circle = blobs.get(1);
+        assertEquals(new Rect(120, 120, 161, 161), circle.getBoundingBox());
+        assertEquals(Math.PI / 4, circle.getFillRatio(), 0.02);
+        assertEquals(Math.PI * 80 * 80, circle.getArea(), 500);
+    }
+
+    @Test
+    public void extractStrawberries() {
+        List<StrawberrySegment> strawberries = detector.extractStrawberries(image, mask);
+        assertEquals(1, strawberries.size());
+        assertEquals(new Rect(120, 120, 161, 161), strawberries.get(0).getBoundingBox());
+
+        SegmentMask strawberryMask = strawberries.get(0).getMask();
+        assertEquals(161, strawberryMask.getWidth());
+        assertEquals(161, strawberryMask.getHeight());
+        assertEquals(Math.PI * 80 * 80, strawberryMask.getArea(), 500);
+        assertTrue(strawberryMask.contains(80, 80));
+        assertFalse(strawberryMask.contains(0, 0));
+    }
+
+    @Test
+    public void extractStrawberriesFromSmallerMask() {
+        Mat smallMask = Mat.zeros(300, 400, CvType.CV_8UC1);
+        Imgproc.circle(smallMask, new Point(100, 100), 40, new Scalar(255), Core.FILLED);
+
+        List<StrawberrySegment> strawberries = detector.extractStrawberries(image, smallMask);
+        assertEquals(1, strawberries.size());
+        assertEquals(new Rect(120, 120, 162, 162), strawberries.get(0).getBoundingBox());
+    }
+
+    @Test
+    public void workingSide() {
+        assertEquals(ColorStrawberryDetector.DEFAULT_WORKING_SIDE, detector.getWorkingSide());
+        assertEquals(512, new ColorStrawberryDetector(512).getWorkingSide());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidWorkingSide() {
+        new ColorStrawberryDetector(0);
+    }
+
+    @Test
+    public void generateMaskMatchesHsvRanges() {
+        Mat random = new Mat(256, 256, CvType.CV_8UC3);
+        Core.randu(random, 0, 256);
+        Mat hsv = new Mat();
+        Imgproc.cvtColor(random, hsv, Imgproc.COLOR_RGB2HSV);
+        Mat low = new Mat();
+        Core.inRange(hsv, new Scalar(0, 60, 100), new Scalar(10, 255, 255), low);
+        Mat high = new Mat();
+        Core.inRange(hsv, new Scalar(165, 60, 100), new Scalar(180, 255, 255), high);
+        Mat expected = new Mat();
+        Core.bitwise_or(low, high, expected);
+
+        Mat difference = new Mat();
+        Core.absdiff(detector.generateMask(random), expected, difference);
+        assertEquals(0, Core.countNonZero(difference));
+    }
+
+    @Test
+    public void filterMaskRemovesSpecksAndFillsHoles() {
+        for (int side : new int[] {1024, 512}) {
+            Mat ring = Mat.zeros(side * 3 / 4, side, CvType.CV_8UC1);
+            Point center = new Point(side / 2.0, side / 4.0);
+            Imgproc.circle(ring, center, side / 10, new Scalar(255), Core.FILLED);
+            Imgproc.circle(ring, center, side / 40, new Scalar(0), Core.FILLED);
+            ring.put(side / 2, side / 10, 255);
+
+            Mat filtered = detector.filterMask(ring);
+            assertEquals(255, filtered.get((int) center.y, (int) center.x)[0], 0);
+            assertEquals(0, filtered.get(side / 2, side / 10)[0], 0);
+            assertEquals(255, filtered.get((int) center.y, (int) center.x + side / 20)[0], 0);
+        }
+    }
+
+    @Test
+    public void emptyMask() {
+        assertTrue(detector.findBlobs(Mat.zeros(100, 100, CvType.CV_8UC1)).isEmpty());
+    }
+}
@@ -11,6 +11,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.example.fruitqualityprediction.preferences.ProcessingPreferences;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.color.ColorStrawberryDetector;
 
@@ -96,6 +97,23 @@ public class ImageProcessorTest {
         }
     }
 
+    @Test
+    public void extractStrawberryImagesClipsBoxesAndMasks() {
+        Rect box = new Rect(480, -10, 40, 30);
+        List<StrawberrySegment> segments = new ArrayList<>();
+        segments.add(new StrawberrySegment(box, SegmentMask.fromPixels(new byte[40 * 30], 40, 30)));
+        imageProcessor.importBoundingBoxes(segments);
+
+        imageProcessor.extractStrawberryImages();
+        StrawberrySegment segment = imageProcessor.getStrawberrySegments().get(0);
+
+        assertEquals(new Rect(480, 0, 20, 20), segment.getBoundingBox());
+        assertEquals(20, segment.getMask().getWidth());
+        assertEquals(20, segment.getMask().getHeight());
+        assertEquals(20, segment.getBitmap().getWidth());
+        assertEquals(new Rect(480, -10, 40, 30), box);
+    }
+
     @Test
     public void annotate_withQualityAttribute() {
         assertNull(imageProcessor.getStrawberrySegments());
@@ -16,6 +16,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.example.fruitqualityprediction.R;
 import com.example.fruitqualityprediction.sbprocessing.ripeness.RipenessCalculator;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -131,6 +132,30 @@ public class RipenessCalculatorTest {
         assertEquals("Blue strawberries should have a score of 0",ripeness, 0.0,0.001);
     }
 
+    @Test
+    public void testHalfGreenStrawberryWithColorMask() {
+        // The upper half is green, and the color segmentation only selects the red lower half
+        Bitmap halfGreen = Bitmap.createBitmap(300, 300, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(halfGreen);
+        Paint paint = new Paint();
+        paint.setColor(Color.rgb(60, 160, 40));
+        canvas.drawRect(0, 0, 300, 150, paint);
+        paint.setColor(Color.rgb(200, 20, 30));
+        canvas.drawRect(0, 150, 300, 300, paint);
+        byte[] pixels = new byte[300 * 300];
+        for (int i = 150 * 300; i < pixels.length; i++) {
+            pixels[i] = (byte) 255;
+        }
+        SegmentMask redHalf = SegmentMask.fromPixels(pixels, 300, 300);
+
+        double fullyRed = ripenessCalculator.calculateRipeness(halfGreen, redHalf);
+        double colorMasked = ripenessCalculator.calculateRipeness(halfGreen, redHalf.asColorDerived());
+        Log.d(ripenessTag, fullyRed + " " + colorMasked);
+        assertEquals("A color mask should not be used to measure the color",
+                ripenessCalculator.calculateRipeness(halfGreen), colorMasked, 0.0001);
+        assertTrue("The green half should lower the ripeness", colorMasked < fullyRed);
+    }
+
     @Test
     public void testRgbToLab() {
         double[] rgb = new double[]{255.0,70.0,100};
@@ -0,0 +1,100 @@
+package com.example.fruitqualityprediction.sbprocessing;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.tracking.StrawberryTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the tracker on rendered frames, which needs the native OpenCV library. The pure geometry is
+ * covered by the JVM StrawberryTrackerTest.
+ */
+public class StrawberryTrackerInstrumentedTest {
+
+    private StrawberryTracker tracker;
+
+    @Before
+    public void setUp() {
+        OpenCVLoader.initDebug();
+        tracker = new StrawberryTracker(3, 0.5);
+    }
+
+    /**
+     * Draws a textured strawberry on a plain background.
+     */
+    private Mat frame(int x, int y) {
+        Mat frame = new Mat(480, 640, CvType.CV_8UC4, new Scalar(40, 120, 40, 255));
+        Imgproc.circle(frame, new Point(x, y), 40, new Scalar(220, 30, 30, 255), Core.FILLED);
+        for (int i = -30; i <= 30; i += 12) {
+            for (int j = -30; j <= 30; j += 12) {
+                if (i * i + j * j < 900) {
+                    Imgproc.circle(frame, new Point(x + i, y + j), 2, new Scalar(250, 230, 80, 255), Core.FILLED);
+                }
+            }
+        }
+        return frame;
+    }
+
+    @Test
+    public void followsMovingStrawberry() {
+        tracker.reset(frame(200, 200), Collections.singletonList(new StrawberrySegment(new Rect(160, 160, 81, 81))));
+        assertFalse(tracker.needsDetection());
+
+        List<StrawberrySegment> segments = tracker.track(frame(208, 195));
+        assertEquals(1, segments.size());
+        Rect box = segments.get(0).getBoundingBox();
+        assertEquals(168, box.x, 2);
+        assertEquals(155, box.y, 2);
+        assertEquals(81, box.width, 4);
+        assertTrue(tracker.getConfidence() > 0.5);
+    }
+
+    @Test
+    public void detectsAgainAfterInterval() {
+        tracker.reset(frame(200, 200), Collections.singletonList(new StrawberrySegment(new Rect(160, 160, 81, 81))));
+        for (int i = 1; i <= 3; i++) {
+            tracker.track(frame(200 + i, 200));
+        }
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void nothingToTrack() {
+        tracker.reset(frame(200, 200), Collections.emptyList());
+        assertTrue(tracker.track(frame(200, 200)).isEmpty());
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void carriesMaskAndRestoresClippedBox() {
+        Mat mask = new Mat(81, 81, CvType.CV_8UC1, new Scalar(0));
+        Imgproc.circle(mask, new Point(40, 40), 40, new Scalar(255), Core.FILLED);
+        StrawberrySegment detected = new StrawberrySegment(new Rect(560, 160, 81, 81), SegmentMask.fromMat(mask));
+        tracker.reset(frame(600, 200), Collections.singletonList(detected));
+
+        // The strawberry moves partly out of the frame and back in
+        Rect clipped = tracker.track(frame(620, 200)).get(0).getBoundingBox();
+        assertEquals(640, clipped.x + clipped.width);
+        assertTrue(clipped.width < 81);
+        StrawberrySegment back = tracker.track(frame(590, 200)).get(0);
+        assertEquals(81, back.getBoundingBox().width, 4);
+        assertNotNull(back.getMask());
+        assertEquals(back.getBoundingBox().width, back.getMask().getWidth());
+        assertEquals(back.getBoundingBox().height, back.getMask().getHeight());
+    }
+}
@@ -13,7 +13,10 @@ import com.example.fruitqualityprediction.R;
 import com.example.fruitqualityprediction.preferences.ModelPreferences;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
 import com.example.fruitqualityprediction.providers.TimeProvider;
+import com.example.fruitqualityprediction.sbprocessing.calculator.BaseCalculator;
 import com.example.fruitqualityprediction.sbprocessing.calculator.brix.BrixCalculator;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateStore;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateWindow;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -22,9 +25,6 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import java.util.Arrays;
-import java.util.List;
-
 @RunWith(MockitoJUnitRunner.class)
 public class BrixCalculatorTest {
     @Mock
@@ -289,19 +289,20 @@ public class BrixCalculatorTest {
     }
 
     /**
-     * Tests getting the last n rows from the data functionality.
+     * Tests getting the window of climate data that ends at a timestamp.
      */
     @Test
-    public void testGetLastNRowsByTimestamp() {
+    public void testGetClimateWindowByTimestamp() {
         Context context = ApplicationProvider.getApplicationContext();
         BrixCalculator brixCalculator = new BrixCalculator(context, new TimeProvider(), preferenceProvider);
-        List<List<String>> result = brixCalculator.getLastNRowsByTimestamp(3, "sample1.csv", "", "2023-05-13");
-        List<List<String>> expectedResult = Arrays.asList(
-                Arrays.asList("2023-05-11", "data2"),
-                Arrays.asList("2023-05-12", "data3"),
-                Arrays.asList("2023-05-13", "data4")
-        );
-        assertEquals(expectedResult, result);
+        ClimateStore climateStore = ClimateStore.getInstance(context,
+                BaseCalculator.CLIMATE_DATA_DIRECTORY + "climate-data.csv");
+        ClimateWindow window = brixCalculator.getClimateWindow(climateStore, "2021-04-15 14:00:00", 3);
+        long epochHour = ClimateStore.toEpochHour("2021-04-15 14:00:00");
+        assertEquals(3, window.size());
+        assertEquals(climateStore.indexOf(epochHour) + 1, window.getEnd());
+        assertEquals(epochHour - 2, climateStore.getEpochHour(window.getStart()));
+        assertEquals(epochHour, climateStore.getEpochHour(window.getEnd() - 1));
     }
 
     /**
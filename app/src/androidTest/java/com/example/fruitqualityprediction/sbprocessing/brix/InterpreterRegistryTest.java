@@ -0,0 +1,82 @@
+package com.example.fruitqualityprediction.sbprocessing.brix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.example.fruitqualityprediction.sbprocessing.calculator.Encoder;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import com.example.fruitqualityprediction.sbprocessing.calculator.brix.BrixCalculator;
+
+import org.junit.After;
+import org.junit.Test;
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.util.Collections;
+
+public class InterpreterRegistryTest {
+    private static final String BRIX_MODEL = "reg_by-m5m4-mean-modelb-by-l1-w0-KRR-a100-d1-all_ckpt_s1.tflite";
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+    private final InterpreterRegistry registry = InterpreterRegistry.getInstance();
+
+    @After
+    public void tearDown() {
+        registry.clear();
+    }
+
+    /**
+     * Requesting the same model twice should return the warm interpreter instead of loading it again.
+     */
+    @Test
+    public void reusesInterpreter() throws IOException {
+        Interpreter first = registry.getInterpreter(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL);
+        Interpreter second = registry.getInterpreter(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL);
+        assertSame(first, second);
+        assertEquals(1, registry.size());
+    }
+
+    /**
+     * Models that are no longer selected should be evicted, the selected ones should stay warm.
+     */
+    @Test
+    public void retainModelsEvictsUnselected() throws IOException {
+        Interpreter brix = registry.getInterpreter(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL);
+        registry.getInterpreter(context, Encoder.FOLDER_NAME, "image-encoder.tflite");
+        assertEquals(2, registry.size());
+
+        registry.retainModels(Collections.singletonList(BrixCalculator.FOLDER_NAME + "/" + BRIX_MODEL));
+        assertEquals(1, registry.size());
+        assertSame(brix, registry.getInterpreter(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL));
+
+        registry.retainModels(Collections.emptyList());
+        assertNotSame(brix, registry.getInterpreter(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL));
+    }
+
+    /**
+     * An interpreter that is deselected during an inference should stay usable until its lease is
+     * released, and only then be closed.
+     */
+    @Test
+    public void retainModelsWaitsForLeases() throws IOException {
+        Interpreter interpreter;
+        try (InterpreterRegistry.Lease lease = registry.acquire(context, BrixCalculator.FOLDER_NAME, BRIX_MODEL)) {
+            interpreter = lease.getInterpreter();
+            registry.retainModels(Collections.emptyList());
+            assertEquals(0, registry.size());
+            assertEquals(1, interpreter.getInputTensorCount());
+        }
+        try {
+            interpreter.getInputTensorCount();
+            fail("The interpreter should be closed once its lease is released");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
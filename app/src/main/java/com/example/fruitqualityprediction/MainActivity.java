@@ -27,8 +27,15 @@ import com.example.fruitqualityprediction.fragments.CameraFragment;
 import com.example.fruitqualityprediction.fragments.SettingsFragment;
 import com.example.fruitqualityprediction.providers.ChartGeneratorProvider;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
+import com.example.fruitqualityprediction.sbprocessing.calculator.BaseCalculator;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateFeed;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateStore;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.OrtSessions;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.opencv.android.OpenCVLoader;
 
 /**
@@ -55,6 +62,7 @@ public class MainActivity extends AppCompatActivity {
     };
     private static final int REQUEST_CODE_PERMISSIONS = 10; // Expected status code.
     private static final String PREF_FIRST_RUN = "firstRun"; // The preference name of the "firstRun" setting.
+    private static final String CLIMATE_FEED_FILE = "climate-feed.csv"; // The file the climate computer appends to.
 
     private transient ARFragment arFrag; // The AR UI fragment.
     private transient CameraFragment cameraFrag; // The Camera UI fragment.
@@ -64,6 +72,10 @@ public class MainActivity extends AppCompatActivity {
     private UriUtils uriUtils; // Provides URI helper methods.
     private PreferenceProvider preferenceProvider;
     private ChartGeneratorProvider chartGeneratorProvider;
+    private transient ClimateFeed climateFeed; // Appends live climate data to the selected climate data.
+    private String climateFeedData; // The climate data file the feed appends to.
+    // Loads the climate data for the feed, which is the only thread that uses the two fields above
+    private final transient ExecutorService climateExecutor = Executors.newSingleThreadExecutor();
 
     /**
      * Called before anything is on-screen. This sets up the UI fragments and ensures we have the correct permissions.
@@ -78,7 +90,7 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        this.preferenceProvider = new PreferenceProvider(prefs);
+        this.preferenceProvider = new PreferenceProvider(prefs, getApplicationContext());
         boolean isFirstRun = prefs.getBoolean(PREF_FIRST_RUN, true);
 
         setContentView(R.layout.activity_main);
@@ -200,6 +212,7 @@ public class MainActivity extends AppCompatActivity {
         this.preferenceProvider.updateProcessingPreference();
         this.preferenceProvider.updateModelPreferences();
         this.chartGeneratorProvider.updateConfiguration(this.preferenceProvider.getVisualisationPreferences());
+        updateClimateFeed();
 
         FragmentTransaction tx = getSupportFragmentManager().beginTransaction();
         tx.replace(R.id.flContainer, frag);
@@ -207,6 +220,64 @@ public class MainActivity extends AppCompatActivity {
         currentFrag = frag;
     }
 
+    /**
+     * Follows the live climate data file in the app's external files directory, if the climate
+     * computer writes one, and appends its rows to the selected climate data. The feed is restarted
+     * when another climate data file is selected. Loading the climate data takes a while, so it
+     * happens in the background.
+     */
+    private void updateClimateFeed() {
+        String climateData = this.preferenceProvider.getModelPreferences().getClimateDataList();
+        climateExecutor.execute(() -> {
+            File feedFile = new File(getExternalFilesDir(null), CLIMATE_FEED_FILE);
+            if (climateFeed != null && climateData.equals(climateFeedData)) {
+                return;
+            }
+            if (climateFeed != null) {
+                climateFeed.close();
+                climateFeed = null;
+            }
+            if (feedFile.isFile()) {
+                try {
+                    ClimateStore store = ClimateStore.getInstance(this, BaseCalculator.CLIMATE_DATA_DIRECTORY + climateData);
+                    climateFeed = ClimateFeed.tailFile(store, feedFile, ClimateFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+                    climateFeedData = climateData;
+                } catch (RuntimeException e) {
+                    Log.e("CLIMATE FEED", "Could not load " + climateData + " for the climate feed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases the Segment-Anything sessions when the app is in the background and memory runs low,
+     * since they take hundreds of megabytes. They are loaded again when they are next used.
+     *
+     * @param level the context of the trim, such as {@link #TRIM_MEMORY_BACKGROUND}.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            OrtSessions.clear();
+        }
+    }
+
+    /**
+     * Stops the live climate data feed when the activity is destroyed.
+     */
+    @Override
+    protected void onDestroy() {
+        climateExecutor.execute(() -> {
+            if (climateFeed != null) {
+                climateFeed.close();
+                climateFeed = null;
+            }
+        });
+        climateExecutor.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * Called after permission has been requested.
      *
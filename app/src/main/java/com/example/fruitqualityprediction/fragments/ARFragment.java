@@ -22,26 +22,47 @@ import com.example.fruitqualityprediction.R;
 import com.example.fruitqualityprediction.providers.ChartGeneratorProvider;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
 import com.example.fruitqualityprediction.sbprocessing.ImageProcessor;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.AsyncStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.CachingStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.PipelinedStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.TiledStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.ColorStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.RedPixelClassifier;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.neural.CascadeStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.tracking.ChangeDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.tracking.StrawberryTracker;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.opencv.android.JavaCamera2View;
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * A class that controls the AR tab
  */
 public class ARFragment extends Fragment {
 
+    private static final double MAX_PARTIAL_COVERAGE = 0.5; // The part of the frame above which a change is detected in the whole frame.
+
     private final ChartGeneratorProvider chartGeneratorProvider;
     private final PreferenceProvider preferenceProvider;
 
     private transient ImageView imageView; // Represents the view that displays the bounding boxes and annotations.
     private transient List<StrawberrySegment> strawberrySegments; // Contains the segment data from the last frame.
     private boolean segmentationInProgress; // Represents whether segmentation is currently happening on the background thread.
+    private transient StrawberryTracker tracker; // Moves the bounding boxes along with the camera between detections.
+    private transient ChangeDetector changeDetector; // Finds the parts of a frame that changed since the last detection.
+    private transient Mat detectionFrame; // The frame of the last finished detection.
+    private transient volatile List<StrawberrySegment> detectedSegments; // The segments of the last finished detection, until the tracker takes them over.
+    private transient PipelinedStrawberryDetector pipeline; // Keeps several frames in flight at an asynchronous detector.
 
     /**
      * Initializes the chart generator provider.
@@ -73,6 +94,8 @@ public class ARFragment extends Fragment {
         View view = inflater.inflate(R.layout.fragment_ar, container, false);
         this.imageView = view.findViewById(R.id.imageView);
         this.segmentationInProgress = false;
+        this.tracker = new StrawberryTracker();
+        this.changeDetector = new ChangeDetector();
         return view;
     }
 
@@ -85,6 +108,164 @@ public class ARFragment extends Fragment {
         startCamera();
     }
 
+    /**
+     * Releases the native memory of the tracker along with the view it was created for.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        tracker.release();
+    }
+
+    /**
+     * Retrieves the selected detector without its detection cache. Live frames almost never repeat
+     * exactly, and the change detector already skips detection while the scene is steady. Frames
+     * that pass the change detector have moved, so even a near-duplicate match would put the boxes
+     * of an earlier view onto them.
+     *
+     * @return the selected detector.
+     */
+    private StrawberryDetector getSelectedDetector() {
+        StrawberryDetector strawberryDetector = preferenceProvider.getProcessingPreferences().getStrawberryDetector();
+        if (strawberryDetector instanceof CachingStrawberryDetector) {
+            strawberryDetector = ((CachingStrawberryDetector) strawberryDetector).getDetector();
+        }
+        return strawberryDetector;
+    }
+
+    /**
+     * Retrieves the detector for live frames. Color segmentation runs at a lower working resolution
+     * than for photos, so the bounding boxes can keep up with the camera.
+     *
+     * @return the detector to use.
+     */
+    private StrawberryDetector getStrawberryDetector() {
+        return getStrawberryDetector(ColorStrawberryDetector.AR_WORKING_SIDE);
+    }
+
+    /**
+     * Retrieves the detector for live frames with a given working resolution for color segmentation.
+     *
+     * @param workingSide the largest side color segmentation analyses the image at.
+     *
+     * @return the detector to use.
+     */
+    private StrawberryDetector getStrawberryDetector(int workingSide) {
+        StrawberryDetector strawberryDetector = getSelectedDetector();
+        if (strawberryDetector instanceof TiledStrawberryDetector) {
+            // Camera frames are small enough to process in one piece
+            strawberryDetector = ((TiledStrawberryDetector) strawberryDetector).getDetector();
+        }
+        if (strawberryDetector instanceof CascadeStrawberryDetector) {
+            // Only the proposals are computed at a lower resolution, the crops keep their detail
+            CascadeStrawberryDetector cascade = (CascadeStrawberryDetector) strawberryDetector;
+            return new CascadeStrawberryDetector(getLiveDetector(cascade.getProposer(), workingSide), cascade.getClassifier(), cascade.getThreshold());
+        }
+        return getLiveDetector(strawberryDetector, workingSide);
+    }
+
+    /**
+     * Lowers the working resolution of color segmentation for live frames.
+     *
+     * @param strawberryDetector the detector for photos.
+     * @param workingSide        the largest side color segmentation analyses the image at.
+     *
+     * @return the detector for live frames.
+     */
+    private static StrawberryDetector getLiveDetector(StrawberryDetector strawberryDetector, int workingSide) {
+        if (strawberryDetector instanceof ColorStrawberryDetector) {
+            RedPixelClassifier classifier = ((ColorStrawberryDetector) strawberryDetector).getClassifier();
+            return new ColorStrawberryDetector(workingSide, classifier);
+        }
+        return strawberryDetector;
+    }
+
+    /**
+     * Scales the live working resolution to a region of a frame, so the region is analysed at the
+     * same scale as a whole frame. Otherwise small regions would be enlarged, and the noise filters
+     * and the minimum strawberry area would no longer match the size of the strawberries.
+     *
+     * @param region      the region of the frame.
+     * @param frameWidth  the width of the frame.
+     * @param frameHeight the height of the frame.
+     *
+     * @return the largest side color segmentation should analyse the region at.
+     */
+    private static int getRegionWorkingSide(Rect region, int frameWidth, int frameHeight) {
+        double scale = (double) Math.max(region.width, region.height) / Math.max(frameWidth, frameHeight);
+        return Math.max(1, (int) Math.round(ColorStrawberryDetector.AR_WORKING_SIDE * scale));
+    }
+
+    /**
+     * Detects the strawberries in the changed regions of a frame only, and keeps the tracked
+     * strawberries elsewhere. Regions are widened to the tracked strawberries they touch, so these
+     * are detected as a whole.
+     *
+     * @param frame   the frame.
+     * @param changes the changed regions of the frame.
+     * @param tracked the strawberries tracked to the frame.
+     *
+     * @return the strawberries in the frame.
+     */
+    private List<StrawberrySegment> detectChanges(Mat frame, List<Rect> changes, List<StrawberrySegment> tracked) {
+        List<Rect> trackedBoxes = new ArrayList<>();
+        for (StrawberrySegment segment : tracked) {
+            trackedBoxes.add(segment.getBoundingBox());
+        }
+        List<Rect> regions = ChangeDetector.coverBoxes(changes, trackedBoxes);
+
+        List<StrawberrySegment> segments = new ArrayList<>();
+        for (StrawberrySegment segment : tracked) {
+            boolean redetected = false;
+            for (Rect region : regions) {
+                redetected |= ChangeDetector.intersects(segment.getBoundingBox(), region);
+            }
+            if (!redetected) {
+                segments.add(segment);
+            }
+        }
+        for (Rect region : regions) {
+            StrawberryDetector strawberryDetector = getStrawberryDetector(getRegionWorkingSide(region, frame.cols(), frame.rows()));
+            for (StrawberrySegment segment : strawberryDetector.detectStrawberries(frame.submat(region))) {
+                Rect box = segment.getBoundingBox();
+                segments.add(new StrawberrySegment(new Rect(box.x + region.x, box.y + region.y, box.width, box.height), segment.getMask()));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Sends a changed frame to an asynchronous detector, such as a server. Several frames are in
+     * flight at once, so the next frame is on the wire while this one is annotated, and frames that
+     * are superseded before they are sent are dropped. The frame becomes the reference of the change
+     * detector right away, so the same scene is not sent again while it is in flight, and the
+     * reference is forgotten if the detection fails, so the scene is sent again.
+     *
+     * @param strawberryDetector the asynchronous detector.
+     * @param frame              the frame.
+     */
+    private void detectPipelined(AsyncStrawberryDetector strawberryDetector, Mat frame) {
+        if (changeDetector.findChanges(frame).isEmpty()) {
+            return;
+        }
+        Mat clone = frame.clone();
+        changeDetector.setReference(clone);
+        if (pipeline == null || pipeline.getDetector() != strawberryDetector) {
+            pipeline = new PipelinedStrawberryDetector(strawberryDetector);
+        }
+        Executor mainExecutor = ContextCompat.getMainExecutor(requireContext());
+        pipeline.detectStrawberriesAsync(clone).whenComplete((segments, error) -> {
+            if (error == null) {
+                detectionFrame = clone;
+                detectedSegments = segments;
+            } else if (!(error instanceof CancellationException)) {
+                // Superseded frames are cancelled, but a newer frame is then the reference already.
+                // The change detector is only used on the main thread, like the image analysis.
+                mainExecutor.execute(changeDetector::reset);
+            }
+        });
+    }
+
     /**
      * Starts the camera.
      */
@@ -115,18 +296,45 @@ public class ARFragment extends Fragment {
                     Mat mat = jc2f.rgba();
                     Core.rotate(mat, mat, Core.ROTATE_90_CLOCKWISE);
 
-                    // If we're not already performing segmentation in the background, start a new thread to do so
-                    if (!segmentationInProgress) {
-                        segmentationInProgress = true;
-                        Mat clone = mat.clone();
-                        // Spawn a new background thread
-                        new Thread(() -> {
-                            // Perform segmentation
-                            ImageProcessor imageProcessor = new ImageProcessor(clone, getContext(), preferenceProvider, null);
-                            imageProcessor.detectSegments();
-                            strawberrySegments = imageProcessor.getStrawberrySegments();
-                            segmentationInProgress = false;
-                        }).start();
+                    // Follow the boxes of the last detection to this frame. A new detection is tracked from
+                    // the frame it was made in, which makes up for the time the detection took.
+                    List<StrawberrySegment> detected = detectedSegments;
+                    if (detected != null) {
+                        detectedSegments = null;
+                        tracker.reset(detectionFrame, detected);
+                    }
+                    strawberrySegments = tracker.track(mat);
+
+                    // Only detect again in the background if the boxes are old or tracking is failing, and
+                    // only if the scene changed since the last detection
+                    StrawberryDetector selectedDetector = getSelectedDetector();
+                    if (selectedDetector instanceof AsyncStrawberryDetector) {
+                        if (tracker.needsDetection()) {
+                            detectPipelined((AsyncStrawberryDetector) selectedDetector, mat);
+                        }
+                    } else if (!segmentationInProgress && tracker.needsDetection()) {
+                        List<Rect> changes = changeDetector.findChanges(mat);
+                        if (!changes.isEmpty()) {
+                            segmentationInProgress = true;
+                            Mat clone = mat.clone();
+                            changeDetector.setReference(clone);
+                            List<StrawberrySegment> tracked = strawberrySegments;
+                            // Spawn a new background thread
+                            new Thread(() -> {
+                                // Perform segmentation
+                                List<StrawberrySegment> segments;
+                                if (ChangeDetector.coverage(changes, clone.size()) > MAX_PARTIAL_COVERAGE) {
+                                    ImageProcessor imageProcessor = new ImageProcessor(clone, getContext(), preferenceProvider, null);
+                                    imageProcessor.detectSegments(getStrawberryDetector());
+                                    segments = imageProcessor.getStrawberrySegments();
+                                } else {
+                                    segments = detectChanges(clone, changes, tracked);
+                                }
+                                detectionFrame = clone;
+                                detectedSegments = segments;
+                                segmentationInProgress = false;
+                            }).start();
+                        }
                     }
 
                     ImageProcessor imageProcessor = new ImageProcessor(mat, getContext(), preferenceProvider, null);
@@ -19,14 +19,13 @@ import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 import androidx.preference.SwitchPreferenceCompat;
 import com.example.fruitqualityprediction.R;
+import com.example.fruitqualityprediction.sbprocessing.calculator.CsvTokenizer;
 import com.example.fruitqualityprediction.settingsadapters.PercentagePreference;
 import androidx.preference.ListPreference;
 import org.tensorflow.lite.Interpreter;
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -449,10 +448,16 @@ public class SettingsFragment extends PreferenceFragmentCompat {
      */
     private int getNumColumnsFromCSV(String csvFile) {
         AssetManager assetManager = requireContext().getAssets();
-        try (InputStream inputStream = assetManager.open(csvFile);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String firstRow = reader.readLine();
-            return firstRow.split(",").length;
+        try (InputStream inputStream = assetManager.open(csvFile)) {
+            // Header cells may be quoted and contain commas, so the cells are counted by the tokenizer
+            CsvTokenizer tokenizer = new CsvTokenizer(inputStream, ',');
+            int numColumns = 0;
+            if (tokenizer.nextLine()) {
+                while (tokenizer.nextCell()) {
+                    numColumns++;
+                }
+            }
+            return numColumns;
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -1,13 +1,30 @@
 package com.example.fruitqualityprediction.providers;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import com.example.fruitqualityprediction.preferences.ModelPreferences;
 import com.example.fruitqualityprediction.preferences.ProcessingPreferences;
 import com.example.fruitqualityprediction.preferences.VisualisationPreferences;
+import com.example.fruitqualityprediction.sbprocessing.calculator.Encoder;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import com.example.fruitqualityprediction.sbprocessing.calculator.brix.BrixCalculator;
+import com.example.fruitqualityprediction.sbprocessing.calculator.firmness.FirmnessCalculator;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.CachingStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.DetectionCache;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.TiledStrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.color.ColorStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.RedPixelClassifier;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.neural.CascadeStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.neural.NeuralStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.neural.StrawberryCropClassifier;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.remote.RemoteStrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.roboflow.RoboflowDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.OrtSessions;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.SegmentAnythingModelDecoder;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.SegmentAnythingModelEncoder;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,13 +34,28 @@ import java.util.Set;
 public class PreferenceProvider {
 
     private final SharedPreferences prefs;
+    private final Context context; // The application context, to load on-device models.
+    private DetectionCache detectionCache = new DetectionCache(); // The detections of recent images, kept while the detector settings stay the same.
+    private String detectorSettings; // The settings the cached detections were made with.
 
     private VisualisationPreferences visualisationPreferences;
     private ProcessingPreferences processingPreferences;
     private ModelPreferences modelPreferences;
 
     public PreferenceProvider(SharedPreferences prefs) {
+        this(prefs, null);
+    }
+
+    /**
+     * Creates a preference provider that can also create detectors with on-device models.
+     *
+     * @param prefs   the shared preferences.
+     * @param context the application context, or null to fall back to color segmentation when an
+     *                on-device model is selected.
+     */
+    public PreferenceProvider(SharedPreferences prefs, Context context) {
         this.prefs = prefs;
+        this.context = context;
         updateProcessingPreference();
         updateModelPreferences();
         updateVisualisationPreferences();
@@ -43,6 +75,78 @@ public class PreferenceProvider {
         this.visualisationPreferences = new VisualisationPreferences(ripenessFunction, ripenessMin, ripenessMax, timeMin, timeMax, timeUnit);
     }
 
+    /**
+     * Creates the red pixel classifier with the color segmentation thresholds from the preferences.
+     *
+     * @return the classifier, or one with the default thresholds if the preferences are invalid.
+     */
+    private RedPixelClassifier getRedPixelClassifier() {
+        try {
+            return new RedPixelClassifier(
+                    getIntPreference("color_low_hue_max", RedPixelClassifier.DEFAULT_LOW_HUE_MAX),
+                    getIntPreference("color_high_hue_min", RedPixelClassifier.DEFAULT_HIGH_HUE_MIN),
+                    getIntPreference("color_saturation_min", RedPixelClassifier.DEFAULT_SATURATION_MIN),
+                    getIntPreference("color_saturation_max", 255),
+                    getIntPreference("color_value_min", RedPixelClassifier.DEFAULT_VALUE_MIN),
+                    getIntPreference("color_value_max", 255));
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return new RedPixelClassifier();
+        }
+    }
+
+    /**
+     * Creates a remote detector that sends images with the encoding and quality from the preferences.
+     *
+     * @param method the segmentation method of the server.
+     *
+     * @return the detector, which sends raw pixels if the preferences are invalid.
+     */
+    private RemoteStrawberryDetector getRemoteDetector(String method) {
+        RemoteStrawberryDetector detector = new RemoteStrawberryDetector(method);
+        try {
+            detector.setEncoding(RemoteStrawberryDetector.Encoding.valueOf(
+                    this.prefs.getString("remote_encoding", RemoteStrawberryDetector.DEFAULT_ENCODING.name())));
+            detector.setQuality(getIntPreference("remote_quality", RemoteStrawberryDetector.DEFAULT_QUALITY));
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            detector.setEncoding(RemoteStrawberryDetector.DEFAULT_ENCODING);
+        }
+        return detector;
+    }
+
+    /**
+     * Reads an integer that is stored as text, like the values of number input fields.
+     *
+     * @param key          the key of the preference.
+     * @param defaultValue the value if the preference is not set.
+     *
+     * @return the value of the preference.
+     *
+     * @throws NumberFormatException if the preference is not an integer.
+     */
+    private int getIntPreference(String key, int defaultValue) {
+        return Integer.parseInt(this.prefs.getString(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Describes the preferences that change the detections, so cached detections are only reused
+     * with the detector that made them.
+     *
+     * @param segmentation the selected segmentation method.
+     *
+     * @return the detector settings.
+     */
+    private String getDetectorSettings(String segmentation) {
+        StringBuilder settings = new StringBuilder(segmentation)
+                .append(';').append(this.prefs.getBoolean("tiled_segmentation", false));
+        for (String key : new String[] {"color_low_hue_max", "color_high_hue_min", "color_saturation_min",
+                "color_saturation_max", "color_value_min", "color_value_max", "remote_encoding", "remote_quality"}) {
+            settings.append(';').append(this.prefs.getString(key, ""));
+        }
+        return settings.toString();
+    }
+
     /**
      * Leads the current values of the processing preferences.
      */
@@ -50,10 +154,37 @@ public class PreferenceProvider {
         String segmentation = this.prefs.getString("seg_model","Color-Segmentation");
         StrawberryDetector strawberryDetector = switch (segmentation) {
             case "Roboflow" -> new RoboflowDetector();
-            case "Remote-Color-Segmentation" -> new RemoteStrawberryDetector("color");
-            case "Remote-YOLOX-Segmentation" -> new RemoteStrawberryDetector("yolox");
-            default -> new ColorStrawberryDetector();
+            case "Remote-Color-Segmentation" -> getRemoteDetector("color");
+            case "Remote-YOLOX-Segmentation" -> getRemoteDetector("yolox");
+            // The option is only offered once the model is bundled, but it may still be stored
+            case "On-Device-YOLOX-Segmentation" -> context != null && NeuralStrawberryDetector.isAvailable(context)
+                    ? new NeuralStrawberryDetector(context)
+                    : new ColorStrawberryDetector(ColorStrawberryDetector.DEFAULT_WORKING_SIDE, getRedPixelClassifier());
+            case "Color-Classifier-Cascade" -> context != null && StrawberryCropClassifier.isAvailable(context) ? new CascadeStrawberryDetector(
+                    new ColorStrawberryDetector(ColorStrawberryDetector.DEFAULT_WORKING_SIDE, getRedPixelClassifier()),
+                    new StrawberryCropClassifier(context))
+                    : new ColorStrawberryDetector(ColorStrawberryDetector.DEFAULT_WORKING_SIDE, getRedPixelClassifier());
+            default -> new ColorStrawberryDetector(ColorStrawberryDetector.DEFAULT_WORKING_SIDE, getRedPixelClassifier());
         };
+        if (this.prefs.getBoolean("tiled_segmentation", false) && strawberryDetector instanceof ColorStrawberryDetector) {
+            // Every tile is analysed at its full resolution
+            strawberryDetector = new TiledStrawberryDetector(new ColorStrawberryDetector(
+                    TiledStrawberryDetector.DEFAULT_TILE_SIDE, getRedPixelClassifier()));
+        }
+        if (this.prefs.getBoolean("detection_cache", true)) {
+            // The detector is recreated whenever the preferences are read, so the cache outlives it
+            String settings = getDetectorSettings(segmentation);
+            int maxDistance = "near-duplicate".equals(this.prefs.getString("detection_cache_matching", "exact"))
+                    ? DetectionCache.NEAR_DUPLICATE_DISTANCE : DetectionCache.DEFAULT_MAX_DISTANCE;
+            if (maxDistance != detectionCache.getMaxDistance()) {
+                // Exact and near-duplicate caches key their images by different hashes
+                detectionCache = new DetectionCache(DetectionCache.DEFAULT_BUDGET, maxDistance);
+            } else if (!settings.equals(detectorSettings)) {
+                detectionCache.clear();
+            }
+            detectorSettings = settings;
+            strawberryDetector = new CachingStrawberryDetector(strawberryDetector, detectionCache);
+        }
 
         String selectedPercentage = this.prefs.getString("percentage_preference", "100");
         // Remove the "%" symbol from the selected percentage string
@@ -82,6 +213,16 @@ public class PreferenceProvider {
         String encoderModelsList = this.prefs.getString("encoder_models_list", "image-encoder.tflite");
 
         this.modelPreferences = new ModelPreferences(excludedBrixColumns, excludedFirmnessColumns, climateDataList, brixWeightsList, brixModelList ,firmnessModelList, firmnessWeightsList, encoderModelsList);
+
+        // Release the interpreters and encoders of models that are no longer selected
+        Encoder.retainModels(Collections.singletonList(encoderModelsList));
+        InterpreterRegistry.getInstance().retainModels(Arrays.asList(
+                BrixCalculator.FOLDER_NAME + "/" + brixModelList,
+                FirmnessCalculator.FOLDER_NAME + "/" + firmnessModelList,
+                Encoder.FOLDER_NAME + "/" + encoderModelsList,
+                NeuralStrawberryDetector.FOLDER_NAME + "/" + NeuralStrawberryDetector.DEFAULT_MODEL,
+                NeuralStrawberryDetector.FOLDER_NAME + "/" + StrawberryCropClassifier.DEFAULT_MODEL));
+        OrtSessions.retainModels(Arrays.asList(SegmentAnythingModelEncoder.DEFAULT_MODEL, SegmentAnythingModelDecoder.DEFAULT_MODEL));
     }
 
     /**
@@ -3,6 +3,7 @@ package com.example.fruitqualityprediction.sbprocessing;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.widget.ImageView;
+import com.example.fruitqualityprediction.preferences.ProcessingPreferences;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
 import com.example.fruitqualityprediction.providers.TimeProvider;
 import com.example.fruitqualityprediction.sbprocessing.marketability.MarketabilityCalculator;
@@ -11,7 +12,10 @@ import com.example.fruitqualityprediction.sbprocessing.marketability.SmoothnessC
 import com.example.fruitqualityprediction.sbprocessing.calculator.firmness.FirmnessCalculator;
 import com.example.fruitqualityprediction.sbprocessing.ripeness.RipenessCalculator;
 import com.example.fruitqualityprediction.sbprocessing.calculator.brix.BrixCalculator;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.CachingStrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.TiledStrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
 import com.example.fruitqualityprediction.sbprocessing.visualization.Annotator;
 import com.example.fruitqualityprediction.sbprocessing.visualization.ChartGenerator;
@@ -29,6 +33,7 @@ import java.util.List;
 public class ImageProcessor {
 
     private static final int MAX_PIXELS = 2048;
+    private static final int MAX_TILED_PIXELS = 4096; // The maximum size when the detector splits the image into tiles.
 
     private final Annotator annotator; // The annotator instance used for this processing round.
     private final Context context; // The current context.
@@ -64,7 +69,7 @@ public class ImageProcessor {
         this(context, preferenceProvider, imageName);
         Mat matImage = new Mat();
         Utils.bitmapToMat(bitmap, matImage);
-        this.image = resizeImage(matImage, MAX_PIXELS);
+        this.image = resizeImage(matImage, getMaxPixels());
     }
 
     /**
@@ -77,7 +82,28 @@ public class ImageProcessor {
      */
     public ImageProcessor(Mat image, Context context, PreferenceProvider preferenceProvider, String imageName) {
         this(context, preferenceProvider, imageName);
-        this.image = resizeImage(image, MAX_PIXELS);
+        this.image = resizeImage(image, getMaxPixels());
+    }
+
+    /**
+     * Determines the largest size of the processed image. Tiled detectors process large images in
+     * parallel, so they get more detail.
+     *
+     * @return the maximum width and height of the image.
+     */
+    private int getMaxPixels() {
+        ProcessingPreferences processingPreferences = preferenceProvider == null ? null : preferenceProvider.getProcessingPreferences();
+        if (processingPreferences == null) {
+            return MAX_PIXELS;
+        }
+        StrawberryDetector strawberryDetector = processingPreferences.getStrawberryDetector();
+        if (strawberryDetector instanceof CachingStrawberryDetector) {
+            strawberryDetector = ((CachingStrawberryDetector) strawberryDetector).getDetector();
+        }
+        if (strawberryDetector instanceof TiledStrawberryDetector) {
+            return MAX_TILED_PIXELS;
+        }
+        return MAX_PIXELS;
     }
 
     /**
@@ -93,7 +119,15 @@ public class ImageProcessor {
      * Detect segments in the current image.
      */
     public void detectSegments() {
-        StrawberryDetector strawberryDetector = this.preferenceProvider.getProcessingPreferences().getStrawberryDetector();
+        detectSegments(this.preferenceProvider.getProcessingPreferences().getStrawberryDetector());
+    }
+
+    /**
+     * Detect segments in the current image with a specific detector.
+     *
+     * @param strawberryDetector the detector to use instead of the one in the preferences.
+     */
+    public void detectSegments(StrawberryDetector strawberryDetector) {
         this.strawberrySegments = strawberryDetector.detectStrawberries(image);
     }
 
@@ -105,17 +139,20 @@ public class ImageProcessor {
     public void importBoundingBoxes(List<StrawberrySegment> importedSegments) {
         this.strawberrySegments = new ArrayList<>();
         for (StrawberrySegment importedSegment : importedSegments) {
-            this.strawberrySegments.add(new StrawberrySegment(importedSegment.getBoundingBox()));
+            this.strawberrySegments.add(new StrawberrySegment(importedSegment.getBoundingBox(), importedSegment.getMask()));
         }
     }
 
     /**
      * Extracts strawberry images from the original image using the bounding boxes of the segments.
+     * Segments that extend beyond the image are replaced by segments clipped to it, so the bounding
+     * box, the mask and the bitmap of every segment have the same size.
      */
     public void extractStrawberryImages() {
         int imageWidth = image.cols();
         int imageHeight = image.rows();
 
+        List<StrawberrySegment> extractedSegments = new ArrayList<>(this.strawberrySegments.size());
         for (StrawberrySegment strawberrySegment : this.strawberrySegments) {
             // Get the bounding box coordinates
             int x = strawberrySegment.getBoundingBox().x;
@@ -141,11 +178,21 @@ public class ImageProcessor {
 
             // Create the strawberry Mat and Bitmap using adjusted bounding box coordinates
             Rect adjustedBoundingBox = new Rect(x, y, width, height);
+            Rect box = strawberrySegment.getBoundingBox();
+            if (!adjustedBoundingBox.equals(box)) {
+                // The box may be shared with the caller, so the clipped box and mask go in a new segment
+                SegmentMask mask = strawberrySegment.getMask();
+                strawberrySegment = new StrawberrySegment(adjustedBoundingBox,
+                        mask == null ? null : mask.crop(x - box.x, y - box.y, width, height));
+            }
             Mat strawberryMat = new Mat(image, adjustedBoundingBox);
             Bitmap strawberryBitmap = Bitmap.createBitmap(strawberryMat.cols(), strawberryMat.rows(), Bitmap.Config.ARGB_8888);
             Utils.matToBitmap(strawberryMat, strawberryBitmap);
+            strawberryMat.release();
             strawberrySegment.setBitmap(strawberryBitmap);
+            extractedSegments.add(strawberrySegment);
         }
+        this.strawberrySegments = extractedSegments;
     }
 
     /**
@@ -154,7 +201,7 @@ public class ImageProcessor {
     public void calculateRipeness() {
         RipenessCalculator ripenessCalculator = new RipenessCalculator();
         for (StrawberrySegment strawberrySegment : this.strawberrySegments) {
-            strawberrySegment.setRipeness(ripenessCalculator.calculateRipeness(strawberrySegment.getBitmap()));
+            strawberrySegment.setRipeness(ripenessCalculator.calculateRipeness(strawberrySegment.getBitmap(), strawberrySegment.getMask()));
         }
     }
 
@@ -162,10 +209,18 @@ public class ImageProcessor {
      * Calculates the Brix of all detected segments.
      */
     public void calculateBrix() {
-    BrixCalculator brixCalculator = new BrixCalculator(context, new TimeProvider(), preferenceProvider);
+        if (this.strawberrySegments.isEmpty()) {
+            return;
+        }
+        BrixCalculator brixCalculator = new BrixCalculator(context, new TimeProvider(), preferenceProvider);
+        List<Bitmap> strawberryBitmaps = new ArrayList<>();
         for (StrawberrySegment strawberrySegment : this.strawberrySegments) {
-            float brix = brixCalculator.calculateBrix(brixCalculator.getTime(imageName), strawberrySegment.getBitmap());
-            strawberrySegment.setBrix(brix);
+            strawberryBitmaps.add(strawberrySegment.getBitmap());
+        }
+        // All segments share the image's timestamp, so they are evaluated in a single batch
+        float[] brix = brixCalculator.calculateBrix(brixCalculator.getTime(imageName), strawberryBitmaps);
+        for (int i = 0; i < brix.length; i++) {
+            this.strawberrySegments.get(i).setBrix(brix[i]);
         }
     }
 
@@ -187,7 +242,7 @@ public class ImageProcessor {
     public void calculateRoundness() {
         RoundnessCalculator roundnessCalculator = new RoundnessCalculator();
         for (StrawberrySegment strawberrySegment : this.strawberrySegments) {
-            double roundness = roundnessCalculator.calculateRoundness(strawberrySegment.getBitmap());
+            double roundness = roundnessCalculator.calculateRoundness(strawberrySegment.getBitmap(), strawberrySegment.getMask());
             strawberrySegment.setRoundness(roundness);
         }
     }
@@ -209,7 +264,7 @@ public class ImageProcessor {
     public void calculateSmoothness() {
         SmoothnessCalculator smoothnessCalculator = new SmoothnessCalculator();
         for (StrawberrySegment strawberrySegment : this.strawberrySegments) {
-            double smoothness = smoothnessCalculator.calculateSmoothness(strawberrySegment.getBitmap());
+            double smoothness = smoothnessCalculator.calculateSmoothness(strawberrySegment.getBitmap(), strawberrySegment.getMask());
             strawberrySegment.setSmoothness(smoothness);
         }
     }
@@ -235,6 +290,12 @@ public class ImageProcessor {
             }
         }
 
+        // Encode the clean photo for mask refinement before the boxes are drawn onto it. Live frames
+        // have no name and are annotated many times per second, so they are never encoded.
+        if (imageName != null && context != null) {
+            annotator.prepareMaskRefinement(context, image);
+        }
+
         // Perform the annotation
         Bitmap bitmap = annotator.overlayBoundingBoxes(image, strawberrySegments);
         annotator.updateImageview(imageView, bitmap);
@@ -1,25 +1,19 @@
 package com.example.fruitqualityprediction.sbprocessing.calculator;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
 import com.example.fruitqualityprediction.providers.TimeProvider;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateStore;
+import com.example.fruitqualityprediction.sbprocessing.calculator.climate.ClimateWindow;
 import org.tensorflow.lite.Interpreter;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -29,6 +23,9 @@ import java.util.regex.Pattern;
  */
 public abstract class BaseCalculator {
 
+    public static final String CLIMATE_DATA_DIRECTORY = "climate-data/";
+    public static final int DEFAULT_WINDOW_HOURS = 14 * 24; // The last 14 days of climate data.
+
     protected final transient Context context; // The current context.
     protected final PreferenceProvider preferenceProvider; // The user's preferences.
     protected final TimeProvider timeProvider; // The calculator's time provider.
@@ -46,56 +43,6 @@ public abstract class BaseCalculator {
         this.preferenceProvider = preferenceProvider;
     }
 
-    /**
-     * Convert the data in the csv to a list of lists, where each list in the list represents a row in the csv file.
-     *
-     * @param csvFile the csv file to convert.
-     *
-     * @return the list of lists.
-     */
-    public List<List<String>> getRowsFromCSV(String csvFile) {
-        List<List<String>> rows = new ArrayList<>();
-        AssetManager assetManager = context.getAssets();
-        try (InputStream inputStream = assetManager.open(csvFile);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            reader.readLine();
-            while ((line = reader.readLine()) != null) {
-                List<String> row = Arrays.asList(line.split(","));
-                rows.add(row);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return rows;
-    }
-
-    /**
-     * Find the 336 rows above and including the row which contains the given timestamp.
-     *
-     * @param n         the number of rows
-     * @param fileName  the file name of the climate data
-     * @param timestamp the timestamp to look for
-     *
-     * @return 336 rows above and including the row which contains the given timestamp. This represents
-     *         climate data from the last 14 days or the last 336 hours.
-     */
-    public List<List<String>> getLastNRowsByTimestamp(int n, String fileName,String directory, String timestamp) {
-        List<List<String>> rows = getRowsFromCSV(directory + fileName);
-        int timestampIndex = -1;
-        for (int i = 0; i < rows.size(); i++) {
-            List<String> row = rows.get(i);
-            if (row.get(0).equals(timestamp)) {
-                timestampIndex = i;
-                break;
-            }
-        }
-        if (timestampIndex == -1) {
-            return null;
-        }
-        return rows.subList(Math.max(timestampIndex - (n - 1), 0), timestampIndex + 1);
-    }
-
     /**
      * Parse the data by converting string values to double values and empty values to Double.Nan.
      *
@@ -168,43 +115,6 @@ public abstract class BaseCalculator {
         return false;
     }
 
-    /**
-     * Performs the multiplication of the weights and the climate data.
-     *
-     * @param weights             the weights, either the quantile weights or the mean weights.
-     * @param avgFeatures         the averaged feature values of the last 336 hours, or 14 days.
-     * @param quantiles           the quantiles or the mean array of the brix/firmness distribution
-     *                            that is in the process of being calculated.
-     * @param climateDataFilename the climate data file.
-     * @param weightsFilename     the weights file.
-     */
-    public void multiplyWeightsWithClimateData(double[][] weights, double[] avgFeatures, double[] quantiles,
-                                               String climateDataFilename, String weightsFilename) {
-        FeaturesOrderRetriever featuresOrderRetriever = new FeaturesOrderRetriever(context, weightsFilename,
-                climateDataFilename);
-        List<Integer> featuresOrder = featuresOrderRetriever.getFeaturesOrder();
-        for (int weightsColumnIndex = 0; weightsColumnIndex < weights[0].length; weightsColumnIndex++) {
-            dotProduct(weights, weightsColumnIndex, avgFeatures, featuresOrder.get(weightsColumnIndex), quantiles);
-        }
-    }
-
-    /**
-     * Calculates the dot product of a column of weights and an item of avgFeatures.
-     *
-     * @param weights          the weights, represented as a 2D array.
-     * @param column           the column index in the weights.
-     * @param avgFeatures      the averaged feature values of the last 336 hours, or 14 days.
-     * @param avgFeaturesIndex the index of the element in average features.
-     * @param quantiles        the quantiles or the mean array of the Brix/firmness distribution
-     *                         that is in the process of being calculated.
-     */
-    private static void dotProduct(double[][] weights, int column, double[] avgFeatures, int avgFeaturesIndex,
-                                   double[] quantiles) {
-        for (int row = 0; row < weights.length; row++) {
-            quantiles[row] += weights[row][column] * avgFeatures[avgFeaturesIndex];
-        }
-    }
-
     /**
      * Computes the quantiles taking into consideration the mean and the variance
      * @param quantiles the quantiles to compute.
@@ -240,42 +150,29 @@ public abstract class BaseCalculator {
      */
     public double[] getQuantiles(String timestamp, String climateDataFilename, String weightsFilename,
                                  int[] excludedWeights, boolean useHardcodedExcludedWeights, String weightsDirectory) {
-        // last 336 hours or last 14 days
-        int n = 336;
-        List<List<String>> lastNRows = getLastNRowsByTimestamp(n, climateDataFilename,"climate-data/",  timestamp);
-        int rowExpectedSize = 25;
-        if (lastNRows.get(0).size() != rowExpectedSize) {
-            lastNRows = lastNRows.subList(1, lastNRows.size());
-        }
-        String[][] data = new String[lastNRows.size()][lastNRows.get(0).size()];
-        for (int i = 0; i < lastNRows.size(); i++) {
-            List<String> row = lastNRows.get(i);
-            data[i] = row.toArray(new String[0]);
-        }
-        double[][] preprocessedData = preprocessData(data);
-        int[] excludeIndices = {0};
-        preprocessedData = removeGivenColumns(preprocessedData, excludeIndices);
-        for (int i = 0; i < preprocessedData.length; i++) {
-            for (int j = 0; j < preprocessedData[i].length; j++) {
-                if (Double.isNaN(preprocessedData[i][j])) {
-                    preprocessedData[i][j] = 0.0;
-                }
-            }
-        }
-        double[][] avgFeatures = new double[1][preprocessedData[0].length];
-        for (int i = 0; i < preprocessedData[0].length; i++) {
-            double sum = 0.0f;
-            for (int j = 0; j < preprocessedData.length; j++) {
-                sum += preprocessedData[j][i];
-            }
-            avgFeatures[0][i] = sum / preprocessedData.length;
-        }
-        double[][] rows = getRowsFromCSV(weightsDirectory + weightsFilename).stream()
-                .map(row -> row.stream()
-                        .mapToDouble(Double::parseDouble)
-                        .toArray())
-                .toArray(double[][]::new);
+        return getQuantiles(timestamp, climateDataFilename, weightsFilename, excludedWeights,
+                useHardcodedExcludedWeights, weightsDirectory, DEFAULT_WINDOW_HOURS);
+    }
 
+    /**
+     * Returns the quantiles or the mean array of the Brix/firmness distribution given climate data
+     * averaged over a window of the given length.
+     *
+     * @param timestamp                   the timestamp with a precision of 1 hour.
+     * @param climateDataFilename         the file name of the climate data.
+     * @param weightsFilename             the file name of the weights file.
+     * @param excludedWeights             the weights to exclude.
+     * @param useHardcodedExcludedWeights whether to use the hardcoded excluded weights.
+     * @param weightsDirectory            the weights directory.
+     * @param windowHours                 the number of hours of climate data to average, up to and
+     *                                    including the timestamp.
+     *
+     * @return the quantiles or the mean array of the Brix/firmness distribution, depending on the
+     *         weights file name.
+     */
+    public double[] getQuantiles(String timestamp, String climateDataFilename, String weightsFilename,
+                                 int[] excludedWeights, boolean useHardcodedExcludedWeights, String weightsDirectory,
+                                 int windowHours) {
         if (!useHardcodedExcludedWeights) {
             // Parse the excluded columns into an array of integers
             String excludedColumns = null;
@@ -286,20 +183,72 @@ public abstract class BaseCalculator {
             excludedWeights = parseExcludedColumns(excludedColumns);
         }
 
-        double[][] weights = removeGivenColumns(rows, excludedWeights);
-        double[] quantiles = new double[weights.length];
+        // Every strawberry in an image shares the same inputs, so the result is computed once per image
+        QuantileCache quantileCache = QuantileCache.getInstance();
+        String key = QuantileCache.createKey(timestamp, climateDataFilename, weightsDirectory + weightsFilename,
+                excludedWeights, windowHours);
+        double[] quantiles = quantileCache.get(key);
+        if (quantiles == null) {
+            quantiles = computeQuantiles(timestamp, climateDataFilename, weightsFilename, excludedWeights,
+                    weightsDirectory, windowHours);
+            quantileCache.put(key, quantiles);
+        }
+        return quantiles;
+    }
+
+    /**
+     * Computes the quantiles or the mean array of the Brix/firmness distribution given climate data,
+     * without consulting the {@link QuantileCache}.
+     *
+     * @param timestamp           the timestamp with a precision of 1 hour.
+     * @param climateDataFilename the file name of the climate data.
+     * @param weightsFilename     the file name of the weights file.
+     * @param excludedWeights     the weights to exclude.
+     * @param weightsDirectory    the weights directory.
+     * @param windowHours         the number of hours of climate data to average.
+     *
+     * @return the quantiles or the mean array of the Brix/firmness distribution, depending on the
+     *         weights file name.
+     */
+    protected double[] computeQuantiles(String timestamp, String climateDataFilename, String weightsFilename,
+                                        int[] excludedWeights, String weightsDirectory, int windowHours) {
+        ClimateStore climateStore = ClimateStore.getInstance(context, CLIMATE_DATA_DIRECTORY + climateDataFilename);
+        double[] avgFeatures = getClimateWindow(climateStore, timestamp, windowHours).getAverages();
 
         // climate-data is used, because only the feature names are needed for the features order retrieval,
         // and the feature names in climate-data have the expected format of the column names, while the feature names in
         // climate-data-standardized do not
-        multiplyWeightsWithClimateData(weights, avgFeatures[0], quantiles, "climate-data/climate-data.csv",
-                weightsDirectory + weightsFilename);
+        CompiledWeights weights = CompiledWeights.getInstance(context, weightsDirectory + weightsFilename,
+                excludedWeights, CLIMATE_DATA_DIRECTORY + "climate-data.csv");
+        double[] quantiles = weights.multiply(avgFeatures);
 
         computeActualQuantilesFromMeanAndVariance(quantiles);
 
         return quantiles;
     }
 
+    /**
+     * Returns the window of climate data used for a prediction: the given number of hours up to and
+     * including the timestamp. A first row with missing trailing values is left out of the window.
+     *
+     * @param climateStore the climate data.
+     * @param timestamp    the timestamp with a precision of 1 hour.
+     * @param windowHours  the number of hours in the window.
+     *
+     * @return the window of climate data.
+     */
+    public ClimateWindow getClimateWindow(ClimateStore climateStore, String timestamp, int windowHours) {
+        int timestampIndex = climateStore.indexOf(timestamp);
+        if (timestampIndex == -1) {
+            throw new IllegalArgumentException("No climate data for timestamp " + timestamp);
+        }
+        int start = Math.max(timestampIndex - (windowHours - 1), 0);
+        if (!climateStore.isComplete(start) && start < timestampIndex) {
+            start++;
+        }
+        return climateStore.getWindow(start, timestampIndex + 1);
+    }
+
     /**
      * Retrieves the excluded columns from the settings in String form and transforms them into
      * an array of integers representing column indices.
@@ -333,13 +282,10 @@ public abstract class BaseCalculator {
      * @return an array of size 1, containing the Brix/firmness.
      */
     public float[] runModel(Context context, float[] input, String modelFileName, String folderName) {
-        try {
-            // Load the model file from the assets directory
-            MappedByteBuffer modelBuffer = loadModelFile(context, modelFileName, folderName);
-
-            // Create an Interpreter for the model
-            Interpreter.Options options = new Interpreter.Options();
-            Interpreter interpreter = new Interpreter(modelBuffer, options);
+        // Lease the warm interpreter for the model, loading it on first use
+        try (InterpreterRegistry.Lease lease = InterpreterRegistry.getInstance()
+                .acquire(context, folderName, modelFileName)) {
+            Interpreter interpreter = lease.getInterpreter();
 
             // Define the input and output arrays
             float[][] inputArray = new float[1][input.length];
@@ -347,21 +293,67 @@ public abstract class BaseCalculator {
             float[][] outputArray = new float[1][1];
 
             // Run inference using the interpreter
-            interpreter.run(inputArray, outputArray);
+            synchronized (interpreter) {
+                interpreter.run(inputArray, outputArray);
+            }
 
-            // Retrieve the result from the output array
-            float[] result = outputArray[0];
+            // Return the result
+            return outputArray[0];
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-            // Clean up resources
-            interpreter.close();
+        return null; // Return null in case of an error
+    }
 
-            // Return the result
+    /**
+     * Runs a Brix/firmness prediction model on several inputs with a single invocation, by resizing
+     * the input tensor to the number of inputs.
+     *
+     * @param inputs        the inputs of the model, one per strawberry. See
+     *                      {@link #runModel(Context, float[], String, String)}.
+     * @param modelFileName the name of the Brix/firmness prediction model.
+     *
+     * @return an array containing the Brix/firmness of every input, which is NaN for every input if
+     *         the model could not be loaded.
+     */
+    public float[] runModelBatch(Context context, float[][] inputs, String modelFileName, String folderName) {
+        if (inputs.length == 0) {
+            return new float[0];
+        }
+        try (InterpreterRegistry.Lease lease = InterpreterRegistry.getInstance()
+                .acquire(context, folderName, modelFileName)) {
+            Interpreter interpreter = lease.getInterpreter();
+
+            float[][] outputArray = new float[inputs.length][1];
+            synchronized (interpreter) {
+                try {
+                    interpreter.resizeInput(0, new int[] {inputs.length, inputs[0].length});
+                    interpreter.run(inputs, outputArray);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // The model does not support a dynamic batch size, so run the inputs one by one
+                    interpreter.resizeInput(0, new int[] {1, inputs[0].length});
+                    for (int i = 0; i < inputs.length; i++) {
+                        float[][] singleOutput = new float[1][1];
+                        interpreter.run(new float[][] {inputs[i]}, singleOutput);
+                        outputArray[i] = singleOutput[0];
+                    }
+                }
+            }
+
+            float[] result = new float[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                result[i] = outputArray[i][0];
+            }
             return result;
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        return null; // Return null in case of an error
+        // The callers scale every result, so a failure is reported per input rather than as null
+        float[] failed = new float[inputs.length];
+        Arrays.fill(failed, Float.NaN);
+        return failed;
     }
 
     /**
@@ -519,17 +511,41 @@ public abstract class BaseCalculator {
     }
 
     /**
-     * Gets the current time in the correct format for the calculator. Rounds to nearest hour.
+     * Gets the current time in the correct format for the calculator. Rounds to nearest hour. If the
+     * selected climate data has no row for the current hour, for example because no live climate
+     * data is received, the same moment in 2021 is used instead.
      *
      * @return time in format for the calculator.
      */
     public String getCurrentTime() {
+        timeProvider.roundToNearestHour();
+        String currentTime = timeProvider.format(ClimateStore.TIMESTAMP_PATTERN);
+        if (hasClimateData(currentTime)) {
+            return currentTime;
+        }
 
         timeProvider.setYear(2021);
-        timeProvider.roundToNearestHour();
 
         // Format the current time using the formatter
-        return timeProvider.format("yyyy-MM-dd HH:mm:ss");
+        return timeProvider.format(ClimateStore.TIMESTAMP_PATTERN);
+    }
+
+    /**
+     * Whether the selected climate data has a row for a timestamp. Rows for the current hour only
+     * come from the live climate feed, which loads the climate data itself, so climate data that is
+     * not loaded yet is not loaded here.
+     *
+     * @param timestamp the timestamp with a precision of 1 hour.
+     *
+     * @return whether the climate data is loaded and contains the timestamp.
+     */
+    private boolean hasClimateData(String timestamp) {
+        if (preferenceProvider == null || preferenceProvider.getModelPreferences() == null) {
+            return false;
+        }
+        String climateDataFilename = preferenceProvider.getModelPreferences().getClimateDataList();
+        ClimateStore store = ClimateStore.getIfLoaded(CLIMATE_DATA_DIRECTORY + climateDataFilename);
+        return store != null && store.indexOf(timestamp) != -1;
     }
 
     /**
@@ -574,20 +590,63 @@ public abstract class BaseCalculator {
                            boolean useHardcodedExcludedWeights,
                            String weightsDirectory,
                            String folderName) {
+        return calculateBatch(timestamp,
+                Collections.singletonList(strawberryBitmap),
+                modelName,
+                climateDataFilename,
+                weightsFilename,
+                quantiles,
+                excludedWeights,
+                useHardcodedExcludedWeights,
+                weightsDirectory,
+                folderName)[0];
+    }
+
+    /**
+     * Calculates a feature of several strawberries taken at the same time. The climate part is
+     * computed once, and the encoder and prediction models are each invoked once for all strawberries.
+     *
+     * @param timestamp           the timestamp of the image.
+     * @param strawberryBitmaps   pictures of the strawberries.
+     * @param modelName           the name of the feature prediction model.
+     * @param climateDataFilename the name of the file of the climate data.
+     * @param weightsFilename     the name of the file of the file, containing weights used in multiplying the climate data
+     *                            to result in the quantiles or the mean of the feature distribution.
+     * @param quantiles           the quantiles or the mean. If they are not hardcoded, they are null.
+     *
+     * @return the calculated feature of every strawberry, in the order of the given pictures.
+     */
+    public float[] calculateBatch(String timestamp,
+                                  List<Bitmap> strawberryBitmaps,
+                                  String modelName,
+                                  String climateDataFilename,
+                                  String weightsFilename,
+                                  double[] quantiles,
+                                  int[] excludedWeights,
+                                  boolean useHardcodedExcludedWeights,
+                                  String weightsDirectory,
+                                  String folderName) {
+        if (strawberryBitmaps.isEmpty()) {
+            return new float[0];
+        }
         if (quantiles == null) {
             quantiles = getQuantiles(timestamp, climateDataFilename, weightsFilename, excludedWeights, useHardcodedExcludedWeights, weightsDirectory);
         }
-        Encoder encoder = new Encoder(context, preferenceProvider.getModelPreferences().getEncoderModelsList());
-        float[] featureArrayFloat = encoder.encodeImage(strawberryBitmap);
-        double[] featureArray = floatArrayToDoubleArray(featureArrayFloat);
-        double[] quantilesModelInput = concatenateArrays(featureArray, quantiles);
-        float[] quantilesModelInputFloat = doubleArrayToFloatArray(quantilesModelInput);
-        float feature = runModel(context,quantilesModelInputFloat, modelName, folderName)[0];
-        return computeValueUsingMeanAndVariance(feature, 7.94470588f, 2.81376609f);
+        Encoder encoder = Encoder.getInstance(context, preferenceProvider.getModelPreferences().getEncoderModelsList());
+        float[][] featureArraysFloat = encoder.encodeImages(strawberryBitmaps);
+        float[][] modelInputs = new float[featureArraysFloat.length][];
+        for (int i = 0; i < featureArraysFloat.length; i++) {
+            double[] featureArray = floatArrayToDoubleArray(featureArraysFloat[i]);
+            double[] quantilesModelInput = concatenateArrays(featureArray, quantiles);
+            modelInputs[i] = doubleArrayToFloatArray(quantilesModelInput);
+        }
+        float[] features = runModelBatch(context, modelInputs, modelName, folderName);
+        for (int i = 0; i < features.length; i++) {
+            features[i] = computeValueUsingMeanAndVariance(features[i], 7.94470588f, 2.81376609f);
+        }
+        return features;
     }
 
-
-
     /**
      * Loads a TensorFlow Lite model file from the assets directory.
      *
@@ -599,26 +658,6 @@ public abstract class BaseCalculator {
      * @throws IOException if there is an error while reading or mapping the model file.
      */
     protected MappedByteBuffer loadModelFile(Context context, String modelFileName, String folderName) throws IOException {
-        AssetManager assetManager = context.getAssets();
-        InputStream inputStream = assetManager.open(folderName + "/" + modelFileName);
-        File tempFile = File.createTempFile("temp", null);
-        FileOutputStream outputStream = new FileOutputStream(tempFile);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
-        }
-        inputStream.close();
-        outputStream.close();
-
-        RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "r");
-        MappedByteBuffer modelBuffer = randomAccessFile.getChannel()
-                .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
-        randomAccessFile.close();
-
-        // Delete the temporary file
-        tempFile.delete();
-
-        return modelBuffer;
+        return InterpreterRegistry.mapAsset(context, folderName + "/" + modelFileName);
     }
 }
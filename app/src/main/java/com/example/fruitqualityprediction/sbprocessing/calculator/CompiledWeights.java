@@ -0,0 +1,197 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import android.content.Context;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A weights matrix prepared for the multiplication with averaged climate data. The excluded columns
+ * are dropped and the remaining columns are permuted to the order of the climate data columns, with
+ * the weights of columns that refer to the same climate feature added together. The quantiles (or
+ * the mean) then follow from a single dense matrix-vector product.
+ */
+public final class CompiledWeights {
+
+    private static final Map<String, CompiledWeights> WEIGHTS = new HashMap<>(); // Compiled weights by key.
+
+    private final int rowCount; // The number of quantiles, or 1 for the mean.
+    private final int columnCount; // The number of climate data columns.
+    private final float[] weights; // The weights in row-major order, one column per climate data column.
+
+    /**
+     * Creates new compiled weights.
+     *
+     * @param rowCount    the number of quantiles, or 1 for the mean.
+     * @param columnCount the number of climate data columns.
+     * @param weights     the weights in row-major order.
+     */
+    private CompiledWeights(int rowCount, int columnCount, float[] weights) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns the compiled weights of a weights file, compiling them on first use.
+     *
+     * @param context         the current Android context.
+     * @param weightsFile     the path of the weights file, relative to the assets directory.
+     * @param excludedWeights the weights columns to exclude.
+     * @param climateDataFile the path of the climate data file whose column names are used to order
+     *                        the features, relative to the assets directory.
+     *
+     * @return the compiled weights.
+     */
+    public static synchronized CompiledWeights getInstance(Context context, String weightsFile,
+                                                           int[] excludedWeights, String climateDataFile) {
+        String key = weightsFile + "|" + Arrays.toString(excludedWeights) + "|" + climateDataFile;
+        CompiledWeights compiledWeights = WEIGHTS.get(key);
+        if (compiledWeights == null) {
+            double[][] rows;
+            try (InputStream inputStream = context.getAssets().open(weightsFile)) {
+                rows = parse(inputStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            FeatureSchema featureSchema = FeatureSchema.getInstance(context, weightsFile, climateDataFile);
+            compiledWeights = compile(rows, excludedWeights, featureSchema);
+            WEIGHTS.put(key, compiledWeights);
+        }
+        return compiledWeights;
+    }
+
+    /**
+     * Parses a weights file. The first line is the header and is skipped.
+     *
+     * @param inputStream the CSV data.
+     *
+     * @return the weights, indexed by row and then by column.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    static double[][] parse(InputStream inputStream) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(inputStream, ',');
+        List<double[]> rows = new ArrayList<>();
+        tokenizer.nextLine();
+        double[] row = new double[64];
+        while (tokenizer.nextLine()) {
+            int cellCount = 0;
+            while (tokenizer.nextCell()) {
+                if (cellCount == row.length) {
+                    row = Arrays.copyOf(row, cellCount * 2);
+                }
+                row[cellCount++] = tokenizer.getDouble();
+            }
+            // Skipping blank lines
+            if (cellCount > 1 || !Double.isNaN(row[0])) {
+                rows.add(Arrays.copyOf(row, cellCount));
+            }
+        }
+        return rows.toArray(new double[0][]);
+    }
+
+    /**
+     * Drops the excluded columns and permutes the other columns to the climate data column order.
+     *
+     * @param rows            the weights, indexed by row and then by column.
+     * @param excludedWeights the weights columns to exclude.
+     * @param featureSchema   the climate data column of every remaining weights column.
+     *
+     * @return the compiled weights.
+     */
+    static CompiledWeights compile(double[][] rows, int[] excludedWeights, FeatureSchema featureSchema) {
+        int weightsColumnCount = rows.length == 0 ? 0 : rows[0].length;
+        boolean[] excluded = new boolean[weightsColumnCount];
+        for (int column : excludedWeights) {
+            if (column >= 0 && column < weightsColumnCount) {
+                excluded[column] = true;
+            }
+        }
+
+        // The climate data column of every weights column, or -1 for excluded columns
+        int[] featureIndices = new int[weightsColumnCount];
+        int columnCount = 0;
+        int keptColumn = 0;
+        for (int column = 0; column < weightsColumnCount; column++) {
+            if (excluded[column]) {
+                featureIndices[column] = -1;
+                continue;
+            }
+            if (keptColumn >= featureSchema.size()) {
+                throw new IllegalArgumentException("Weights column " + column + " has no climate data column");
+            }
+            featureIndices[column] = featureSchema.getFeatureIndex(keptColumn++);
+            columnCount = Math.max(columnCount, featureIndices[column] + 1);
+        }
+
+        // Columns referring to the same feature are added together in double precision
+        double[] folded = new double[rows.length * columnCount];
+        for (int row = 0; row < rows.length; row++) {
+            for (int column = 0; column < weightsColumnCount; column++) {
+                if (featureIndices[column] != -1) {
+                    folded[row * columnCount + featureIndices[column]] += rows[row][column];
+                }
+            }
+        }
+
+        float[] weights = new float[folded.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) folded[i];
+        }
+        return new CompiledWeights(rows.length, columnCount, weights);
+    }
+
+    /**
+     * Multiplies the weights with the averaged climate data.
+     *
+     * @param features the averaged value of every climate data column.
+     *
+     * @return the quantiles or the mean of the Brix/firmness distribution, before the mean and
+     *         variance are taken into account.
+     */
+    public double[] multiply(double[] features) {
+        if (features.length < columnCount) {
+            throw new IllegalArgumentException("Expected " + columnCount + " features, got " + features.length);
+        }
+        double[] result = new double[rowCount];
+        for (int row = 0, offset = 0; row < rowCount; row++, offset += columnCount) {
+            double sum = 0.0;
+            for (int column = 0; column < columnCount; column++) {
+                sum += weights[offset + column] * features[column];
+            }
+            result[row] = sum;
+        }
+        return result;
+    }
+
+    /**
+     * A getter for the number of rows.
+     *
+     * @return the number of quantiles, or 1 for the mean.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * A getter for the number of columns.
+     *
+     * @return the number of climate data columns used by the weights.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Removes all compiled weights from memory.
+     */
+    public static synchronized void clear() {
+        WEIGHTS.clear();
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads CSV data cell by cell straight from bytes. Numbers are parsed without creating a String per
+ * cell, so parsing a climate data or weights file only allocates the arrays the values end up in.
+ * Cells may be quoted, in which case they can contain the delimiter and line breaks, and a byte order
+ * mark at the start of the data is skipped.
+ *
+ * <pre>
+ * while (tokenizer.nextLine()) {
+ *     while (tokenizer.nextCell()) {
+ *         double value = tokenizer.getDouble();
+ *     }
+ * }
+ * </pre>
+ */
+public final class CsvTokenizer {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024; // The initial size of the read buffer.
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    }; // The powers of ten that are exactly representable as a double.
+    private static final int MAX_DIGITS = 18; // The number of digits that always fit in a long.
+
+    private final InputStream inputStream; // The data, or null if all data is in the buffer.
+    private final byte delimiter; // The byte separating the cells of a line.
+    private byte[] buffer; // The read buffer.
+    private int position; // The position of the next unread byte in the buffer.
+    private int limit; // The end of the data in the buffer.
+    private boolean endOfInput; // Whether all data was read into the buffer.
+    private boolean started; // Whether the first line was started.
+    private boolean endOfLine = true; // Whether the current line has no more cells.
+    private int cellStart; // The start of the current cell in the buffer.
+    private int cellEnd; // The end of the current cell in the buffer.
+    private boolean quoted; // Whether the current cell is quoted.
+    private boolean escapedQuotes; // Whether the current cell contains escaped quotes.
+
+    /**
+     * Creates a tokenizer reading from a stream.
+     *
+     * @param inputStream the CSV data.
+     * @param delimiter   the character separating the cells of a line.
+     */
+    public CsvTokenizer(InputStream inputStream, char delimiter) {
+        this.inputStream = inputStream;
+        this.delimiter = (byte) delimiter;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a tokenizer reading from bytes that are already in memory. The bytes are not copied.
+     *
+     * @param data      the CSV data.
+     * @param delimiter the character separating the cells of a line.
+     */
+    public CsvTokenizer(byte[] data, char delimiter) {
+        this.inputStream = null;
+        this.delimiter = (byte) delimiter;
+        this.buffer = data;
+        this.limit = data.length;
+        this.endOfInput = true;
+    }
+
+    /**
+     * Moves to the next line, skipping the cells of the current line that were not read.
+     *
+     * @return false if there are no more lines.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    public boolean nextLine() throws IOException {
+        if (!started) {
+            started = true;
+            skipByteOrderMark();
+        } else {
+            while (nextCell()) {
+                // Skipping the rest of the line
+            }
+        }
+        if (!hasByte()) {
+            return false;
+        }
+        endOfLine = false;
+        return true;
+    }
+
+    /**
+     * Moves to the next cell of the current line.
+     *
+     * @return false if the current line has no more cells.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    public boolean nextCell() throws IOException {
+        if (endOfLine) {
+            return false;
+        }
+        quoted = false;
+        escapedQuotes = false;
+        cellStart = position;
+        if (hasByte() && buffer[position] == '"') {
+            readQuotedCell();
+        } else {
+            readCell();
+        }
+        return true;
+    }
+
+    /**
+     * Reads an unquoted cell, up to the delimiter or the end of the line.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private void readCell() throws IOException {
+        while (hasByte()) {
+            byte b = buffer[position];
+            if (b == delimiter) {
+                cellEnd = position++;
+                return;
+            }
+            if (b == '\n') {
+                cellEnd = position > cellStart && buffer[position - 1] == '\r' ? position - 1 : position;
+                position++;
+                endOfLine = true;
+                return;
+            }
+            position++;
+        }
+        cellEnd = position > cellStart && buffer[position - 1] == '\r' ? position - 1 : position;
+        endOfLine = true;
+    }
+
+    /**
+     * Reads a quoted cell. Two quotes inside the cell stand for one quote, and anything between the
+     * closing quote and the delimiter is ignored.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private void readQuotedCell() throws IOException {
+        quoted = true;
+        position++;
+        cellStart = position;
+        boolean closed = false;
+        while (hasByte()) {
+            if (buffer[position] == '"') {
+                position++;
+                if (hasByte() && buffer[position] == '"') {
+                    escapedQuotes = true;
+                    position++;
+                } else {
+                    cellEnd = position - 1;
+                    closed = true;
+                    break;
+                }
+            } else {
+                position++;
+            }
+        }
+        if (!closed) {
+            // The closing quote is missing, so the cell lasts until the end of the data
+            cellEnd = position;
+            endOfLine = true;
+            return;
+        }
+        while (hasByte()) {
+            byte b = buffer[position++];
+            if (b == delimiter) {
+                return;
+            }
+            if (b == '\n') {
+                endOfLine = true;
+                return;
+            }
+        }
+        endOfLine = true;
+    }
+
+    /**
+     * Skips the UTF-8 byte order mark at the start of the data, if present.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private void skipByteOrderMark() throws IOException {
+        cellStart = position;
+        if (hasByte() && buffer[position] == (byte) 0xEF) {
+            position++;
+            if (hasByte() && buffer[position] == (byte) 0xBB) {
+                position++;
+                if (hasByte() && buffer[position] == (byte) 0xBF) {
+                    position++;
+                    return;
+                }
+            }
+            position = cellStart;
+        }
+    }
+
+    /**
+     * Whether there is an unread byte, reading more data if the buffer is exhausted. The bytes of
+     * the current cell are kept in the buffer.
+     *
+     * @return whether there is an unread byte at the current position.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private boolean hasByte() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        if (endOfInput) {
+            return false;
+        }
+
+        // Moving the current cell to the start of the buffer, growing the buffer if it is full
+        int keep = limit - cellStart;
+        if (keep == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else if (cellStart > 0) {
+            System.arraycopy(buffer, cellStart, buffer, 0, keep);
+        }
+        position -= cellStart;
+        cellEnd -= cellStart;
+        cellStart = 0;
+        limit = keep;
+
+        int bytesRead = inputStream.read(buffer, limit, buffer.length - limit);
+        while (bytesRead == 0) {
+            bytesRead = inputStream.read(buffer, limit, buffer.length - limit);
+        }
+        if (bytesRead == -1) {
+            endOfInput = true;
+            return false;
+        }
+        limit += bytesRead;
+        return true;
+    }
+
+    /**
+     * Whether the current cell is empty.
+     *
+     * @return whether the cell has no content.
+     */
+    public boolean isEmpty() {
+        return cellEnd == cellStart;
+    }
+
+    /**
+     * Whether the current cell was quoted.
+     *
+     * @return whether the cell was quoted.
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * A getter for the length of the current cell.
+     *
+     * @return the number of bytes in the cell, without quotes.
+     */
+    public int length() {
+        return cellEnd - cellStart;
+    }
+
+    /**
+     * Retrieves a byte of the current cell.
+     *
+     * @param index the index of the byte in the cell.
+     *
+     * @return the byte.
+     */
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Invalid index " + index);
+        }
+        return buffer[cellStart + index];
+    }
+
+    /**
+     * Retrieves the current cell as text.
+     *
+     * @return the text of the cell, without quotes.
+     */
+    public String getString() {
+        String text = new String(buffer, cellStart, length(), StandardCharsets.UTF_8);
+        return escapedQuotes ? text.replace("\"\"", "\"") : text;
+    }
+
+    /**
+     * Parses the current cell as a number. Plain decimal numbers, optionally with an exponent, are
+     * parsed straight from the bytes: exactly if they have at most 15 significant digits, and
+     * otherwise to within one unit in the last place. Other notations are passed on to
+     * {@link Double#parseDouble(String)}.
+     *
+     * @return the number, or NaN if the cell is empty.
+     *
+     * @throws NumberFormatException if the cell is not a number.
+     */
+    public double getDouble() {
+        if (isEmpty()) {
+            return Double.NaN;
+        }
+        int i = cellStart;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0; // The significant digits in the mantissa
+        int exponent = 0; // The power of ten the mantissa has to be multiplied with
+        boolean anyDigit = false;
+        boolean fraction = false;
+        for (; i < cellEnd; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    if (mantissa != 0 || b != '0') {
+                        mantissa = mantissa * 10 + (b - '0');
+                        digits++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else if (!fraction) {
+                    // The digits that do not fit only scale the number
+                    exponent++;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i < cellEnd && anyDigit && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < cellEnd && buffer[i] == '-';
+            if (i < cellEnd && (negativeExponent || buffer[i] == '+')) {
+                i++;
+            }
+            int exponentStart = i;
+            int explicitExponent = 0;
+            for (; i < cellEnd && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                explicitExponent = Math.min(explicitExponent * 10 + (buffer[i] - '0'), 100_000);
+            }
+            if (i == exponentStart) {
+                return parseSlow();
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != cellEnd || !anyDigit) {
+            return parseSlow();
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseSlow();
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the current cell as a number with {@link Double#parseDouble(String)}.
+     *
+     * @return the number.
+     *
+     * @throws NumberFormatException if the cell is not a number.
+     */
+    private double parseSlow() {
+        return Double.parseDouble(getString());
+    }
+
+    /**
+     * Parses the current cell as a number.
+     *
+     * @return the number, or NaN if the cell is empty.
+     *
+     * @throws NumberFormatException if the cell is not a number.
+     */
+    public float getFloat() {
+        return (float) getDouble();
+    }
+}
@@ -1,18 +1,17 @@
 package com.example.fruitqualityprediction.sbprocessing.calculator;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import org.tensorflow.lite.Interpreter;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.FloatBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Class responsible for applying the encoder model to an image. The model only accepts images of
@@ -21,10 +20,21 @@ import java.nio.channels.FileChannel;
  */
 public class Encoder {
 
+    public static final String FOLDER_NAME = "encoder-models";
+
     private static final int IMAGE_SIZE = 200; // The input size of images passed to the encoder.
+    private static final int INPUT_SIZE = IMAGE_SIZE * IMAGE_SIZE * 3; // Input floats per image.
+    private static final int OUTPUT_SIZE = 10 * 10 * 9; // Output floats per image.
+    static final int MAX_BATCH_SIZE = 8; // The most images encoded at once, which bounds the buffers to about 4 MB.
+
+    private static final Map<String, Encoder> ENCODERS = new HashMap<>(); // Shared encoders by model file.
 
     private final transient Context context; // The current context.
     private final String modelFileName;
+    private final int[] intValues = new int[IMAGE_SIZE * IMAGE_SIZE]; // Reused pixel buffer.
+
+    private transient ByteBuffer inputBuffer; // Reused direct input buffer, grown up to the maximum batch size.
+    private transient ByteBuffer outputBuffer; // Reused direct output buffer, grown up to the maximum batch size.
 
     /**
      * Creates a new encoder object.
@@ -36,6 +46,34 @@ public class Encoder {
         this.modelFileName = modelFileName;
     }
 
+    /**
+     * Returns the shared encoder of a model, so that its buffers are reused across batches just like
+     * the interpreter it runs.
+     *
+     * @param context       the current Android context.
+     * @param modelFileName the name of the .tflite model file.
+     *
+     * @return the encoder of the model.
+     */
+    public static synchronized Encoder getInstance(Context context, String modelFileName) {
+        Encoder encoder = ENCODERS.get(modelFileName);
+        if (encoder == null) {
+            Context applicationContext = context.getApplicationContext();
+            encoder = new Encoder(applicationContext != null ? applicationContext : context, modelFileName);
+            ENCODERS.put(modelFileName, encoder);
+        }
+        return encoder;
+    }
+
+    /**
+     * Releases the shared encoders, and their buffers, of models that are no longer selected.
+     *
+     * @param modelFileNames the model files to keep.
+     */
+    public static synchronized void retainModels(Collection<String> modelFileNames) {
+        ENCODERS.keySet().retainAll(modelFileNames);
+    }
+
     /**
      * This method is responsible for preprocessing an image that is then used by an encoder model.
      * The model is dependent on the settings tab, where one of multiple models can be chosen.
@@ -45,74 +83,55 @@ public class Encoder {
      * @return an encoded representation of the image as a flattened array of 900 dimensions.
      */
     public float[] encodeImage(Bitmap image) {
-        try {
-            if (image == null) {
-                throw new RuntimeException("Input image for encoder is null");
-            }
-            Bitmap newImage = Bitmap.createScaledBitmap(image, IMAGE_SIZE, IMAGE_SIZE, false); //Resizing
-
-            // Allocating memory for byteBuffer
-            ByteBuffer byteBuffer = ByteBuffer.allocate(4 * IMAGE_SIZE * IMAGE_SIZE * 3);
-            byteBuffer.order(ByteOrder.nativeOrder());
-
-            int[] intValues = new int[IMAGE_SIZE * IMAGE_SIZE];
-
-            // Extracting pixel values from the resized Bitmap image and storing them in the intValues array
-            newImage.getPixels(intValues, 0, newImage.getWidth(), 0, 0, newImage.getWidth(), newImage.getHeight());
+        return encodeImages(Collections.singletonList(image))[0];
+    }
 
-            // Populating the ByteBuffer with the normalized RGB channel values of each pixel.
-            int pixel = 0;
-            for (int i = 0; i < IMAGE_SIZE; i++) {
-                for (int j = 0; j < IMAGE_SIZE; j++) {
-                    int val = intValues[pixel++]; // rgb
-                    byteBuffer.putFloat(((val >> 16) & 0xFF) * (1.f / 255.f));
-                    byteBuffer.putFloat(((val >> 8) & 0xFF) * (1.f / 255.f));
-                    byteBuffer.putFloat(((val) & 0xFF) * (1.f / 255.f));
+    /**
+     * Encodes several images with as few invocations of the encoder model as possible. The images
+     * are preprocessed into one direct buffer per batch of at most {@link #MAX_BATCH_SIZE} images,
+     * and the input tensor is resized to the number of images in the batch.
+     *
+     * @param images the images to encode.
+     *
+     * @return for every image, an encoded representation as a flattened array of 900 dimensions.
+     */
+    public synchronized float[][] encodeImages(List<Bitmap> images) {
+        int imageCount = images.size();
+        if (imageCount == 0) {
+            return new float[0][];
+        }
+        // Leasing the warm interpreter for the model, loading it on first use
+        try (InterpreterRegistry.Lease lease = InterpreterRegistry.getInstance()
+                .acquire(context, FOLDER_NAME, modelFileName)) {
+            Interpreter interpreter = lease.getInterpreter();
+            float[][] result = new float[imageCount][OUTPUT_SIZE];
+            for (int first = 0; first < imageCount; first += MAX_BATCH_SIZE) {
+                int batchSize = Math.min(MAX_BATCH_SIZE, imageCount - first);
+
+                // Populating the input buffer with the normalized RGB channel values of each image
+                ByteBuffer input = getInputBuffer(batchSize);
+                for (Bitmap image : images.subList(first, first + batchSize)) {
+                    putImage(image, input);
                 }
-            }
 
-            // Loading the model file from the assets directory
-            MappedByteBuffer modelBuffer = loadModelFile(context, modelFileName);
-
-            // Creating an Interpreter for the model
-            Interpreter.Options options = new Interpreter.Options();
-            Interpreter interpreter = new Interpreter(modelBuffer, options);
-
-            // Defining the input and output arrays
-            int batchSize = 1;
-            int inputSize = IMAGE_SIZE * IMAGE_SIZE * 3;
-            int outputSize = 10 * 10 * 9;
-            float[][][][] inputArray = new float[batchSize][IMAGE_SIZE][IMAGE_SIZE][3];
-            float[][][][] outputArray = new float[batchSize][10][10][9];
-
-            // Populating the input array with the byte buffer data
-            byteBuffer.rewind();
-            for (int i = 0; i < IMAGE_SIZE; i++) {
-                for (int j = 0; j < IMAGE_SIZE; j++) {
-                    for (int k = 0; k < 3; k++) {
-                        inputArray[0][i][j][k] = byteBuffer.getFloat();
+                ByteBuffer output = getOutputBuffer(batchSize);
+                synchronized (interpreter) {
+                    try {
+                        run(interpreter, input, output, 0, batchSize);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        // The model does not support a dynamic batch size, so encode the images one by one
+                        for (int i = 0; i < batchSize; i++) {
+                            run(interpreter, input, output, i, 1);
+                        }
                     }
                 }
-            }
 
-            // Running inference using the interpreter
-            interpreter.run(inputArray, outputArray);
-
-            // Retrieving the result from the output array
-            float[] result = new float[outputSize];
-            int resultIndex = 0;
-            for (int i = 0; i < 10; i++) {
-                for (int j = 0; j < 10; j++) {
-                    for (int k = 0; k < 9; k++) {
-                        result[resultIndex++] = outputArray[0][i][j][k];
-                    }
+                // Retrieving the result of every image from the output buffer
+                FloatBuffer outputFloats = output.asFloatBuffer();
+                for (int i = first; i < first + batchSize; i++) {
+                    outputFloats.get(result[i]);
                 }
             }
-
-            // Cleaning up resources after using the interpreter
-            interpreter.close();
-
-            // Return the result in the form of an array
             return result;
 
         } catch (IOException e) {
@@ -120,41 +139,83 @@ public class Encoder {
         }
 
         // In case the try/catch block fails, return a default value
-        return new float[0];
+        return new float[imageCount][0];
     }
 
     /**
-     * Loads a TensorFlow Lite model file from the assets directory.
+     * Resizes an image to the encoder input size and appends its normalized RGB values to a buffer.
      *
-     * @param context       the context of the application.
-     * @param modelFileName the name of the .tflite model file to be loaded.
-     *
-     * @return a mapped byte buffer representing the loaded TensorFlow Lite model.
-     *
-     * @throws IOException if there is an error while reading or mapping the model file.
+     * @param image  the image to add.
+     * @param buffer the buffer to append to.
      */
-    private MappedByteBuffer loadModelFile(Context context, String modelFileName) throws IOException {
-        AssetManager assetManager = context.getAssets();
-        String folderName = "encoder-models";
-        InputStream inputStream = assetManager.open(folderName + "/" + modelFileName);
-        File tempFile = File.createTempFile("temp", null);
-        FileOutputStream outputStream = new FileOutputStream(tempFile);
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    private void putImage(Bitmap image, ByteBuffer buffer) {
+        if (image == null) {
+            throw new RuntimeException("Input image for encoder is null");
+        }
+        Bitmap newImage = Bitmap.createScaledBitmap(image, IMAGE_SIZE, IMAGE_SIZE, false); //Resizing
+
+        // Extracting pixel values from the resized Bitmap image and storing them in the intValues array
+        newImage.getPixels(intValues, 0, newImage.getWidth(), 0, 0, newImage.getWidth(), newImage.getHeight());
+
+        for (int val : intValues) {
+            buffer.putFloat(((val >> 16) & 0xFF) * (1.f / 255.f));
+            buffer.putFloat(((val >> 8) & 0xFF) * (1.f / 255.f));
+            buffer.putFloat(((val) & 0xFF) * (1.f / 255.f));
         }
-        inputStream.close();
-        outputStream.close();
+    }
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "r");
-        MappedByteBuffer modelBuffer = randomAccessFile.getChannel()
-                .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
-        randomAccessFile.close();
+    /**
+     * Runs the encoder on a consecutive range of the images in the input buffer.
+     *
+     * @param interpreter the encoder interpreter.
+     * @param input       the buffer containing all preprocessed images.
+     * @param output      the buffer receiving the encodings of all images.
+     * @param first       the index of the first image to encode.
+     * @param count       the number of images to encode.
+     */
+    private static void run(Interpreter interpreter, ByteBuffer input, ByteBuffer output, int first, int count) {
+        interpreter.resizeInput(0, new int[] {count, IMAGE_SIZE, IMAGE_SIZE, 3});
 
-        // Delete the temporary file
-        tempFile.delete();
+        ByteBuffer inputSlice = input.duplicate().order(ByteOrder.nativeOrder());
+        inputSlice.position(first * INPUT_SIZE * 4).limit((first + count) * INPUT_SIZE * 4);
+        ByteBuffer outputSlice = output.duplicate().order(ByteOrder.nativeOrder());
+        outputSlice.position(first * OUTPUT_SIZE * 4).limit((first + count) * OUTPUT_SIZE * 4);
 
-        return modelBuffer;
+        interpreter.run(inputSlice.slice().order(ByteOrder.nativeOrder()),
+                outputSlice.slice().order(ByteOrder.nativeOrder()));
+    }
+
+    /**
+     * Returns the cleared input buffer, large enough for the given number of images.
+     *
+     * @param batchSize the number of images.
+     *
+     * @return the input buffer.
+     */
+    private ByteBuffer getInputBuffer(int batchSize) {
+        int capacity = 4 * INPUT_SIZE * batchSize;
+        if (inputBuffer == null || inputBuffer.capacity() < capacity) {
+            inputBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        inputBuffer.clear();
+        inputBuffer.limit(capacity);
+        return inputBuffer;
+    }
+
+    /**
+     * Returns the cleared output buffer, large enough for the given number of images.
+     *
+     * @param batchSize the number of images.
+     *
+     * @return the output buffer.
+     */
+    private ByteBuffer getOutputBuffer(int batchSize) {
+        int capacity = 4 * OUTPUT_SIZE * batchSize;
+        if (outputBuffer == null || outputBuffer.capacity() < capacity) {
+            outputBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        outputBuffer.clear();
+        outputBuffer.limit(capacity);
+        return outputBuffer;
     }
 }
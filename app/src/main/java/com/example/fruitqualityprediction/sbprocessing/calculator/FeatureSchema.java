@@ -0,0 +1,254 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import android.content.Context;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The compiled mapping from the columns of a weights file to the columns of a climate data file.
+ * The mapping only depends on the asset files, so it is resolved once per (weights file, climate
+ * data file) pair, kept in memory and saved to the app storage so that later app starts do not
+ * have to parse the attribute information again. A saved schema records a checksum of the assets it
+ * was compiled from and is compiled again when they change.
+ */
+public final class FeatureSchema {
+
+    public static final String SCHEMA_DIRECTORY = "feature-schemas"; // The directory in the app storage.
+    public static final String ATTRIBUTE_INFORMATION_FILE = "attribute_information/AttributeInformation.csv"; // Maps weight names to climate data column names.
+
+    private static final Map<String, FeatureSchema> SCHEMAS = new HashMap<>(); // Compiled schemas by key.
+
+    private final int[] featureIndices; // For every mapped weights column, the climate data column index.
+
+    /**
+     * Creates a new schema.
+     *
+     * @param featureIndices for every mapped weights column, the climate data column index.
+     */
+    FeatureSchema(int[] featureIndices) {
+        this.featureIndices = featureIndices;
+    }
+
+    /**
+     * Returns the schema of a weights file and a climate data file. The schema is taken from memory,
+     * then from the app storage, and is only compiled from the asset files if neither has it.
+     *
+     * @param context         the current Android context.
+     * @param weightsFile     the path of the weights file, relative to the assets directory.
+     * @param climateDataFile the path of the climate data file, relative to the assets directory.
+     *
+     * @return the feature schema.
+     */
+    public static synchronized FeatureSchema getInstance(Context context, String weightsFile,
+                                                         String climateDataFile) {
+        String key = weightsFile + "|" + climateDataFile;
+        FeatureSchema schema = SCHEMAS.get(key);
+        if (schema != null) {
+            return schema;
+        }
+
+        File file = new File(new File(context.getFilesDir(), SCHEMA_DIRECTORY),
+                toFileName(weightsFile, climateDataFile));
+        long assetChecksum = -1;
+        try {
+            assetChecksum = checksum(context, weightsFile, climateDataFile);
+            if (file.isFile()) {
+                schema = read(file, assetChecksum);
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+
+        if (schema == null) {
+            schema = compile(context, weightsFile, climateDataFile);
+            try {
+                schema.write(file, assetChecksum);
+            } catch (IOException e) {
+                // The schema can still be used, it is compiled again on the next app start
+                e.printStackTrace();
+            }
+        }
+
+        SCHEMAS.put(key, schema);
+        return schema;
+    }
+
+    /**
+     * Computes the checksum of the assets a schema is compiled from.
+     *
+     * @param context         the current Android context.
+     * @param weightsFile     the path of the weights file, relative to the assets directory.
+     * @param climateDataFile the path of the climate data file, relative to the assets directory.
+     *
+     * @return the checksum of the assets.
+     *
+     * @throws IOException if an asset could not be read.
+     */
+    private static long checksum(Context context, String weightsFile, String climateDataFile) throws IOException {
+        try (InputStream attributeInformation = context.getAssets().open(ATTRIBUTE_INFORMATION_FILE);
+             InputStream weights = context.getAssets().open(weightsFile);
+             InputStream climateData = context.getAssets().open(climateDataFile)) {
+            return checksum(attributeInformation, weights, climateData);
+        }
+    }
+
+    /**
+     * Computes the CRC32 of the attribute information, the weights file and the header of the climate
+     * data file. Only the header of the climate data is used by the schema, so its rows are not read.
+     *
+     * @param attributeInformation the attribute information, which is read to the end.
+     * @param weights              the weights file, which is read to the end.
+     * @param climateData          the climate data file, which is read up to the first line break.
+     *
+     * @return the checksum of the data.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    static long checksum(InputStream attributeInformation, InputStream weights, InputStream climateData)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        for (InputStream inputStream : new InputStream[] {attributeInformation, weights}) {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        int b;
+        while ((b = climateData.read()) != -1 && b != '\n') {
+            crc.update(b);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Compiles the schema from the attribute information, the weights header and the climate data header.
+     *
+     * @param context         the current Android context.
+     * @param weightsFile     the path of the weights file, relative to the assets directory.
+     * @param climateDataFile the path of the climate data file, relative to the assets directory.
+     *
+     * @return the compiled schema.
+     */
+    static FeatureSchema compile(Context context, String weightsFile, String climateDataFile) {
+        List<Integer> order = new FeaturesOrderRetriever(context, weightsFile, climateDataFile).getFeaturesOrder();
+        int[] featureIndices = new int[order.size()];
+        for (int i = 0; i < featureIndices.length; i++) {
+            featureIndices[i] = order.get(i);
+        }
+        return new FeatureSchema(featureIndices);
+    }
+
+    /**
+     * Reads a saved schema.
+     *
+     * @param file          the file of the saved schema.
+     * @param assetChecksum the checksum of the current assets.
+     *
+     * @return the schema, or null if it was compiled from other assets.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    static FeatureSchema read(File file, long assetChecksum) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String checksum = reader.readLine();
+            String indices = reader.readLine();
+            if (checksum == null || Long.parseLong(checksum) != assetChecksum || indices == null) {
+                return null;
+            }
+            if (indices.isEmpty()) {
+                return new FeatureSchema(new int[0]);
+            }
+            String[] cells = indices.split(",");
+            int[] featureIndices = new int[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                featureIndices[i] = Integer.parseInt(cells[i]);
+            }
+            return new FeatureSchema(featureIndices);
+        }
+    }
+
+    /**
+     * Saves the schema.
+     *
+     * @param file          the file to save the schema to.
+     * @param assetChecksum the checksum of the assets the schema was compiled from.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    void write(File file, long assetChecksum) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        // Written to a temporary file first, so a partially written schema is never read
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temporaryFile), StandardCharsets.UTF_8))) {
+            writer.write(Long.toString(assetChecksum));
+            writer.newLine();
+            for (int i = 0; i < featureIndices.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(Integer.toString(featureIndices[i]));
+            }
+            writer.newLine();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Could not save " + file);
+        }
+    }
+
+    /**
+     * Creates the file name of a saved schema.
+     *
+     * @param weightsFile     the path of the weights file.
+     * @param climateDataFile the path of the climate data file.
+     *
+     * @return the file name.
+     */
+    static String toFileName(String weightsFile, String climateDataFile) {
+        return (weightsFile + "--" + climateDataFile).replace('/', '_') + ".schema";
+    }
+
+    /**
+     * Retrieves the climate data column that a weights column needs to be multiplied with.
+     *
+     * @param weightsColumn the weights column index, after the excluded columns were removed.
+     *
+     * @return the climate data column index.
+     */
+    public int getFeatureIndex(int weightsColumn) {
+        return featureIndices[weightsColumn];
+    }
+
+    /**
+     * A getter for the number of mapped weights columns.
+     *
+     * @return the number of weights columns with a climate data column.
+     */
+    public int size() {
+        return featureIndices.length;
+    }
+
+    /**
+     * Removes all compiled schemas from memory. Saved schemas are kept.
+     */
+    public static synchronized void clear() {
+        SCHEMAS.clear();
+    }
+}
@@ -2,16 +2,12 @@ package com.example.fruitqualityprediction.sbprocessing.calculator;
 
 import android.content.Context;
 import android.content.res.AssetManager;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -19,10 +15,13 @@ import java.util.regex.Pattern;
  * for the multiplication of weights and climate data.
  */
 public class FeaturesOrderRetriever {
+    private static final Pattern TRAILING_DASH_AND_DIGIT = Pattern.compile("-\\d$"); // The weeks suffix of a weight name.
+
     private final transient Context context; // The current context.
     private final Map<String, String> dictionary = new HashMap<>(); // The mapping dictionary.
     private final List<String> weightsColumnNames = new ArrayList<>(); // The column names of the weights.
     private final List<String> featuresColumnNames = new ArrayList<>(); // The column names of the features.
+    private final Map<String, Integer> featuresColumnIndices = new HashMap<>(); // The first index of every feature name.
     private final String attributeInformationFile; // The attribute information file.
     private final String weightsFile; // The weights file.
     private final String climateDataFile; // The climate data file.
@@ -36,7 +35,7 @@ public class FeaturesOrderRetriever {
      */
     public FeaturesOrderRetriever(Context context, String weightsFile, String climateDataFile) {
         this.context = context;
-        this.attributeInformationFile = "attribute_information/AttributeInformation.csv";
+        this.attributeInformationFile = FeatureSchema.ATTRIBUTE_INFORMATION_FILE;
         this.weightsFile = weightsFile;
         this.climateDataFile = climateDataFile;
     }
@@ -46,16 +45,18 @@ public class FeaturesOrderRetriever {
      * a weights column name to a climate data column name.
      */
     public void createDictionary() {
-        String csvDelimiter = ";";
         AssetManager assetManager = context.getAssets();
-        try (InputStream inputStream = assetManager.open(attributeInformationFile);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            reader.readLine();
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(csvDelimiter);
-                String data2 = data[2].replace("\u00A0", " ");
-                dictionary.put(data[0], data2);
+        try (InputStream inputStream = assetManager.open(attributeInformationFile)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(inputStream, ';');
+            tokenizer.nextLine();
+            while (tokenizer.nextLine()) {
+                if (!tokenizer.nextCell()) {
+                    continue;
+                }
+                String abbreviation = tokenizer.getString();
+                if (tokenizer.nextCell() && tokenizer.nextCell()) {
+                    dictionary.put(abbreviation, tokenizer.getString().replace("\u00A0", " "));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -66,14 +67,13 @@ public class FeaturesOrderRetriever {
      * Retrieves the names of the weights based on the weights file.
      */
     public void createWeightsColumnNames() {
-        String csvDelimiter = ",";
         AssetManager assetManager = context.getAssets();
-        try (InputStream inputStream = assetManager.open(weightsFile);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            if ((line = reader.readLine()) != null) {
-                String[] data = line.split(csvDelimiter);
-                weightsColumnNames.addAll(Arrays.asList(data));
+        try (InputStream inputStream = assetManager.open(weightsFile)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(inputStream, ',');
+            if (tokenizer.nextLine()) {
+                while (tokenizer.nextCell()) {
+                    weightsColumnNames.add(tokenizer.getString());
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -84,20 +84,17 @@ public class FeaturesOrderRetriever {
      * Retrieves the names of the climate data features based on the weights file.
      */
     public void createFeaturesColumnNames() {
-        String entryRegex = "\"([^\"]*)\"";
         AssetManager assetManager = context.getAssets();
-        try (InputStream inputStream = assetManager.open(climateDataFile);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            if ((line = reader.readLine()) != null) {
-                Pattern pattern = Pattern.compile(entryRegex);
-                Matcher matcher = pattern.matcher(line);
-                while (matcher.find()) {
-                    String entry = matcher.group(1);
-                    if (entry == null) {
-                        entry = matcher.group(2);
+        try (InputStream inputStream = assetManager.open(climateDataFile)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(inputStream, ',');
+            if (tokenizer.nextLine()) {
+                // Only the quoted header cells are feature names
+                while (tokenizer.nextCell()) {
+                    if (tokenizer.isQuoted()) {
+                        String entry = tokenizer.getString();
+                        featuresColumnIndices.putIfAbsent(entry, featuresColumnNames.size());
+                        featuresColumnNames.add(entry);
                     }
-                    featuresColumnNames.add(entry);
                 }
             }
         } catch (IOException e) {
@@ -113,9 +110,8 @@ public class FeaturesOrderRetriever {
      * @return the processed string.
      */
     public static String removeTrailingDashAndDigit(String input) {
-        // Regular expression to match a dash followed by an integer at the end of the string
-        String regex = "-\\d$";
-        return input.replaceAll(regex, "");
+        // Matching a dash followed by an integer at the end of the string
+        return TRAILING_DASH_AND_DIGIT.matcher(input).replaceAll("");
     }
 
     /**
@@ -167,16 +163,13 @@ public class FeaturesOrderRetriever {
      * @return the feature column index.
      */
     public int getFeatureColumnIndex(String columnName) {
-        // Iterate through the column names to find the matching index
-        for (int i = 0; i < featuresColumnNames.size(); i++) {
-            if (columnName.equals(featuresColumnNames.get(i))) {
-                // Return the index if the column name matches
-                return i;
-            }
-        }
+        Integer index = featuresColumnIndices.get(columnName);
 
         // If no matching column name is found, throw an exception
-        throw new IllegalArgumentException("Invalid column name");
+        if (index == null) {
+            throw new IllegalArgumentException("Invalid column name");
+        }
+        return index;
     }
 
     /**
@@ -0,0 +1,344 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import org.tensorflow.lite.Interpreter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Process-wide registry of TensorFlow Lite interpreters. Loading a model is far more expensive
+ * than running it, so interpreters are created once per (folder, model file, options) and kept
+ * warm until the selected model changes. Interpreters are handed out as leases, so an interpreter
+ * whose model is deselected during an inference is only closed once the inference is done.
+ */
+public final class InterpreterRegistry {
+
+    public static final int DEFAULT_NUM_THREADS = -1; // Lets TensorFlow Lite pick the thread count.
+
+    private static final InterpreterRegistry INSTANCE = new InterpreterRegistry();
+
+    private final Map<String, Entry> interpreters = new HashMap<>(); // Warm interpreters by key.
+
+    /**
+     * A warm interpreter and the number of callers using it.
+     */
+    private static class Entry {
+
+        private final Interpreter interpreter; // The interpreter of the model.
+        private int leases; // The number of leases that have not been released.
+        private boolean retired; // Whether the interpreter is closed once its last lease is released.
+
+        /**
+         * Creates an entry.
+         *
+         * @param interpreter the interpreter of the model.
+         */
+        private Entry(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+    }
+
+    /**
+     * The right to use an interpreter until the lease is closed. The interpreter stays open while
+     * it is leased, even if its model is deselected in the meantime.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Entry entry; // The leased interpreter.
+        private boolean released; // Whether the lease has been closed.
+
+        /**
+         * Creates a lease.
+         *
+         * @param entry the leased interpreter.
+         */
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * A getter for the leased interpreter. Interpreters are not thread-safe, so callers must
+         * synchronize on it while running it.
+         *
+         * @return the interpreter.
+         */
+        public Interpreter getInterpreter() {
+            return entry.interpreter;
+        }
+
+        /**
+         * Releases the interpreter. Closing a lease more than once has no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (InterpreterRegistry.this) {
+                if (!released) {
+                    released = true;
+                    entry.leases--;
+                    if (entry.retired && entry.leases == 0) {
+                        InterpreterRegistry.close(entry.interpreter);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Only the shared instance may exist.
+     */
+    private InterpreterRegistry() {
+    }
+
+    /**
+     * A getter for the shared registry.
+     *
+     * @return the process-wide interpreter registry.
+     */
+    public static InterpreterRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Leases a warm interpreter for the given model, loading it on first use. The lease must be
+     * closed once the interpreter is no longer used, preferably with try-with-resources.
+     *
+     * @param context       the current Android context.
+     * @param folderName    the assets folder containing the model.
+     * @param modelFileName the name of the .tflite model file.
+     * @param numThreads    the number of threads the interpreter may use.
+     *
+     * @return the lease of the interpreter for the model.
+     *
+     * @throws IOException if the model file could not be read.
+     */
+    public synchronized Lease acquire(Context context, String folderName, String modelFileName,
+                                      int numThreads) throws IOException {
+        String key = createKey(folderName, modelFileName, numThreads);
+        Entry entry = interpreters.get(key);
+        if (entry == null) {
+            Interpreter.Options options = new Interpreter.Options();
+            options.setNumThreads(numThreads);
+            entry = new Entry(new Interpreter(mapAsset(context, folderName + "/" + modelFileName), options));
+            interpreters.put(key, entry);
+        }
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    /**
+     * Leases a warm interpreter for the given model using the default options.
+     *
+     * @param context       the current Android context.
+     * @param folderName    the assets folder containing the model.
+     * @param modelFileName the name of the .tflite model file.
+     *
+     * @return the lease of the interpreter for the model.
+     *
+     * @throws IOException if the model file could not be read.
+     */
+    public Lease acquire(Context context, String folderName, String modelFileName) throws IOException {
+        return acquire(context, folderName, modelFileName, DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * Returns a warm interpreter for the given model, loading it on first use, without leasing
+     * it. The interpreter may be closed as soon as its model is deselected, so use
+     * {@link #acquire(Context, String, String, int)} to run it.
+     *
+     * @param context       the current Android context.
+     * @param folderName    the assets folder containing the model.
+     * @param modelFileName the name of the .tflite model file.
+     * @param numThreads    the number of threads the interpreter may use.
+     *
+     * @return the interpreter for the model.
+     *
+     * @throws IOException if the model file could not be read.
+     */
+    public Interpreter getInterpreter(Context context, String folderName, String modelFileName,
+                                      int numThreads) throws IOException {
+        try (Lease lease = acquire(context, folderName, modelFileName, numThreads)) {
+            return lease.getInterpreter();
+        }
+    }
+
+    /**
+     * Returns a warm interpreter for the given model using the default options, without leasing it.
+     *
+     * @param context       the current Android context.
+     * @param folderName    the assets folder containing the model.
+     * @param modelFileName the name of the .tflite model file.
+     *
+     * @return the interpreter for the model.
+     *
+     * @throws IOException if the model file could not be read.
+     */
+    public Interpreter getInterpreter(Context context, String folderName, String modelFileName) throws IOException {
+        return getInterpreter(context, folderName, modelFileName, DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * Removes every interpreter whose model is not in the given collection, and closes it once it
+     * is no longer leased. Called when the selected models change, so that unused models do not
+     * keep their memory.
+     *
+     * @param modelPaths the models to keep, as "folder/file" asset paths.
+     */
+    public synchronized void retainModels(Collection<String> modelPaths) {
+        Iterator<Map.Entry<String, Entry>> iterator = interpreters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!modelPaths.contains(getModelPath(entry.getKey()))) {
+                retire(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all interpreters, and closes each once it is no longer leased.
+     */
+    public synchronized void clear() {
+        for (Entry entry : interpreters.values()) {
+            retire(entry);
+        }
+        interpreters.clear();
+    }
+
+    /**
+     * Returns the number of warm interpreters.
+     *
+     * @return the number of interpreters currently kept in the registry.
+     */
+    public synchronized int size() {
+        return interpreters.size();
+    }
+
+    /**
+     * Checks whether an asset is bundled, for example to only offer features whose model is present.
+     *
+     * @param context   the current Android context.
+     * @param assetPath the path of the asset, relative to the assets directory.
+     *
+     * @return whether the asset can be opened.
+     */
+    public static boolean hasAsset(Context context, String assetPath) {
+        try (InputStream inputStream = context.getAssets().open(assetPath)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Memory-maps an asset directly from the APK. Assets stored compressed cannot be mapped in place,
+     * in which case the asset is copied to a temporary file first.
+     *
+     * @param context   the current Android context.
+     * @param assetPath the path of the asset, relative to the assets directory.
+     *
+     * @return a read-only mapped byte buffer of the asset.
+     *
+     * @throws IOException if the asset could not be read or mapped.
+     */
+    public static MappedByteBuffer mapAsset(Context context, String assetPath) throws IOException {
+        AssetManager assetManager = context.getAssets();
+        try (AssetFileDescriptor fileDescriptor = assetManager.openFd(assetPath);
+             FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+            return inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+        } catch (FileNotFoundException e) {
+            return mapAssetCopy(assetManager, assetPath);
+        }
+    }
+
+    /**
+     * Copies a (compressed) asset to a temporary file and memory-maps the copy.
+     *
+     * @param assetManager the asset manager.
+     * @param assetPath    the path of the asset, relative to the assets directory.
+     *
+     * @return a read-only mapped byte buffer of the asset.
+     *
+     * @throws IOException if the asset could not be read or mapped.
+     */
+    private static MappedByteBuffer mapAssetCopy(AssetManager assetManager, String assetPath) throws IOException {
+        File tempFile = File.createTempFile("model", null);
+        try {
+            try (InputStream inputStream = assetManager.open(assetPath);
+                 FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                byte[] buffer = new byte[4096];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                }
+            }
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "r")) {
+                return randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            }
+        } finally {
+            // The mapping stays valid after the file is deleted
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Closes an interpreter now if it is not leased, or else when its last lease is released.
+     *
+     * @param entry the interpreter to retire.
+     */
+    private static void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.leases == 0) {
+            close(entry.interpreter);
+        }
+    }
+
+    /**
+     * Closes an interpreter, waiting for a running inference on it to finish.
+     *
+     * @param interpreter the interpreter to close.
+     */
+    private static void close(Interpreter interpreter) {
+        synchronized (interpreter) {
+            interpreter.close();
+        }
+    }
+
+    /**
+     * Creates the registry key of a model and its options.
+     *
+     * @param folderName    the assets folder containing the model.
+     * @param modelFileName the name of the model file.
+     * @param numThreads    the number of threads.
+     *
+     * @return the registry key.
+     */
+    private static String createKey(String folderName, String modelFileName, int numThreads) {
+        return folderName + "/" + modelFileName + "#" + numThreads;
+    }
+
+    /**
+     * Retrieves the "folder/file" model path from a registry key.
+     *
+     * @param key the registry key.
+     *
+     * @return the model path.
+     */
+    private static String getModelPath(String key) {
+        return key.substring(0, key.lastIndexOf('#'));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide, bounded cache of the quantiles (or the mean) computed from the climate data. All
+ * strawberries in an image share the same timestamp and files, so the climate part of a prediction
+ * only has to be computed once per image.
+ */
+public final class QuantileCache {
+
+    public static final int DEFAULT_CAPACITY = 32; // The default maximum number of cached entries.
+
+    private static final QuantileCache INSTANCE = new QuantileCache(DEFAULT_CAPACITY);
+
+    private final Map<String, double[]> entries; // The cached quantiles, in least recently used order.
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum number of entries before the least recently used one is evicted.
+     */
+    QuantileCache(int capacity) {
+        this.entries = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * A getter for the shared cache.
+     *
+     * @return the process-wide quantile cache.
+     */
+    public static QuantileCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the cache key of a quantile computation.
+     *
+     * @param timestamp           the timestamp with a precision of 1 hour.
+     * @param climateDataFilename the file name of the climate data.
+     * @param weightsPath         the path of the weights file.
+     * @param excludedWeights     the excluded weights columns.
+     * @param windowHours         the number of hours of climate data averaged.
+     *
+     * @return the cache key.
+     */
+    public static String createKey(String timestamp, String climateDataFilename, String weightsPath,
+                                   int[] excludedWeights, int windowHours) {
+        return timestamp + "|" + climateDataFilename + "|" + weightsPath + "|" + Arrays.toString(excludedWeights)
+                + "|" + windowHours;
+    }
+
+    /**
+     * Retrieves cached quantiles.
+     *
+     * @param key the cache key.
+     *
+     * @return a copy of the cached quantiles, or null if they are not cached.
+     */
+    public synchronized double[] get(String key) {
+        double[] quantiles = entries.get(key);
+        return quantiles == null ? null : quantiles.clone();
+    }
+
+    /**
+     * Stores computed quantiles, evicting the least recently used entry if the cache is full.
+     *
+     * @param key       the cache key.
+     * @param quantiles the quantiles to store.
+     */
+    public synchronized void put(String key, double[] quantiles) {
+        entries.put(key, quantiles.clone());
+    }
+
+    /**
+     * Removes all cached quantiles.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
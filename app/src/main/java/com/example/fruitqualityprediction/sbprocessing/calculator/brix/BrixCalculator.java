@@ -6,6 +6,7 @@ import com.example.fruitqualityprediction.preferences.ModelPreferences;
 import com.example.fruitqualityprediction.providers.PreferenceProvider;
 import com.example.fruitqualityprediction.providers.TimeProvider;
 import com.example.fruitqualityprediction.sbprocessing.calculator.BaseCalculator;
+import java.util.List;
 
 /**
  * Provides the ability to calculate the Brix of a strawberry given an image of a strawberry and a timestamp. Hyperparameters
@@ -48,6 +49,28 @@ public class BrixCalculator extends BaseCalculator {
                 FOLDER_NAME);
     }
 
+    /**
+     * Calculates the Brix of several strawberries from the same image in a single batch.
+     *
+     * @param timestamp         the timestamp of the image.
+     * @param strawberryBitmaps pictures of the strawberries.
+     *
+     * @return the calculated Brix of every strawberry, in the order of the given pictures.
+     */
+    public float[] calculateBrix(String timestamp, List<Bitmap> strawberryBitmaps) {
+        ModelPreferences modelPreferences = preferenceProvider.getModelPreferences();
+        return calculateBatch(timestamp,
+                strawberryBitmaps,
+                modelPreferences.getBrixModelList(),
+                modelPreferences.getClimateDataList(),
+                modelPreferences.getBrixWeightsList(),
+                null,
+                null,
+                false,
+                WEIGHTS_DIRECTORY,
+                FOLDER_NAME);
+    }
+
     /*
      * Calls {@link BaseCalculator#calculate(String, int, String, String, String, double[], int[], boolean, String, String)} with default parameters
      *
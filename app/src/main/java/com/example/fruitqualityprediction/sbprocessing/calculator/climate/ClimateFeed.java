@@ -0,0 +1,240 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only feed of live climate data. The greenhouse climate computer writes a new CSV line every
+ * hour, either to a file or to a socket, with the same columns as the climate data file of the store.
+ * Every new line is appended to the {@link ClimateStore}, so predictions for the current hour can use
+ * it without reloading the data.
+ */
+public final class ClimateFeed implements Closeable {
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 60_000; // How often a file is checked for new lines.
+
+    private static final String TAG = "ClimateFeed";
+
+    private final ClimateStore store; // The store the rows are appended to.
+    private final AtomicInteger appendedRows = new AtomicInteger(); // The number of appended rows.
+    private long fileOffset; // The position in the file after the last complete line.
+    private volatile boolean closed; // Whether the feed was closed.
+    private volatile Socket socket; // The connected socket, if any.
+    private Thread thread; // The thread reading the feed.
+
+    /**
+     * Creates a new feed that is not reading yet. Use {@link #tailFile(ClimateStore, File, long)} or
+     * {@link #connect(ClimateStore, String, int, long)}.
+     *
+     * @param store the store to append the rows to.
+     */
+    ClimateFeed(ClimateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Starts a feed that follows a file, reading the lines that were added since the last check.
+     * Lines that are already in the store, such as the header or older rows, are skipped.
+     *
+     * @param store              the store to append the rows to.
+     * @param file               the file the climate computer appends to.
+     * @param pollIntervalMillis the time between two checks of the file.
+     *
+     * @return the started feed.
+     */
+    public static ClimateFeed tailFile(ClimateStore store, File file, long pollIntervalMillis) {
+        ClimateFeed feed = new ClimateFeed(store);
+        feed.start(() -> {
+            while (!feed.closed) {
+                try {
+                    feed.readFile(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not read " + file, e);
+                }
+                if (!feed.sleep(pollIntervalMillis)) {
+                    return;
+                }
+            }
+        });
+        return feed;
+    }
+
+    /**
+     * Starts a feed that reads lines from a socket, reconnecting when the connection is lost.
+     *
+     * @param store            the store to append the rows to.
+     * @param host             the host to connect to.
+     * @param port             the port to connect to.
+     * @param retryDelayMillis the time to wait before reconnecting.
+     *
+     * @return the started feed.
+     */
+    public static ClimateFeed connect(ClimateStore store, String host, int port, long retryDelayMillis) {
+        ClimateFeed feed = new ClimateFeed(store);
+        feed.start(() -> {
+            while (!feed.closed) {
+                try (Socket connection = new Socket(host, port)) {
+                    feed.socket = connection;
+                    feed.readLines(new BufferedReader(new InputStreamReader(
+                            connection.getInputStream(), StandardCharsets.UTF_8)));
+                } catch (IOException e) {
+                    if (!feed.closed) {
+                        Log.w(TAG, "Lost the connection to " + host + ":" + port, e);
+                    }
+                } finally {
+                    feed.socket = null;
+                }
+                if (!feed.sleep(retryDelayMillis)) {
+                    return;
+                }
+            }
+        });
+        return feed;
+    }
+
+    /**
+     * Starts the thread reading the feed.
+     *
+     * @param reader the loop reading the feed.
+     */
+    private void start(Runnable reader) {
+        thread = new Thread(reader, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits before the next read.
+     *
+     * @param millis the time to wait.
+     *
+     * @return false if the feed was closed while waiting.
+     */
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return !closed;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Appends the complete lines that were added to a file since the last call. A last line without
+     * a line break is still being written and is read on the next call. If the file became shorter,
+     * it was replaced and is read from the start.
+     *
+     * @param file the file to read.
+     *
+     * @return the number of appended rows.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    int readFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        if (file.length() < fileOffset) {
+            fileOffset = 0;
+        }
+        int appended = 0;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek(fileOffset);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            long position = fileOffset;
+            int bytesRead;
+            while ((bytesRead = randomAccessFile.read(buffer)) != -1) {
+                for (int i = 0; i < bytesRead; i++) {
+                    position++;
+                    if (buffer[i] == '\n') {
+                        if (appendLine(line.toString(StandardCharsets.UTF_8.name()))) {
+                            appended++;
+                        }
+                        line.reset();
+                        fileOffset = position;
+                    } else {
+                        line.write(buffer[i]);
+                    }
+                }
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Appends every line of a reader until it ends.
+     *
+     * @param reader the reader.
+     *
+     * @return the number of appended rows.
+     *
+     * @throws IOException if the lines could not be read.
+     */
+    int readLines(BufferedReader reader) throws IOException {
+        int appended = 0;
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+            if (appendLine(line)) {
+                appended++;
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Appends a line to the store. Malformed lines are logged and skipped.
+     *
+     * @param line the CSV line.
+     *
+     * @return whether the row was appended.
+     */
+    private boolean appendLine(String line) {
+        try {
+            if (store.appendLine(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line)) {
+                appendedRows.incrementAndGet();
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Skipping malformed climate data: " + line, e);
+        }
+        return false;
+    }
+
+    /**
+     * A getter for the number of appended rows.
+     *
+     * @return the number of rows this feed appended to the store.
+     */
+    public int getAppendedRows() {
+        return appendedRows.get();
+    }
+
+    /**
+     * Stops reading the feed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,955 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import android.content.Context;
+import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.calculator.CsvTokenizer;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * In-memory, column-oriented copy of an hourly climate data file. Every file is loaded once into
+ * float columns plus a sorted index of the hours since the epoch, so that finding the row of a
+ * timestamp is a binary search and a window of rows is a range over the columns.
+ *
+ * <p>The values are floats rather than doubles so that the binary copy can be read in place at half
+ * the size. The sums over the values are computed in double precision, so the averages of a window
+ * stay within about 1e-6 of averaging the parsed doubles, far below the precision of the sensors.</p>
+ *
+ * <p>The CSV assets are shipped together with a binary copy in {@value #BINARY_DIRECTORY}, created
+ * by the ClimateDataConverter desktop tool in src/tools/java. The binary copy is memory-mapped and
+ * its columns, prefix sums and missing counts are read in place, so loading it neither parses any
+ * text nor computes anything per row. It records the size and the CRC32 of the CSV file it was made
+ * from. The app only compares the size, which does not require reading the CSV file, while the unit
+ * tests compare the checksum of the bundled assets, so an outdated copy fails the build. All values
+ * are little-endian:</p>
+ * <pre>
+ * int      magic ({@value #MAGIC}) and format version
+ * int      number of rows and number of feature columns
+ * long     the hour since the epoch of the first row
+ * long     the CRC32 of the CSV file
+ * long     the size in bytes of the CSV file
+ * per column: int length and the UTF-8 bytes of the column name
+ * int[]    per row, the hours since the first row (hours may repeat when the clocks go back)
+ * byte[]   per row, 1 if the row is complete and 0 otherwise
+ * float[]  per column, the values of all rows, NaN if missing
+ * double[] per column, the rows + 1 sums of the values before a row, missing values as zero
+ * int[]    per column, the rows + 1 counts of the missing values before a row
+ * </pre>
+ * <p>The row offsets start at a multiple of 4 bytes, the values and the prefix sums at a multiple of
+ * 8 bytes.</p>
+ *
+ * <p>New hourly rows can be appended while the store is in use, see {@link ClimateFeed}. Appended
+ * rows are kept on the heap, after the rows loaded from the file.</p>
+ */
+public final class ClimateStore {
+
+    public static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm:ss"; // The format of the timestamps.
+    public static final String BINARY_DIRECTORY = "climate-data-binary/"; // The assets directory of the binary copies.
+    public static final String BINARY_EXTENSION = ".climate"; // The file extension of the binary copies.
+    public static final int MAGIC = 0x4D494C43; // The first bytes of a binary copy, "CLIM".
+    public static final int VERSION = 3; // The version of the binary format.
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE; // Returned when a cell is not a timestamp.
+
+    private static final String TAG = "ClimateStore";
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern(TIMESTAMP_PATTERN);
+    private static final Map<String, ClimateStore> STORES = new HashMap<>(); // Parsed stores by asset path.
+
+    private final String[] columnNames; // The names of the feature columns, without the timestamp column.
+    private final FloatBuffer values; // The feature values of the loaded rows, column after column.
+    private final DoubleBuffer prefixSums; // Per column, the sum of the loaded values before a row, missing as zero.
+    private final IntBuffer missingCounts; // Per column, the number of missing loaded values before a row.
+    private final int loadedRowCount; // The number of rows loaded from the file.
+    private final long sourceChecksum; // The CRC32 of the CSV file the rows were loaded from.
+    private final long sourceSize; // The size in bytes of the CSV file the rows were loaded from.
+
+    // The fields below grow when rows are appended and are guarded by this store
+    private int rowCount; // The number of rows, including the appended rows.
+    private long[] epochHours; // The hour since the epoch of every row, in chronological order.
+    private boolean[] complete; // Whether a row has a value in its last column.
+    private float[][] appendedValues; // Per column, the feature values of the appended rows.
+    private double[][] appendedPrefixSums; // Per column, the prefix sum after every appended row.
+    private int[][] appendedMissingCounts; // Per column, the missing count after every appended row.
+
+    /**
+     * Creates a new store. Use {@link #getInstance(Context, String)}, {@link #parse(InputStream)} or
+     * {@link #read(ByteBuffer)}.
+     *
+     * @param columnNames   the names of the feature columns.
+     * @param epochHours    the hour since the epoch of every row.
+     * @param values        the feature values, column after column.
+     * @param prefixSums    per column, the rows + 1 sums of the values before a row.
+     * @param missingCounts per column, the rows + 1 counts of the missing values before a row.
+     * @param complete      whether a row has a value in its last column.
+     * @param checksum      the CRC32 of the CSV file.
+     * @param size          the size in bytes of the CSV file.
+     */
+    private ClimateStore(String[] columnNames, long[] epochHours, FloatBuffer values, DoubleBuffer prefixSums,
+                         IntBuffer missingCounts, boolean[] complete, long checksum, long size) {
+        this.columnNames = columnNames;
+        this.sourceChecksum = checksum;
+        this.sourceSize = size;
+        this.values = values;
+        this.prefixSums = prefixSums;
+        this.missingCounts = missingCounts;
+        this.loadedRowCount = epochHours.length;
+        this.rowCount = epochHours.length;
+        this.epochHours = epochHours;
+        this.complete = complete;
+        this.appendedValues = new float[columnNames.length][0];
+        this.appendedPrefixSums = new double[columnNames.length][0];
+        this.appendedMissingCounts = new int[columnNames.length][0];
+    }
+
+    /**
+     * Retrieves the sum of the values of a column before a row. Missing values count as zero.
+     *
+     * @param column the feature column index.
+     * @param row    the row index, up to and including the number of rows.
+     *
+     * @return the prefix sum.
+     */
+    private double getPrefixSum(int column, int row) {
+        if (row <= loadedRowCount) {
+            return prefixSums.get(column * (loadedRowCount + 1) + row);
+        }
+        return appendedPrefixSums[column][row - loadedRowCount - 1];
+    }
+
+    /**
+     * Retrieves the number of missing values of a column before a row.
+     *
+     * @param column the feature column index.
+     * @param row    the row index, up to and including the number of rows.
+     *
+     * @return the missing count.
+     */
+    private int getMissingCountBefore(int column, int row) {
+        if (row <= loadedRowCount) {
+            return missingCounts.get(column * (loadedRowCount + 1) + row);
+        }
+        return appendedMissingCounts[column][row - loadedRowCount - 1];
+    }
+
+    /**
+     * Returns the store of a climate data asset, loading the asset on first use. The binary copy of
+     * the file is used when it is present and was made from a CSV file of the current size, otherwise
+     * the CSV file is parsed. The size of an asset is known without reading it, compressed or not.
+     *
+     * @param context   the current Android context.
+     * @param assetPath the path of the climate data CSV file, relative to the assets directory.
+     *
+     * @return the climate store of the file.
+     */
+    public static synchronized ClimateStore getInstance(Context context, String assetPath) {
+        ClimateStore store = STORES.get(assetPath);
+        if (store == null) {
+            try {
+                store = read(InterpreterRegistry.mapAsset(context, toBinaryAssetPath(assetPath)));
+                try (InputStream inputStream = context.getAssets().open(assetPath)) {
+                    // An asset stream reports the remaining size of the whole asset as available
+                    if (store.getSourceSize() != inputStream.available()) {
+                        Log.w(TAG, "The binary copy of " + assetPath + " is outdated, regenerate it with runClimateDataConverter");
+                        store = null;
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                // There is no binary copy of this file, for example because it was added later
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (store == null) {
+                try (InputStream inputStream = context.getAssets().open(assetPath)) {
+                    store = parse(inputStream);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            STORES.put(assetPath, store);
+        }
+        return store;
+    }
+
+    /**
+     * Returns the store of a climate data asset if it has already been loaded, without loading it.
+     *
+     * @param assetPath the path of the climate data CSV file, relative to the assets directory.
+     *
+     * @return the climate store of the file, or null if it has not been loaded.
+     */
+    public static synchronized ClimateStore getIfLoaded(String assetPath) {
+        return STORES.get(assetPath);
+    }
+
+    /**
+     * Returns the path of the binary copy of a climate data CSV asset.
+     *
+     * @param assetPath the path of the climate data CSV file, relative to the assets directory.
+     *
+     * @return the path of the binary copy, relative to the assets directory.
+     */
+    public static String toBinaryAssetPath(String assetPath) {
+        String fileName = assetPath.substring(assetPath.lastIndexOf('/') + 1);
+        if (fileName.endsWith(".csv")) {
+            fileName = fileName.substring(0, fileName.length() - ".csv".length());
+        }
+        return BINARY_DIRECTORY + fileName + BINARY_EXTENSION;
+    }
+
+    /**
+     * Computes the checksum that binary copies record of their CSV file.
+     *
+     * @param inputStream the CSV data, which is read to the end.
+     *
+     * @return the CRC32 of the data.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    public static long checksum(InputStream inputStream) throws IOException {
+        return checksum(new CheckedInputStream(inputStream, new CRC32()));
+    }
+
+    /**
+     * Reads a checked stream to the end.
+     *
+     * @param checkedStream the stream, of which some data may already have been read.
+     *
+     * @return the checksum of all data of the stream.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private static long checksum(CheckedInputStream checkedStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (checkedStream.read(buffer) != -1) {
+            // Only the checksum is needed
+        }
+        return checkedStream.getChecksum().getValue();
+    }
+
+    /**
+     * Parses climate data in CSV format. The first column contains the timestamps, the other columns
+     * the features. Empty cells are read as NaN, and lines without a valid timestamp are skipped.
+     *
+     * @param inputStream the CSV data, which is read to the end.
+     *
+     * @return the parsed climate store.
+     *
+     * @throws IOException if the data could not be read or is not in chronological order.
+     */
+    public static ClimateStore parse(InputStream inputStream) throws IOException {
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        CheckedInputStream checkedStream = new CheckedInputStream(countingStream, new CRC32());
+        CsvTokenizer tokenizer = new CsvTokenizer(checkedStream, ',');
+        if (!tokenizer.nextLine() || !tokenizer.nextCell()) {
+            throw new IOException("Climate data is empty");
+        }
+        List<String> names = new ArrayList<>();
+        while (tokenizer.nextCell()) {
+            names.add(tokenizer.getString());
+        }
+        String[] columnNames = names.toArray(new String[0]);
+        int columnCount = columnNames.length;
+
+        // The rows are collected in row-major order and transposed at the end
+        float[] row = new float[columnCount];
+        float[] rows = new float[1024 * columnCount];
+        long[] epochHours = new long[1024];
+        boolean[] complete = new boolean[1024];
+        int rowCount = 0;
+        while (tokenizer.nextLine()) {
+            tokenizer.nextCell();
+            long epochHour = parseEpochHour(tokenizer);
+            if (epochHour == NO_TIMESTAMP) {
+                continue;
+            }
+            boolean rowComplete = parseRow(tokenizer, row);
+
+            if (rowCount > 0 && epochHours[rowCount - 1] > epochHour) {
+                throw new IOException("Climate data is not in chronological order");
+            }
+            if (rowCount == epochHours.length) {
+                epochHours = Arrays.copyOf(epochHours, rowCount * 2);
+                complete = Arrays.copyOf(complete, rowCount * 2);
+                rows = Arrays.copyOf(rows, rowCount * 2 * columnCount);
+            }
+            epochHours[rowCount] = epochHour;
+            complete[rowCount] = rowComplete;
+            System.arraycopy(row, 0, rows, rowCount * columnCount, columnCount);
+            rowCount++;
+        }
+
+        float[] values = new float[columnCount * rowCount];
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            for (int column = 0; column < columnCount; column++) {
+                values[column * rowCount + rowIndex] = rows[rowIndex * columnCount + column];
+            }
+        }
+        epochHours = Arrays.copyOf(epochHours, rowCount);
+        complete = Arrays.copyOf(complete, rowCount);
+        long checksum = checksum(checkedStream);
+        return fromColumns(columnNames, epochHours, values, complete, checksum, countingStream.getCount());
+    }
+
+    /**
+     * Creates a store from parsed columns and computes the prefix sums and missing counts.
+     *
+     * @param columnNames the names of the feature columns.
+     * @param epochHours  the hour since the epoch of every row.
+     * @param values      the feature values, column after column.
+     * @param complete    whether a row has a value in its last column.
+     * @param checksum    the CRC32 of the CSV file.
+     * @param size        the size in bytes of the CSV file.
+     *
+     * @return the climate store.
+     */
+    private static ClimateStore fromColumns(String[] columnNames, long[] epochHours, float[] values,
+                                            boolean[] complete, long checksum, long size) {
+        int rowCount = epochHours.length;
+        double[] prefixSums = new double[columnNames.length * (rowCount + 1)];
+        int[] missingCounts = new int[prefixSums.length];
+        for (int column = 0; column < columnNames.length; column++) {
+            int offset = column * (rowCount + 1);
+            for (int row = 0; row < rowCount; row++) {
+                float value = values[column * rowCount + row];
+                boolean missing = Float.isNaN(value);
+                prefixSums[offset + row + 1] = prefixSums[offset + row] + (missing ? 0.0 : value);
+                missingCounts[offset + row + 1] = missingCounts[offset + row] + (missing ? 1 : 0);
+            }
+        }
+        return new ClimateStore(columnNames, epochHours, FloatBuffer.wrap(values), DoubleBuffer.wrap(prefixSums),
+                IntBuffer.wrap(missingCounts), complete, checksum, size);
+    }
+
+    /**
+     * Parses the feature cells of the current line.
+     *
+     * @param tokenizer the tokenizer, positioned at the timestamp cell.
+     * @param row       the array receiving the values, NaN for empty cells.
+     *
+     * @return whether the line has a value in the last column.
+     *
+     * @throws IOException           if the data could not be read.
+     * @throws NumberFormatException if a cell is not a number.
+     */
+    private static boolean parseRow(CsvTokenizer tokenizer, float[] row) throws IOException {
+        Arrays.fill(row, Float.NaN);
+        int column = 0;
+        int lastFilledColumn = -1;
+        while (column < row.length && tokenizer.nextCell()) {
+            if (!tokenizer.isEmpty()) {
+                row[column] = tokenizer.getFloat();
+                lastFilledColumn = column;
+            }
+            column++;
+        }
+        return lastFilledColumn == row.length - 1;
+    }
+
+    /**
+     * Parses the current cell as a timestamp without creating a String.
+     *
+     * @param tokenizer the tokenizer, positioned at the timestamp cell.
+     *
+     * @return the hours since the epoch, or {@link #NO_TIMESTAMP} if the cell is not a timestamp
+     *         formatted as {@value #TIMESTAMP_PATTERN}.
+     */
+    static long parseEpochHour(CsvTokenizer tokenizer) {
+        if (tokenizer.length() != TIMESTAMP_PATTERN.length()) {
+            return NO_TIMESTAMP;
+        }
+        for (int i = 0; i < TIMESTAMP_PATTERN.length(); i++) {
+            byte b = tokenizer.byteAt(i);
+            char expected = TIMESTAMP_PATTERN.charAt(i);
+            boolean valid = Character.isLetter(expected) ? b >= '0' && b <= '9' : b == expected;
+            if (!valid) {
+                return NO_TIMESTAMP;
+            }
+        }
+        int year = parseDigits(tokenizer, 0, 4);
+        int month = parseDigits(tokenizer, 5, 2);
+        int day = parseDigits(tokenizer, 8, 2);
+        int hour = parseDigits(tokenizer, 11, 2);
+        if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))
+                || hour > 23 || parseDigits(tokenizer, 14, 2) > 59 || parseDigits(tokenizer, 17, 2) > 59) {
+            return NO_TIMESTAMP;
+        }
+        return toEpochDay(year, month, day) * 24 + hour;
+    }
+
+    /**
+     * Parses a number from a range of digits of the current cell.
+     *
+     * @param tokenizer the tokenizer.
+     * @param start     the index of the first digit.
+     * @param length    the number of digits.
+     *
+     * @return the number.
+     */
+    private static int parseDigits(CsvTokenizer tokenizer, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value * 10 + (tokenizer.byteAt(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Computes the number of days since 1970-01-01 of a valid date, the same way as
+     * {@link java.time.LocalDate#toEpochDay()}.
+     *
+     * @param year  the year.
+     * @param month the month, from 1 to 12.
+     * @param day   the day of the month.
+     *
+     * @return the days since the epoch.
+     */
+    private static long toEpochDay(int year, int month, int day) {
+        // Counting from March, so that the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Appends a CSV line with the same columns as the file of the store, for example a new hourly
+     * row written by the climate computer.
+     *
+     * @param line the line, starting with the timestamp.
+     *
+     * @return whether the row was appended, which is not the case for lines without a valid
+     *         timestamp and for rows that are not newer than the last row.
+     *
+     * @throws NumberFormatException if a cell is not a number.
+     */
+    public boolean appendLine(String line) {
+        CsvTokenizer tokenizer = new CsvTokenizer(line.getBytes(StandardCharsets.UTF_8), ',');
+        try {
+            if (!tokenizer.nextLine() || !tokenizer.nextCell()) {
+                return false;
+            }
+            long epochHour = parseEpochHour(tokenizer);
+            if (epochHour == NO_TIMESTAMP) {
+                return false;
+            }
+            float[] row = new float[getColumnCount()];
+            boolean rowComplete = parseRow(tokenizer, row);
+            return append(epochHour, row, rowComplete);
+        } catch (IOException e) {
+            // The line is already in memory, so it cannot fail to be read
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a row. Only the prefix sums and missing counts of the new row are computed, so the
+     * cost does not depend on the number of rows.
+     *
+     * @param epochHour   the hour since the epoch of the row.
+     * @param row         the feature values, NaN if missing.
+     * @param rowComplete whether the row has a value in its last column.
+     *
+     * @return whether the row was appended, which is not the case if it is not newer than the last row.
+     */
+    public synchronized boolean append(long epochHour, float[] row, boolean rowComplete) {
+        if (row.length != getColumnCount()) {
+            throw new IllegalArgumentException("Expected " + getColumnCount() + " values, got " + row.length);
+        }
+        if (rowCount > 0 && epochHour <= epochHours[rowCount - 1]) {
+            return false;
+        }
+        if (rowCount == epochHours.length) {
+            int capacity = Math.max(16, rowCount + (rowCount >> 3));
+            epochHours = Arrays.copyOf(epochHours, capacity);
+            complete = Arrays.copyOf(complete, capacity);
+            for (int column = 0; column < columnNames.length; column++) {
+                appendedValues[column] = Arrays.copyOf(appendedValues[column], capacity - loadedRowCount);
+                appendedPrefixSums[column] = Arrays.copyOf(appendedPrefixSums[column], capacity - loadedRowCount);
+                appendedMissingCounts[column] = Arrays.copyOf(appendedMissingCounts[column], capacity - loadedRowCount);
+            }
+        }
+        epochHours[rowCount] = epochHour;
+        complete[rowCount] = rowComplete;
+        int index = rowCount - loadedRowCount;
+        for (int column = 0; column < columnNames.length; column++) {
+            boolean missing = Float.isNaN(row[column]);
+            appendedValues[column][index] = row[column];
+            appendedPrefixSums[column][index] = getPrefixSum(column, rowCount) + (missing ? 0.0 : row[column]);
+            appendedMissingCounts[column][index] = getMissingCountBefore(column, rowCount) + (missing ? 1 : 0);
+        }
+        rowCount++;
+        return true;
+    }
+
+    /**
+     * Reads climate data in the binary format. The feature values, prefix sums and missing counts are
+     * not copied, the store reads them from the given buffer.
+     *
+     * @param buffer the binary data, for example a memory-mapped file.
+     *
+     * @return the climate store.
+     *
+     * @throws IOException if the data is not in the binary format or is truncated.
+     */
+    public static ClimateStore read(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new IOException("Not a binary climate data file");
+            }
+            int version = data.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary climate data version " + version);
+            }
+            int rowCount = data.getInt();
+            int columnCount = data.getInt();
+            long baseEpochHour = data.getLong();
+            long checksum = data.getLong();
+            long size = data.getLong();
+            if (rowCount < 0 || columnCount < 0) {
+                throw new IOException("Invalid binary climate data dimensions");
+            }
+
+            String[] columnNames = new String[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                int length = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    throw new IOException("Binary climate data is truncated");
+                }
+                byte[] name = new byte[length];
+                data.get(name);
+                columnNames[column] = new String(name, StandardCharsets.UTF_8);
+            }
+            data.position(align(data.position(), 4));
+            if (5L * rowCount > data.remaining()) {
+                throw new IOException("Binary climate data is truncated");
+            }
+
+            long[] epochHours = new long[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                epochHours[row] = baseEpochHour + data.getInt();
+            }
+            boolean[] complete = new boolean[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                complete[row] = data.get() != 0;
+            }
+
+            long valuesPosition = align(data.position(), 8);
+            long prefixSumsPosition = align(valuesPosition + 4L * columnCount * rowCount, 8);
+            long missingCountsPosition = prefixSumsPosition + 8L * columnCount * (rowCount + 1);
+            long end = missingCountsPosition + 4L * columnCount * (rowCount + 1);
+            if (end > data.limit()) {
+                throw new IOException("Binary climate data is truncated");
+            }
+            FloatBuffer values = slice(data, valuesPosition, prefixSumsPosition).asFloatBuffer();
+            DoubleBuffer prefixSums = slice(data, prefixSumsPosition, missingCountsPosition).asDoubleBuffer();
+            IntBuffer missingCounts = slice(data, missingCountsPosition, end).asIntBuffer();
+            return new ClimateStore(columnNames, epochHours, values, prefixSums, missingCounts, complete,
+                    checksum, size);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Binary climate data is truncated", e);
+        }
+    }
+
+    /**
+     * Returns a little-endian view of a range of a buffer.
+     *
+     * @param data  the buffer.
+     * @param start the position of the first byte of the range.
+     * @param end   the position after the last byte of the range.
+     *
+     * @return the view, which shares the content of the buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer data, long start, long end) {
+        ByteBuffer range = data.duplicate();
+        range.limit((int) end).position((int) start);
+        return range.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the store in the binary format.
+     *
+     * @param outputStream the stream to write to.
+     *
+     * @throws IOException if the data could not be written.
+     */
+    public synchronized void write(OutputStream outputStream) throws IOException {
+        int rowCount = getRowCount();
+        int columnCount = getColumnCount();
+        byte[][] names = new byte[columnCount][];
+        int headerSize = 40;
+        for (int column = 0; column < columnCount; column++) {
+            names[column] = columnNames[column].getBytes(StandardCharsets.UTF_8);
+            headerSize += 4 + names[column].length;
+        }
+        int valuesOffset = align(align(headerSize, 4) + 5 * rowCount, 8);
+        int prefixSumsOffset = align(valuesOffset + 4 * columnCount * rowCount, 8);
+        int missingCountsOffset = prefixSumsOffset + 8 * columnCount * (rowCount + 1);
+
+        ByteBuffer data = ByteBuffer.allocate(missingCountsOffset + 4 * columnCount * (rowCount + 1))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long baseEpochHour = rowCount == 0 ? 0 : epochHours[0];
+        data.putInt(MAGIC).putInt(VERSION).putInt(rowCount).putInt(columnCount).putLong(baseEpochHour)
+                .putLong(sourceChecksum).putLong(sourceSize);
+        for (byte[] name : names) {
+            data.putInt(name.length).put(name);
+        }
+        data.position(align(data.position(), 4));
+        for (int row = 0; row < rowCount; row++) {
+            data.putInt(Math.toIntExact(epochHours[row] - baseEpochHour));
+        }
+        for (int row = 0; row < rowCount; row++) {
+            data.put((byte) (complete[row] ? 1 : 0));
+        }
+        data.position(valuesOffset);
+        for (int column = 0; column < columnCount; column++) {
+            for (int row = 0; row < rowCount; row++) {
+                data.putFloat((float) getValue(row, column));
+            }
+        }
+        data.position(prefixSumsOffset);
+        for (int column = 0; column < columnCount; column++) {
+            for (int row = 0; row <= rowCount; row++) {
+                data.putDouble(getPrefixSum(column, row));
+            }
+        }
+        for (int column = 0; column < columnCount; column++) {
+            for (int row = 0; row <= rowCount; row++) {
+                data.putInt(getMissingCountBefore(column, row));
+            }
+        }
+        outputStream.write(data.array());
+    }
+
+    /**
+     * Rounds a position in the binary format up to a multiple of an alignment.
+     *
+     * @param position  the position.
+     * @param alignment the alignment, a power of 2.
+     *
+     * @return the aligned position.
+     */
+    private static int align(int position, int alignment) {
+        return (position + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Rounds a position in the binary format up to a multiple of an alignment.
+     *
+     * @param position  the position.
+     * @param alignment the alignment, a power of 2.
+     *
+     * @return the aligned position.
+     */
+    private static long align(long position, int alignment) {
+        return (position + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Converts a timestamp to the number of hours since the epoch.
+     *
+     * @param timestamp the timestamp, formatted as {@value #TIMESTAMP_PATTERN}.
+     *
+     * @return the hours since the epoch.
+     *
+     * @throws DateTimeParseException if the timestamp is not formatted correctly.
+     */
+    public static long toEpochHour(String timestamp) {
+        LocalDateTime dateTime = LocalDateTime.parse(timestamp, TIMESTAMP_FORMATTER);
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 3600);
+    }
+
+    /**
+     * Finds the first row of a timestamp.
+     *
+     * @param timestamp the timestamp with a precision of 1 hour.
+     *
+     * @return the index of the row, or -1 if the timestamp is not present.
+     */
+    public int indexOf(String timestamp) {
+        try {
+            return indexOf(toEpochHour(timestamp));
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the first row of an hour.
+     *
+     * @param epochHour the hours since the epoch.
+     *
+     * @return the index of the row, or -1 if the hour is not present.
+     */
+    public synchronized int indexOf(long epochHour) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochHours[middle] < epochHour) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < rowCount && epochHours[low] == epochHour ? low : -1;
+    }
+
+    /**
+     * Returns a view of a range of rows.
+     *
+     * @param start the first row of the window.
+     * @param end   the row after the last row of the window.
+     *
+     * @return the window.
+     */
+    public synchronized ClimateWindow getWindow(int start, int end) {
+        checkRange(start, end);
+        return new ClimateWindow(this, start, end);
+    }
+
+    /**
+     * Checks that a range of rows exists.
+     *
+     * @param start the first row of the range.
+     * @param end   the row after the last row of the range.
+     */
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > rowCount || start > end) {
+            throw new IndexOutOfBoundsException("Invalid window [" + start + ", " + end + ")");
+        }
+    }
+
+    /**
+     * Retrieves a feature value.
+     *
+     * @param row    the row index.
+     * @param column the feature column index, not counting the timestamp column.
+     *
+     * @return the value, or NaN if it is missing.
+     */
+    public synchronized double getValue(int row, int column) {
+        checkRow(row);
+        if (row < loadedRowCount) {
+            return values.get(column * loadedRowCount + row);
+        }
+        return appendedValues[column][row - loadedRowCount];
+    }
+
+    /**
+     * Sums the values of a column over a range of rows in constant time. Missing values count as zero.
+     *
+     * @param column the feature column index, not counting the timestamp column.
+     * @param start  the first row of the range.
+     * @param end    the row after the last row of the range.
+     *
+     * @return the sum of the values.
+     */
+    public synchronized double getSum(int column, int start, int end) {
+        checkRange(start, end);
+        return getPrefixSum(column, end) - getPrefixSum(column, start);
+    }
+
+    /**
+     * Counts the missing values of a column over a range of rows in constant time.
+     *
+     * @param column the feature column index, not counting the timestamp column.
+     * @param start  the first row of the range.
+     * @param end    the row after the last row of the range.
+     *
+     * @return the number of missing values.
+     */
+    public synchronized int getMissingCount(int column, int start, int end) {
+        checkRange(start, end);
+        return getMissingCountBefore(column, end) - getMissingCountBefore(column, start);
+    }
+
+    /**
+     * Whether a row has a value in its last column. Rows without one were shorter than the header
+     * in the original row-based parsing.
+     *
+     * @param row the row index.
+     *
+     * @return whether the row is complete.
+     */
+    public synchronized boolean isComplete(int row) {
+        checkRow(row);
+        return complete[row];
+    }
+
+    /**
+     * Retrieves the hour of a row.
+     *
+     * @param row the row index.
+     *
+     * @return the hours since the epoch.
+     */
+    public synchronized long getEpochHour(int row) {
+        checkRow(row);
+        return epochHours[row];
+    }
+
+    /**
+     * Checks that a row exists. The arrays have room for rows that are not appended yet.
+     *
+     * @param row the row index.
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row " + row);
+        }
+    }
+
+    /**
+     * Retrieves the name of a feature column.
+     *
+     * @param column the feature column index, not counting the timestamp column.
+     *
+     * @return the column name.
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * A getter for the number of rows.
+     *
+     * @return the number of rows.
+     */
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * A getter for the checksum of the CSV file the rows were loaded from. Appended rows do not
+     * change it.
+     *
+     * @return the CRC32 of the CSV file.
+     */
+    public long getSourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /**
+     * A getter for the size of the CSV file the rows were loaded from. Appended rows do not change it.
+     *
+     * @return the size in bytes of the CSV file.
+     */
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    /**
+     * A getter for the number of feature columns.
+     *
+     * @return the number of feature columns, not counting the timestamp column.
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count; // The number of bytes read so far.
+
+        /**
+         * Creates a new counting stream.
+         *
+         * @param inputStream the stream to count the bytes of.
+         */
+        CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        /**
+         * Reads a byte and counts it.
+         *
+         * @return the byte, or -1 at the end of the stream.
+         *
+         * @throws IOException if the byte could not be read.
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        /**
+         * Reads bytes into an array and counts them.
+         *
+         * @param buffer the array receiving the bytes.
+         * @param offset the index of the first byte in the array.
+         * @param length the maximum number of bytes to read.
+         *
+         * @return the number of bytes read, or -1 at the end of the stream.
+         *
+         * @throws IOException if the bytes could not be read.
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        /**
+         * Skips bytes and counts them.
+         *
+         * @param n the number of bytes to skip.
+         *
+         * @return the number of bytes skipped.
+         *
+         * @throws IOException if the bytes could not be skipped.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        /**
+         * A getter for the number of bytes read.
+         *
+         * @return the number of bytes read so far.
+         */
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+/**
+ * A view of a consecutive range of rows of a {@link ClimateStore}. No values are copied.
+ */
+public final class ClimateWindow {
+
+    private final ClimateStore store; // The store the window is a view of.
+    private final int start; // The first row of the window.
+    private final int end; // The row after the last row of the window.
+
+    /**
+     * Creates a new window. Use {@link ClimateStore#getWindow(int, int)}.
+     *
+     * @param store the store the window is a view of.
+     * @param start the first row of the window.
+     * @param end   the row after the last row of the window.
+     */
+    ClimateWindow(ClimateStore store, int start, int end) {
+        this.store = store;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Retrieves a feature value.
+     *
+     * @param row    the row index, relative to the start of the window.
+     * @param column the feature column index, not counting the timestamp column.
+     *
+     * @return the value, or NaN if it is missing.
+     */
+    public double getValue(int row, int column) {
+        return store.getValue(start + row, column);
+    }
+
+    /**
+     * Averages every feature over the rows of the window. Missing values count as zero. Uses the
+     * prefix sums of the store, so the cost does not depend on the size of the window.
+     *
+     * @return the average of every feature column.
+     */
+    public double[] getAverages() {
+        double[] averages = new double[store.getColumnCount()];
+        for (int column = 0; column < averages.length; column++) {
+            averages[column] = store.getSum(column, start, end) / size();
+        }
+        return averages;
+    }
+
+    /**
+     * Averages every feature over the values that are present in the window.
+     *
+     * @return the average of every feature column, or NaN for columns without any value.
+     */
+    public double[] getObservedAverages() {
+        double[] averages = new double[store.getColumnCount()];
+        for (int column = 0; column < averages.length; column++) {
+            int observed = size() - store.getMissingCount(column, start, end);
+            averages[column] = observed == 0 ? Double.NaN : store.getSum(column, start, end) / observed;
+        }
+        return averages;
+    }
+
+    /**
+     * Counts the missing values of every feature in the window.
+     *
+     * @return the number of missing values of every feature column.
+     */
+    public int[] getMissingCounts() {
+        int[] counts = new int[store.getColumnCount()];
+        for (int column = 0; column < counts.length; column++) {
+            counts[column] = store.getMissingCount(column, start, end);
+        }
+        return counts;
+    }
+
+    /**
+     * A getter for the first row.
+     *
+     * @return the index of the first row in the store.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * A getter for the end of the window.
+     *
+     * @return the index of the row after the last row in the store.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * A getter for the number of rows.
+     *
+     * @return the number of rows in the window.
+     */
+    public int size() {
+        return end - start;
+    }
+}
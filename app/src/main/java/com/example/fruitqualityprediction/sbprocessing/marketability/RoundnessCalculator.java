@@ -2,6 +2,7 @@ package com.example.fruitqualityprediction.sbprocessing.marketability;
 
 import android.graphics.Bitmap;
 import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import org.opencv.android.Utils;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -25,6 +26,22 @@ public class RoundnessCalculator {
      * @return the roundness of the strawberry.
      */
     public double calculateRoundness(Bitmap bitmap) {
+        return calculateRoundness(bitmap, null);
+    }
+
+    /**
+     * Determines the roundness of a strawberry. If the pixels of the strawberry are known, their
+     * outline is used directly, otherwise the strawberry is separated from the background first.
+     *
+     * @param bitmap the strawberry segment image.
+     * @param mask   the pixels of the strawberry in the image, or null.
+     *
+     * @return the roundness of the strawberry.
+     */
+    public double calculateRoundness(Bitmap bitmap, SegmentMask mask) {
+        if (mask != null && mask.getWidth() == bitmap.getWidth() && mask.getHeight() == bitmap.getHeight()) {
+            return calculateRoundness(mask.toMat());
+        }
 
         Mat image = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
         Utils.bitmapToMat(bitmap, image);
@@ -36,7 +53,17 @@ public class RoundnessCalculator {
         // Apply threshold to create a binary image
         Mat binaryImage = new Mat();
         Imgproc.threshold(grayImage, binaryImage, 0, 255, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
+        return calculateRoundness(binaryImage);
+    }
 
+    /**
+     * Determines the roundness of the largest segment in a binary image.
+     *
+     * @param binaryImage the binary image, in which the strawberry is white.
+     *
+     * @return the roundness of the strawberry.
+     */
+    private double calculateRoundness(Mat binaryImage) {
         // Find contours in the binary image
         List<MatOfPoint> contours = new ArrayList<>();
         Mat hierarchy = new Mat();
@@ -2,11 +2,13 @@ package com.example.fruitqualityprediction.sbprocessing.marketability;
 
 import android.graphics.Bitmap;
 import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfDouble;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 /**
@@ -22,6 +24,19 @@ public class SmoothnessCalculator {
      * @return the smoothness of the strawberry.
      */
     public double calculateSmoothness(Bitmap bitmap) {
+        return calculateSmoothness(bitmap, null);
+    }
+
+    /**
+     * Determines the smoothness of a strawberry. If the pixels of the strawberry are known, only
+     * the gradients inside the strawberry are used, so the background and its outline do not count.
+     *
+     * @param bitmap the strawberry segment image.
+     * @param mask   the pixels of the strawberry in the image, or null.
+     *
+     * @return the smoothness of the strawberry.
+     */
+    public double calculateSmoothness(Bitmap bitmap, SegmentMask mask) {
 
         // Load the image
         Mat image = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
@@ -48,7 +63,17 @@ public class SmoothnessCalculator {
         // Calculate the mean and standard deviation of the gradient magnitude
         MatOfDouble mean = new MatOfDouble();
         MatOfDouble standardDeviation = new MatOfDouble();
-        Core.meanStdDev(gradientMagnitude, mean, standardDeviation);
+        Mat inside = null;
+        if (mask != null && mask.getWidth() == bitmap.getWidth() && mask.getHeight() == bitmap.getHeight()) {
+            // The Sobel kernels reach one pixel out, so the outline is left out as well
+            inside = new Mat();
+            Imgproc.erode(mask.toMat(), inside, Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3)));
+        }
+        if (inside != null && Core.countNonZero(inside) > 0) {
+            Core.meanStdDev(gradientMagnitude, mean, standardDeviation, inside);
+        } else {
+            Core.meanStdDev(gradientMagnitude, mean, standardDeviation);
+        }
 
         double variance = Math.pow(standardDeviation.get(0, 0)[0], 2);
 
@@ -2,6 +2,7 @@ package com.example.fruitqualityprediction.sbprocessing.ripeness;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
@@ -47,6 +48,28 @@ public class RipenessCalculator {
      * @return the ripeness score.
      */
     public double calculateRipeness(Bitmap image) {
+        return calculateRipeness(image, null);
+    }
+
+    /**
+     * This function calculates the ripeness for a segment of a strawberry. If the pixels of the
+     * strawberry are known, the mean color of all of them is used, otherwise that of a patch in the
+     * center of the image. A mask that was selected by color is not used, as it leaves out the
+     * unripe parts of the strawberry and would always make it look ripe.
+     *
+     * @param image the image of a strawberry of which to calculate the ripeness.
+     * @param mask  the pixels of the strawberry in the image, or null.
+     *
+     * @return the ripeness score.
+     */
+    public double calculateRipeness(Bitmap image, SegmentMask mask) {
+        if (mask != null && !mask.isColorDerived() && mask.getWidth() == image.getWidth() && mask.getHeight() == image.getHeight()
+                && mask.getArea() > 0) {
+            double[] rgbMeans = calculateMaskedMeans(image, mask);
+            double[] labValues = rgbToLab(rgbMeans[0], rgbMeans[1], rgbMeans[2]);
+            return calculateRipenessFromRedness(labValues[1], labValues[0]);
+        }
+
         // Get the starting width and height of the input image
         int h = image.getHeight();
         int w = image.getWidth();
@@ -96,6 +119,32 @@ public class RipenessCalculator {
         return calculateRipenessFromRedness(redness, lightness);
     }
 
+    /**
+     * Computes the mean color of the pixels of a strawberry.
+     *
+     * @param image the image of the strawberry.
+     * @param mask  the pixels of the strawberry in the image, of the same size as the image.
+     *
+     * @return the mean red, green and blue values.
+     */
+    private static double[] calculateMaskedMeans(Bitmap image, SegmentMask mask) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        double[] rgbSums = new double[3];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if (mask.contains(x, y)) {
+                    rgbSums[0] += Color.red(row[x]);
+                    rgbSums[1] += Color.green(row[x]);
+                    rgbSums[2] += Color.blue(row[x]);
+                }
+            }
+        }
+        int area = mask.getArea();
+        return new double[] {rgbSums[0] / area, rgbSums[1] / area, rgbSums[2] / area};
+    }
+
     /**
      * This method computes the score of ripeness, which starts at 0 meaning very little ripeness,
      * going up to 1, which means fully ripe.
@@ -0,0 +1,42 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.Mat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Detects strawberries in an image without blocking the caller, such as a detector that waits for
+ * a server. The caller can do other work, or send the next frame, while the detection runs.
+ */
+public interface AsyncStrawberryDetector extends StrawberryDetector {
+    /**
+     * Starts finding the bounding boxes of the strawberries in an image. The image must not be
+     * changed until the detection is done.
+     *
+     * @param image the input image.
+     *
+     * @return the future list of bounding boxes, which fails if the detection failed.
+     */
+    CompletableFuture<List<StrawberrySegment>> detectStrawberriesAsync(Mat image);
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image, waiting for the detection.
+     *
+     * @param image the input image.
+     *
+     * @return the list of bounding boxes, or an empty list if the detection failed.
+     */
+    @Override
+    default List<StrawberrySegment> detectStrawberries(Mat image) {
+        try {
+            return detectStrawberriesAsync(image).get();
+        } catch (ExecutionException e) {
+            return new ArrayList<>();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Skips detection for images that were detected recently, such as a photo that is processed again.
+ * With an exact cache, images are compared by a checksum of all their pixels. With a near-duplicate
+ * cache, they are compared by the difference hash of a 9 by 8 grayscale thumbnail, which takes
+ * microseconds and does not change with small amounts of noise, compression or scaling, but also
+ * not when a few strawberries move. Failed detections are never remembered, so the next image is
+ * detected again.
+ */
+public class CachingStrawberryDetector implements StrawberryDetector {
+
+    private static final int HASH_WIDTH = 9; // The width of the hashed thumbnail.
+    private static final int HASH_HEIGHT = 8; // The height of the hashed thumbnail.
+
+    private final StrawberryDetector detector; // The detector of images that are not cached.
+    private final DetectionCache cache; // The detections of recent images.
+
+    /**
+     * Creates a caching detector with a cache of its own.
+     *
+     * @param detector the detector of images that are not cached.
+     */
+    public CachingStrawberryDetector(StrawberryDetector detector) {
+        this(detector, new DetectionCache());
+    }
+
+    /**
+     * Creates a caching detector.
+     *
+     * @param detector the detector of images that are not cached.
+     * @param cache    the detections of recent images, which must all come from an equivalent
+     *                 detector.
+     */
+    public CachingStrawberryDetector(StrawberryDetector detector, DetectionCache cache) {
+        this.detector = detector;
+        this.cache = cache;
+    }
+
+    /**
+     * A getter for the detector of images that are not cached.
+     *
+     * @return the detector.
+     */
+    public StrawberryDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * A getter for the detections of recent images.
+     *
+     * @return the cache.
+     */
+    public DetectionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image, or returns those of the same,
+     * or with a near-duplicate cache a similar, recent image.
+     *
+     * @param image the RGB or RGBA input image.
+     *
+     * @return the list of bounding boxes.
+     */
+    @Override
+    public List<StrawberrySegment> detectStrawberries(Mat image) {
+        long hash = cache.getMaxDistance() == 0 ? checksum(image) : hash(image);
+        return detectStrawberries(hash, image.width(), image.height(), image);
+    }
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image whose hash is known. Asynchronous
+     * detectors report a failed detection through their future, instead of the empty list they
+     * return otherwise, so it can be told apart from an image without strawberries.
+     *
+     * @param hash   the checksum or perceptual hash of the image.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @param image  the RGB or RGBA input image.
+     *
+     * @return the list of bounding boxes, or an empty list if the detection failed.
+     */
+    List<StrawberrySegment> detectStrawberries(long hash, int width, int height, Mat image) {
+        List<StrawberrySegment> strawberries = cache.get(hash, width, height);
+        if (strawberries != null) {
+            return strawberries;
+        }
+        if (detector instanceof AsyncStrawberryDetector) {
+            try {
+                strawberries = ((AsyncStrawberryDetector) detector).detectStrawberriesAsync(image).get();
+            } catch (ExecutionException e) {
+                return new ArrayList<>();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
+            }
+        } else {
+            strawberries = detector.detectStrawberries(image);
+        }
+        cache.put(hash, width, height, strawberries);
+        return strawberries;
+    }
+
+    /**
+     * Computes a checksum of all pixels of an image, row by row so the image is not copied.
+     *
+     * @param image the 8-bit image.
+     *
+     * @return the 64-bit checksum, as computed by {@link #checksum(byte[])} for the same pixels.
+     */
+    static long checksum(Mat image) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        byte[] row = new byte[image.width() * image.channels()];
+        for (int y = 0; y < image.height(); y++) {
+            image.get(y, 0, row);
+            crc.update(row);
+            adler.update(row);
+        }
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    /**
+     * Computes a checksum of pixels, from two independent 32-bit checksums.
+     *
+     * @param pixels the pixels row by row.
+     *
+     * @return the 64-bit checksum.
+     */
+    static long checksum(byte[] pixels) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        crc.update(pixels);
+        adler.update(pixels);
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    /**
+     * Computes the difference hash of an image.
+     *
+     * @param image the RGB or RGBA image.
+     *
+     * @return the 64-bit hash.
+     */
+    static long hash(Mat image) {
+        Mat thumbnail = new Mat();
+        Imgproc.resize(image, thumbnail, new Size(HASH_WIDTH, HASH_HEIGHT), 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(thumbnail, thumbnail, image.channels() == 4 ? Imgproc.COLOR_RGBA2GRAY : Imgproc.COLOR_RGB2GRAY);
+        byte[] pixels = new byte[HASH_WIDTH * HASH_HEIGHT];
+        thumbnail.get(0, 0, pixels);
+        return differenceHash(pixels);
+    }
+
+    /**
+     * Computes the difference hash of a 9 by 8 grayscale thumbnail, with one bit per pair of
+     * horizontal neighbours that is set if the left pixel is brighter.
+     *
+     * @param pixels the thumbnail row by row.
+     *
+     * @return the 64-bit hash.
+     */
+    static long differenceHash(byte[] pixels) {
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int left = pixels[y * HASH_WIDTH + x] & 0xFF;
+                int right = pixels[y * HASH_WIDTH + x + 1] & 0xFF;
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.Rect;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the detections of recent images by their hash, so that a repeated image does not have
+ * to be detected again. By default only the same image, with the same size and content checksum,
+ * reuses detections, since similar photos of a greenhouse row have strawberries in other places.
+ * With a larger distance, nearly identical images of about the same aspect ratio are matched by
+ * their perceptual hash instead. The least recently used images are evicted when the estimated
+ * memory use exceeds the budget.
+ */
+public class DetectionCache {
+
+    public static final long DEFAULT_BUDGET = 1 << 20; // The default memory budget in bytes.
+    public static final int DEFAULT_MAX_DISTANCE = 0; // The default number of differing hash bits of a near-duplicate, so only exact matches.
+    public static final int NEAR_DUPLICATE_DISTANCE = 4; // The number of differing hash bits of a photo of the same scene, such as a retake.
+
+    private static final int ENTRY_BYTES = 96; // The estimated memory use of an entry without segments.
+    private static final int SEGMENT_BYTES = 64; // The estimated memory use of a segment without mask.
+    private static final double MAX_ASPECT_DIFFERENCE = 0.02; // The relative aspect ratio difference of a near-duplicate.
+
+    /**
+     * The detections of an image.
+     */
+    private static class Entry {
+
+        private final int width; // The width of the image.
+        private final int height; // The height of the image.
+        private final List<StrawberrySegment> segments; // The detected strawberries.
+        private final long bytes; // The estimated memory use.
+
+        /**
+         * Creates an entry.
+         *
+         * @param width    the width of the image.
+         * @param height   the height of the image.
+         * @param segments the detected strawberries.
+         */
+        private Entry(int width, int height, List<StrawberrySegment> segments) {
+            this.width = width;
+            this.height = height;
+            this.segments = segments;
+            this.bytes = estimateSize(segments);
+        }
+    }
+
+    private final long budget; // The memory budget in bytes.
+    private final int maxDistance; // The number of differing hash bits of a near-duplicate.
+    private final Map<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // The entries by hash, least recently used first.
+    private long size; // The estimated memory use of all entries.
+
+    /**
+     * Creates a cache with the default budget and distance.
+     */
+    public DetectionCache() {
+        this(DEFAULT_BUDGET, DEFAULT_MAX_DISTANCE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget      the memory budget in bytes.
+     * @param maxDistance the number of differing hash bits up to which images are near-duplicates,
+     *                    or 0 to only match the same hash and size.
+     */
+    public DetectionCache(long budget, int maxDistance) {
+        this.budget = budget;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * A getter for the number of differing hash bits of a near-duplicate.
+     *
+     * @return the maximum distance, which is 0 if only exact matches are returned.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Looks up the detections of a near-duplicate image, which are scaled to the size of the image.
+     *
+     * @param hash   the perceptual hash of the image.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     *
+     * @return copies of the detected strawberries, or null if no near-duplicate is known.
+     */
+    public synchronized List<StrawberrySegment> get(long hash, int width, int height) {
+        Long bestHash = null;
+        int bestDistance = maxDistance + 1;
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            int distance = Long.bitCount(entry.getKey() ^ hash);
+            if (distance < bestDistance && matches(entry.getValue(), width, height)) {
+                bestHash = entry.getKey();
+                bestDistance = distance;
+            }
+        }
+        if (bestHash == null) {
+            return null;
+        }
+        Entry entry = entries.get(bestHash);
+        return rescale(entry.segments, entry.width, entry.height, width, height);
+    }
+
+    /**
+     * Remembers the detections of an image.
+     *
+     * @param hash     the perceptual hash of the image.
+     * @param width    the width of the image.
+     * @param height   the height of the image.
+     * @param segments the detected strawberries, which are copied.
+     */
+    public synchronized void put(long hash, int width, int height, List<StrawberrySegment> segments) {
+        Entry entry = new Entry(width, height, rescale(segments, width, height, width, height));
+        if (entry.bytes > budget) {
+            return;
+        }
+        Entry previous = entries.put(hash, entry);
+        size += entry.bytes - (previous == null ? 0 : previous.bytes);
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > budget) {
+            size -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Forgets all detections, for example when the detector changes.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the estimated memory use.
+     *
+     * @return the estimated memory use of all entries in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of remembered images.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Checks whether an entry may be reused for an image of a given size. Exact matches need the
+     * same size, near-duplicates about the same aspect ratio.
+     *
+     * @param entry  the entry.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     *
+     * @return whether the sizes match.
+     */
+    private boolean matches(Entry entry, int width, int height) {
+        if (maxDistance == 0) {
+            return entry.width == width && entry.height == height;
+        }
+        return sameAspect(entry, width, height);
+    }
+
+    /**
+     * Checks whether an entry has the same aspect ratio as an image.
+     *
+     * @param entry  the entry.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     *
+     * @return whether the aspect ratios are nearly equal.
+     */
+    private static boolean sameAspect(Entry entry, int width, int height) {
+        double aspect = (double) width / height;
+        double entryAspect = (double) entry.width / entry.height;
+        return Math.abs(aspect - entryAspect) <= MAX_ASPECT_DIFFERENCE * entryAspect;
+    }
+
+    /**
+     * Copies segments to an image of another size. Masks are only kept if the size is the same,
+     * since they have to match their bounding boxes.
+     *
+     * @param segments   the segments.
+     * @param fromWidth  the width of the image of the segments.
+     * @param fromHeight the height of the image of the segments.
+     * @param toWidth    the width of the new image.
+     * @param toHeight   the height of the new image.
+     *
+     * @return the copied segments.
+     */
+    static List<StrawberrySegment> rescale(List<StrawberrySegment> segments, int fromWidth, int fromHeight,
+                                           int toWidth, int toHeight) {
+        boolean sameSize = fromWidth == toWidth && fromHeight == toHeight;
+        double scaleX = (double) toWidth / fromWidth;
+        double scaleY = (double) toHeight / fromHeight;
+        List<StrawberrySegment> copies = new ArrayList<>();
+        for (StrawberrySegment segment : segments) {
+            Rect box = segment.getBoundingBox();
+            if (sameSize) {
+                copies.add(new StrawberrySegment(box.clone(), segment.getMask()));
+            } else {
+                int left = (int) Math.round(box.x * scaleX);
+                int top = (int) Math.round(box.y * scaleY);
+                int right = (int) Math.round((box.x + box.width) * scaleX);
+                int bottom = (int) Math.round((box.y + box.height) * scaleY);
+                copies.add(new StrawberrySegment(new Rect(left, top, right - left, bottom - top)));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Estimates the memory use of the detections of an image.
+     *
+     * @param segments the detected strawberries.
+     *
+     * @return the estimated memory use in bytes.
+     */
+    static long estimateSize(List<StrawberrySegment> segments) {
+        long bytes = ENTRY_BYTES;
+        for (StrawberrySegment segment : segments) {
+            bytes += SEGMENT_BYTES;
+            if (segment.getMask() != null) {
+                bytes += ((long) segment.getMask().getWidth() * segment.getMask().getHeight() + 7) / 8;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.Mat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps a limited number of frames in flight at an asynchronous detector, so that a frame is on the
+ * wire while the results of the previous frame are processed. When the limit is reached, only the
+ * newest frame waits for a free slot, and the frames it replaces are cancelled. Results that arrive
+ * after the result of a newer frame are stale and are cancelled as well.
+ */
+public class PipelinedStrawberryDetector implements AsyncStrawberryDetector {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2; // The default number of frames that are detected at the same time.
+
+    private final AsyncStrawberryDetector detector; // The detector that the frames are sent to.
+    private final int maxInFlight; // The number of frames that are detected at the same time.
+
+    private int inFlight; // The number of frames that are currently detected.
+    private long nextSequence; // The sequence number of the next frame.
+    private long lastDelivered = -1; // The sequence number of the newest frame whose result was delivered.
+    private Mat waitingImage; // The newest frame that waits for a free slot, or null.
+    private long waitingSequence; // The sequence number of the waiting frame.
+    private CompletableFuture<List<StrawberrySegment>> waitingResult; // The result of the waiting frame.
+
+    /**
+     * Creates a pipeline with the default number of frames in flight.
+     *
+     * @param detector the detector that the frames are sent to.
+     */
+    public PipelinedStrawberryDetector(AsyncStrawberryDetector detector) {
+        this(detector, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param detector    the detector that the frames are sent to.
+     * @param maxInFlight the number of frames that are detected at the same time.
+     */
+    public PipelinedStrawberryDetector(AsyncStrawberryDetector detector, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one frame must be in flight");
+        }
+        this.detector = detector;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * A getter for the detector that the frames are sent to.
+     *
+     * @return the detector.
+     */
+    public AsyncStrawberryDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * A getter for the number of frames that are detected at the same time.
+     *
+     * @return the number of frames in flight.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sends a frame to the detector, or lets it wait for a free slot in place of an older waiting
+     * frame.
+     *
+     * @param image the input image.
+     *
+     * @return the future list of bounding boxes, which is cancelled if a newer frame supersedes
+     *         this frame.
+     */
+    @Override
+    public CompletableFuture<List<StrawberrySegment>> detectStrawberriesAsync(Mat image) {
+        CompletableFuture<List<StrawberrySegment>> result = new CompletableFuture<>();
+        CompletableFuture<List<StrawberrySegment>> superseded = null;
+        boolean waits;
+        long sequence;
+        synchronized (this) {
+            sequence = nextSequence++;
+            waits = inFlight >= maxInFlight;
+            if (waits) {
+                superseded = waitingResult;
+                waitingImage = image;
+                waitingSequence = sequence;
+                waitingResult = result;
+            } else {
+                inFlight++;
+            }
+        }
+
+        if (superseded != null) {
+            superseded.cancel(false);
+        }
+        if (!waits) {
+            start(image, sequence, result);
+        }
+        return result;
+    }
+
+    /**
+     * Sends a frame to the detector. Its slot must already be taken.
+     *
+     * @param image    the frame.
+     * @param sequence the sequence number of the frame.
+     * @param result   the result of the frame.
+     */
+    private void start(Mat image, long sequence, CompletableFuture<List<StrawberrySegment>> result) {
+        CompletableFuture<List<StrawberrySegment>> detection;
+        try {
+            detection = detector.detectStrawberriesAsync(image);
+        } catch (RuntimeException e) {
+            detection = CompletableFuture.failedFuture(e);
+        }
+        detection.whenComplete((segments, error) -> finish(sequence, result, segments, error));
+    }
+
+    /**
+     * Delivers the result of a frame and sends the waiting frame, if any, in its slot.
+     *
+     * @param sequence the sequence number of the frame.
+     * @param result   the result of the frame.
+     * @param segments the detected strawberries, or null if the detection failed.
+     * @param error    the reason the detection failed, or null.
+     */
+    private void finish(long sequence, CompletableFuture<List<StrawberrySegment>> result,
+                        List<StrawberrySegment> segments, Throwable error) {
+        boolean stale;
+        Mat nextImage;
+        long nextImageSequence;
+        CompletableFuture<List<StrawberrySegment>> nextResult;
+        synchronized (this) {
+            stale = sequence < lastDelivered;
+            if (!stale && error == null) {
+                lastDelivered = sequence;
+            }
+            // The slot passes straight to the waiting frame
+            nextImage = waitingImage;
+            nextImageSequence = waitingSequence;
+            nextResult = waitingResult;
+            waitingImage = null;
+            waitingResult = null;
+            if (nextResult == null) {
+                inFlight--;
+            }
+        }
+
+        if (stale) {
+            result.cancel(false);
+        } else if (error != null) {
+            result.completeExceptionally(error);
+        } else {
+            result.complete(segments);
+        }
+        if (nextResult != null) {
+            start(nextImage, nextImageSequence, nextResult);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The pixels of a strawberry inside its bounding box, packed into one bit per pixel. Detectors that
+ * know the exact shape of a strawberry attach it to the segment, so the calculators only look at
+ * fruit pixels instead of segmenting the crop again.
+ */
+public class SegmentMask implements Serializable {
+
+    private final int width; // The width of the mask, which is the width of the bounding box.
+    private final int height; // The height of the mask, which is the height of the bounding box.
+    private final long[] bits; // The pixels row by row, one bit per pixel, set for fruit pixels.
+    private final boolean colorDerived; // Whether the pixels were selected by their color.
+
+    /**
+     * Creates a mask from packed pixels.
+     *
+     * @param width  the width of the mask.
+     * @param height the height of the mask.
+     * @param bits         the pixels row by row, one bit per pixel.
+     * @param colorDerived whether the pixels were selected by their color.
+     */
+    private SegmentMask(int width, int height, long[] bits, boolean colorDerived) {
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+        this.colorDerived = colorDerived;
+    }
+
+    /**
+     * Creates a mask from one byte per pixel.
+     *
+     * @param pixels the pixels row by row, where every non-zero pixel belongs to the strawberry.
+     * @param width  the width of the mask.
+     * @param height the height of the mask.
+     *
+     * @return the mask.
+     */
+    public static SegmentMask fromPixels(byte[] pixels, int width, int height) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + pixels.length);
+        }
+        long[] bits = new long[(pixels.length + 63) / 64];
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] != 0) {
+                bits[i >> 6] |= 1L << i;
+            }
+        }
+        return new SegmentMask(width, height, bits, false);
+    }
+
+    /**
+     * Creates a mask from a binary image.
+     *
+     * @param mask the 8-bit single channel image, where every non-zero pixel belongs to the
+     *             strawberry.
+     *
+     * @return the mask.
+     */
+    public static SegmentMask fromMat(Mat mask) {
+        if (mask.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Expected an 8-bit single channel mask");
+        }
+        Mat continuous = mask.isContinuous() ? mask : mask.clone();
+        byte[] pixels = new byte[(int) continuous.total()];
+        continuous.get(0, 0, pixels);
+        return fromPixels(pixels, mask.cols(), mask.rows());
+    }
+
+    /**
+     * A getter for the width.
+     *
+     * @return the width of the mask.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * A getter for the height.
+     *
+     * @return the height of the mask.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Whether the pixels were selected by their color, such as by the color segmentation. Such a
+     * mask leaves out the parts of the strawberry that do not have the expected color, for example
+     * green shoulders, so it should not be used to measure the color of the strawberry.
+     *
+     * @return whether the mask is derived from the color of the pixels.
+     */
+    public boolean isColorDerived() {
+        return colorDerived;
+    }
+
+    /**
+     * Marks the mask as selected by the color of the pixels.
+     *
+     * @return the same pixels, marked as derived from their color.
+     */
+    public SegmentMask asColorDerived() {
+        return colorDerived ? this : new SegmentMask(width, height, bits, true);
+    }
+
+    /**
+     * Checks whether a pixel belongs to the strawberry.
+     *
+     * @param x the column of the pixel.
+     * @param y the row of the pixel.
+     *
+     * @return whether the pixel belongs to the strawberry.
+     */
+    public boolean contains(int x, int y) {
+        int i = y * width + x;
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Counts the pixels of the strawberry.
+     *
+     * @return the area of the strawberry in pixels.
+     */
+    public int getArea() {
+        int area = 0;
+        for (long word : bits) {
+            area += Long.bitCount(word);
+        }
+        return area;
+    }
+
+    /**
+     * Cuts out a part of the mask, for example when the bounding box is clipped to the image.
+     *
+     * @param x      the first column of the part.
+     * @param y      the first row of the part.
+     * @param width  the width of the part.
+     * @param height the height of the part.
+     *
+     * @return the part of the mask.
+     */
+    public SegmentMask crop(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height) {
+            throw new IllegalArgumentException("Crop outside of the mask");
+        }
+        byte[] pixels = new byte[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                pixels[row * width + column] = contains(x + column, y + row) ? (byte) 255 : 0;
+            }
+        }
+        SegmentMask part = fromPixels(pixels, width, height);
+        return colorDerived ? part.asColorDerived() : part;
+    }
+
+    /**
+     * Scales the mask to another size with nearest-neighbour sampling, for example when the bounding
+     * box is scaled.
+     *
+     * @param width  the new width.
+     * @param height the new height.
+     *
+     * @return the scaled mask.
+     */
+    public SegmentMask resize(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid mask size " + width + "x" + height);
+        }
+        byte[] pixels = new byte[width * height];
+        for (int row = 0; row < height; row++) {
+            int sourceRow = (int) ((row + 0.5) * this.height / height);
+            for (int column = 0; column < width; column++) {
+                int sourceColumn = (int) ((column + 0.5) * this.width / width);
+                pixels[row * width + column] = contains(sourceColumn, sourceRow) ? (byte) 255 : 0;
+            }
+        }
+        SegmentMask part = fromPixels(pixels, width, height);
+        return colorDerived ? part.asColorDerived() : part;
+    }
+
+    /**
+     * Unpacks the mask to one byte per pixel.
+     *
+     * @return the pixels row by row, 255 for the strawberry and 0 elsewhere.
+     */
+    public byte[] toPixels() {
+        byte[] pixels = new byte[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            if ((bits[i >> 6] & (1L << i)) != 0) {
+                pixels[i] = (byte) 255;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Unpacks the mask to a binary image.
+     *
+     * @return the 8-bit single channel image, 255 for the strawberry and 0 elsewhere.
+     */
+    public Mat toMat() {
+        Mat mask = new Mat(height, width, CvType.CV_8UC1);
+        mask.put(0, 0, toPixels());
+        return mask;
+    }
+
+    /**
+     * Whether two masks are equal.
+     *
+     * @param o the other mask to compare against.
+     *
+     * @return whether the masks have the same size, pixels and origin.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SegmentMask mask = (SegmentMask) o;
+        return width == mask.width && height == mask.height && colorDerived == mask.colorDerived
+                && Arrays.equals(bits, mask.bits);
+    }
+
+    /**
+     * Generates a hash code for this mask.
+     *
+     * @return an integer hash code.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * width + height) + Boolean.hashCode(colorDerived)) + Arrays.hashCode(bits);
+    }
+}
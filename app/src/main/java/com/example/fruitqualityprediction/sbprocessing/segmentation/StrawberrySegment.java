@@ -11,6 +11,7 @@ import java.util.Objects;
 public class StrawberrySegment implements Serializable {
 
     private final Rect boundingBox; // The bounding box of this segment.
+    private SegmentMask mask; // The pixels of the strawberry inside the bounding box, if the detector knows them.
 
     private transient  Bitmap bitmap; // The bitmap of this segment.
     private Double ripeness; // The ripeness of this segment.
@@ -29,6 +30,17 @@ public class StrawberrySegment implements Serializable {
         this.boundingBox = boundingBox;
     }
 
+    /**
+     * A constructor that creates a new strawberry segment with an instance mask.
+     *
+     * @param boundingBox the bounding box of the segment.
+     * @param mask        the pixels of the strawberry inside the bounding box, or null.
+     */
+    public StrawberrySegment(Rect boundingBox, SegmentMask mask) {
+        this.boundingBox = boundingBox;
+        this.mask = mask;
+    }
+
     /**
      * A getter for the strawberry image.
      *
@@ -56,6 +68,24 @@ public class StrawberrySegment implements Serializable {
         return boundingBox;
     }
 
+    /**
+     * A getter for the instance mask.
+     *
+     * @return the pixels of the strawberry inside the bounding box, or null if they are unknown.
+     */
+    public SegmentMask getMask() {
+        return mask;
+    }
+
+    /**
+     * A setter for the instance mask.
+     *
+     * @param mask the pixels of the strawberry inside the bounding box, or null.
+     */
+    public void setMask(SegmentMask mask) {
+        this.mask = mask;
+    }
+
     /**
      * A getter for the ripeness value.
      *
@@ -194,6 +224,7 @@ public class StrawberrySegment implements Serializable {
         if (o == null || getClass() != o.getClass()) return false;
         StrawberrySegment segment = (StrawberrySegment) o;
         return Objects.equals(boundingBox, segment.boundingBox) &&
+                Objects.equals(mask, segment.mask) &&
                 Objects.equals(bitmap, segment.bitmap) &&
                 Objects.equals(ripeness, segment.ripeness) &&
                 Objects.equals(brix, segment.brix) &&
@@ -210,6 +241,6 @@ public class StrawberrySegment implements Serializable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(boundingBox, bitmap, ripeness, brix, firmness, roundness, marketability, smoothness);
+        return Objects.hash(boundingBox, mask, bitmap, ripeness, brix, firmness, roundness, marketability, smoothness);
     }
 }
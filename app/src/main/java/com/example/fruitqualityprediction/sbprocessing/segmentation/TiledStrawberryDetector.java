@@ -0,0 +1,242 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Detects strawberries in large images by splitting them into overlapping tiles, which are processed
+ * in parallel by another detector. Strawberries that lie on the seam between two tiles are found in
+ * both, so overlapping boxes are merged afterwards.
+ */
+public class TiledStrawberryDetector implements StrawberryDetector {
+
+    public static final int DEFAULT_TILE_SIDE = 1024; // The default size of a tile.
+    public static final int DEFAULT_OVERLAP = 256; // The default overlap of neighbouring tiles.
+    public static final double DEFAULT_IOU_THRESHOLD = 0.5; // The default intersection over union above which boxes are merged.
+
+    private static final double CONTAINMENT_THRESHOLD = 0.8; // The part of a box inside another above which they are merged.
+
+    private final StrawberryDetector detector; // The detector that processes the tiles.
+    private final int tileSide; // The largest size of a tile.
+    private final int overlap; // The number of pixels neighbouring tiles share.
+    private final double iouThreshold; // The intersection over union above which boxes are merged.
+    private final ForkJoinPool pool; // The pool the tiles are processed on.
+
+    /**
+     * Creates a new tiled detector with the default tiles on the common pool.
+     *
+     * @param detector the detector that processes the tiles, which has to be thread-safe.
+     */
+    public TiledStrawberryDetector(StrawberryDetector detector) {
+        this(detector, DEFAULT_TILE_SIDE, DEFAULT_OVERLAP, DEFAULT_IOU_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new tiled detector.
+     *
+     * @param detector     the detector that processes the tiles, which has to be thread-safe.
+     * @param tileSide     the largest size of a tile.
+     * @param overlap      the number of pixels neighbouring tiles share. Strawberries smaller than the
+     *                     overlap are always completely inside at least one tile.
+     * @param iouThreshold the intersection over union above which boxes are merged.
+     * @param pool         the pool the tiles are processed on.
+     */
+    public TiledStrawberryDetector(StrawberryDetector detector, int tileSide, int overlap, double iouThreshold,
+                                   ForkJoinPool pool) {
+        if (overlap < 0 || overlap >= tileSide) {
+            throw new IllegalArgumentException("Invalid overlap " + overlap + " for tiles of " + tileSide);
+        }
+        this.detector = detector;
+        this.tileSide = tileSide;
+        this.overlap = overlap;
+        this.iouThreshold = iouThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * A getter for the detector that processes the tiles.
+     *
+     * @return the detector that processes the tiles.
+     */
+    public StrawberryDetector getDetector() {
+        return detector;
+    }
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image, tile by tile.
+     *
+     * @param image the input image.
+     *
+     * @return the list of bounding boxes, in the coordinates of the image.
+     */
+    @Override
+    public List<StrawberrySegment> detectStrawberries(Mat image) {
+        if (image.width() <= tileSide && image.height() <= tileSide) {
+            return detector.detectStrawberries(image);
+        }
+
+        List<Rect> tiles = new ArrayList<>();
+        for (int y : tileOffsets(image.height(), tileSide, overlap)) {
+            for (int x : tileOffsets(image.width(), tileSide, overlap)) {
+                tiles.add(new Rect(x, y, Math.min(tileSide, image.width() - x), Math.min(tileSide, image.height() - y)));
+            }
+        }
+        List<StrawberrySegment> detections = pool.invoke(new TileTask(image, tiles, 0, tiles.size()));
+        List<Rect> boxes = new ArrayList<>();
+        for (StrawberrySegment detection : detections) {
+            boxes.add(detection.getBoundingBox());
+        }
+
+        // A box that was not widened by merging keeps the mask of its detection
+        List<StrawberrySegment> strawberries = new ArrayList<>();
+        for (Rect box : mergeBoxes(boxes, iouThreshold)) {
+            SegmentMask mask = null;
+            for (StrawberrySegment detection : detections) {
+                if (detection.getBoundingBox().equals(box)) {
+                    mask = detection.getMask();
+                    break;
+                }
+            }
+            strawberries.add(new StrawberrySegment(box, mask));
+        }
+        return strawberries;
+    }
+
+    /**
+     * Computes where the tiles along one side of the image start. The tiles are spread evenly, and
+     * the last tile ends at the edge of the image.
+     *
+     * @param length   the length of the side of the image.
+     * @param tileSide the largest size of a tile.
+     * @param overlap  the minimum number of pixels neighbouring tiles share.
+     *
+     * @return the offsets of the tiles.
+     */
+    static int[] tileOffsets(int length, int tileSide, int overlap) {
+        if (length <= tileSide) {
+            return new int[] {0};
+        }
+        int step = tileSide - overlap;
+        int count = (length - overlap + step - 1) / step;
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = (int) ((long) i * (length - tileSide) / (count - 1));
+        }
+        return offsets;
+    }
+
+    /**
+     * Merges boxes that are detections of the same strawberry, replacing them with the box around
+     * both. Boxes are merged if their intersection over union is large enough, or if one is mostly
+     * inside the other, as happens when a tile only contains part of a strawberry.
+     *
+     * @param boxes        the boxes to merge.
+     * @param iouThreshold the intersection over union above which boxes are merged.
+     *
+     * @return the merged boxes.
+     */
+    static List<Rect> mergeBoxes(List<Rect> boxes, double iouThreshold) {
+        List<Rect> merged = new ArrayList<>(boxes);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && !changed; i++) {
+                for (int j = i + 1; j < merged.size(); j++) {
+                    Rect a = merged.get(i), b = merged.get(j);
+                    double intersection = intersectionArea(a, b);
+                    if (intersection > 0 && (intersection / (a.area() + b.area() - intersection) >= iouThreshold
+                            || intersection / Math.min(a.area(), b.area()) >= CONTAINMENT_THRESHOLD)) {
+                        merged.set(i, union(a, b));
+                        merged.remove(j);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Computes the area two boxes have in common.
+     *
+     * @param a the first box.
+     * @param b the second box.
+     *
+     * @return the area of the intersection.
+     */
+    private static double intersectionArea(Rect a, Rect b) {
+        double width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        double height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    /**
+     * Computes the smallest box around two boxes.
+     *
+     * @param a the first box.
+     * @param b the second box.
+     *
+     * @return the box around both boxes.
+     */
+    private static Rect union(Rect a, Rect b) {
+        int x = Math.min(a.x, b.x);
+        int y = Math.min(a.y, b.y);
+        return new Rect(x, y, Math.max(a.x + a.width, b.x + b.width) - x, Math.max(a.y + a.height, b.y + b.height) - y);
+    }
+
+    /**
+     * Detects the strawberries in a range of tiles, splitting the range until a single tile is left.
+     */
+    private class TileTask extends RecursiveTask<List<StrawberrySegment>> {
+
+        private final Mat image; // The full image.
+        private final List<Rect> tiles; // All tiles of the image.
+        private final int start; // The first tile of this task.
+        private final int end; // The end of the tiles of this task.
+
+        /**
+         * Creates a task for a range of tiles.
+         *
+         * @param image the full image.
+         * @param tiles all tiles of the image.
+         * @param start the first tile of this task.
+         * @param end   the end of the tiles of this task.
+         */
+        TileTask(Mat image, List<Rect> tiles, int start, int end) {
+            this.image = image;
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Detects the strawberries in the tiles of this task.
+         *
+         * @return the strawberries, in the coordinates of the full image.
+         */
+        @Override
+        protected List<StrawberrySegment> compute() {
+            if (end - start > 1) {
+                int middle = (start + end) / 2;
+                TileTask first = new TileTask(image, tiles, start, middle);
+                first.fork();
+                List<StrawberrySegment> strawberries = new TileTask(image, tiles, middle, end).compute();
+                strawberries.addAll(first.join());
+                return strawberries;
+            }
+
+            Rect tile = tiles.get(start);
+            List<StrawberrySegment> strawberries = new ArrayList<>();
+            for (StrawberrySegment segment : detector.detectStrawberries(image.submat(tile))) {
+                Rect box = segment.getBoundingBox();
+                strawberries.add(new StrawberrySegment(new Rect(box.x + tile.x, box.y + tile.y, box.width, box.height), segment.getMask()));
+            }
+            return strawberries;
+        }
+    }
+}
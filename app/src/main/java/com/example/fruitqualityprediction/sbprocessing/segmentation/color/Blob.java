@@ -0,0 +1,100 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.color;
+
+import org.opencv.core.Rect;
+
+/**
+ * A connected region of foreground pixels in a binary mask.
+ */
+public class Blob {
+
+    private final Rect boundingBox; // The bounding box of the blob.
+    private final double area; // The number of pixels in the blob.
+    private final int label; // The label of the blob in the label image it was found in.
+
+    /**
+     * Creates a new blob.
+     *
+     * @param boundingBox the bounding box of the blob.
+     * @param area        the number of pixels in the blob.
+     */
+    public Blob(Rect boundingBox, double area) {
+        this(boundingBox, area, 0);
+    }
+
+    /**
+     * Creates a new blob with a label.
+     *
+     * @param boundingBox the bounding box of the blob.
+     * @param area        the number of pixels in the blob.
+     * @param label       the label of the blob in the label image it was found in.
+     */
+    public Blob(Rect boundingBox, double area, int label) {
+        this.boundingBox = boundingBox;
+        this.area = area;
+        this.label = label;
+    }
+
+    /**
+     * A getter for the bounding box.
+     *
+     * @return the bounding box of the blob in the mask.
+     */
+    public Rect getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * A getter for the area.
+     *
+     * @return the number of pixels in the blob.
+     */
+    public double getArea() {
+        return area;
+    }
+
+    /**
+     * A getter for the label.
+     *
+     * @return the label of the blob in the label image it was found in.
+     */
+    public int getLabel() {
+        return label;
+    }
+
+    /**
+     * Computes the shape ratio.
+     *
+     * @return the height of the bounding box divided by its width.
+     */
+    public double getRatio() {
+        return (double) boundingBox.height / boundingBox.width;
+    }
+
+    /**
+     * Computes the fill ratio.
+     *
+     * @return the part of the bounding box that is covered by the blob.
+     */
+    public double getFillRatio() {
+        return area / boundingBox.area();
+    }
+
+    /**
+     * Maps the blob to an image with a different resolution. The bounding box is widened to whole
+     * pixels of the target image and clipped to its borders.
+     *
+     * @param scaleX the target width divided by the width of the mask the blob was found in.
+     * @param scaleY the target height divided by the height of the mask the blob was found in.
+     * @param width  the width of the target image.
+     * @param height the height of the target image.
+     *
+     * @return the blob in the coordinates of the target image.
+     */
+    public Blob scale(double scaleX, double scaleY, int width, int height) {
+        int left = Math.max((int) Math.floor(boundingBox.x * scaleX), 0);
+        int top = Math.max((int) Math.floor(boundingBox.y * scaleY), 0);
+        int right = Math.min((int) Math.ceil((boundingBox.x + boundingBox.width) * scaleX), width);
+        int bottom = Math.min((int) Math.ceil((boundingBox.y + boundingBox.height) * scaleY), height);
+        return new Blob(new Rect(left, top, right - left, bottom - top), area * scaleX * scaleY, label);
+    }
+}
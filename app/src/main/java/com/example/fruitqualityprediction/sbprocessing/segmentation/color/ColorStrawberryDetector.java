@@ -1,12 +1,15 @@
 package com.example.fruitqualityprediction.sbprocessing.segmentation.color;
 
 import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentationUtils;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
@@ -19,11 +22,70 @@ import java.util.List;
  */
 public class ColorStrawberryDetector implements StrawberryDetector {
 
-    private static final int MAX_SIDE = 1024; // The maximum size for a segment.
+    public static final int DEFAULT_WORKING_SIDE = 1024; // The default largest side of the analysed image.
+    public static final int AR_WORKING_SIDE = 512; // The largest side of the analysed image for live camera frames.
+
     private static final double MIN_RATIO = 0.5; // Minimum shape ratio.
     private static final double MAX_RATIO = 1.5; // Maximum shape ratio.
     private static final double MIN_AREA = 10000; // Minimum shape area.
     private static final double MIN_AREA_RATIO = 0.5; // Minimum shape area ratio.
+    private static final int OPEN_KERNEL_SIZE = 30; // The kernel size that removes noise, at the default working resolution.
+    private static final int DILATE_KERNEL_SIZE = 50; // The kernel size that restores segment edges, at the default working resolution.
+    private static final int CLOSE_KERNEL_SIZE = 20; // The kernel size that closes gaps, at the default working resolution.
+    private static final int DECOMPOSED_KERNEL_SIZE = 7; // The largest kernel that is applied directly.
+
+    private final int workingSide; // The largest side of the image the mask is generated and analysed at.
+    private final RedPixelClassifier classifier; // Decides which pixels are red.
+    private Mat redMask; // The red pixels of the last image, reused between calls.
+
+    /**
+     * Creates a new detector that analyses images at the default working resolution.
+     */
+    public ColorStrawberryDetector() {
+        this(DEFAULT_WORKING_SIDE);
+    }
+
+    /**
+     * Creates a new detector that analyses images at the given working resolution. A smaller working
+     * resolution is faster, but misses smaller strawberries and gives coarser bounding boxes.
+     *
+     * @param workingSide the largest side of the image the mask is generated and analysed at.
+     */
+    public ColorStrawberryDetector(int workingSide) {
+        this(workingSide, new RedPixelClassifier());
+    }
+
+    /**
+     * Creates a new detector with a custom working resolution and red pixel classifier.
+     *
+     * @param workingSide the largest side of the image the mask is generated and analysed at.
+     * @param classifier  the classifier that decides which pixels are red.
+     */
+    public ColorStrawberryDetector(int workingSide, RedPixelClassifier classifier) {
+        if (workingSide <= 0) {
+            throw new IllegalArgumentException("Invalid working side " + workingSide);
+        }
+        this.workingSide = workingSide;
+        this.classifier = classifier;
+    }
+
+    /**
+     * A getter for the working resolution.
+     *
+     * @return the largest side of the image the mask is generated and analysed at.
+     */
+    public int getWorkingSide() {
+        return workingSide;
+    }
+
+    /**
+     * A getter for the red pixel classifier.
+     *
+     * @return the classifier that decides which pixels are red.
+     */
+    public RedPixelClassifier getClassifier() {
+        return classifier;
+    }
 
     /**
      * Detects red strawberries in an image using color segmentation.
@@ -34,15 +96,22 @@ public class ColorStrawberryDetector implements StrawberryDetector {
      */
     @Override
     public List<StrawberrySegment> detectStrawberries(Mat image) {
-        Mat resizedImage = SegmentationUtils.resizeImage(image, MAX_SIDE);
+        Mat resizedImage = SegmentationUtils.resizeImage(image, workingSide);
 
-        Mat mask = generateMask(resizedImage);
-        mask = filterMask(mask);
-        return extractStrawberries(image, mask);
+        Mat mask;
+        synchronized (this) {
+            // Filtering copies the reused red pixel mask, so the lock is only held this long
+            mask = filterMask(generateMask(resizedImage));
+        }
+        resizedImage.release();
+        List<StrawberrySegment> strawberries = extractStrawberries(image, mask);
+        mask.release();
+        return strawberries;
     }
 
     /**
-     * Extracts strawberry-shaped segments from an image using a mask.
+     * Extracts strawberry-shaped segments from an image using a mask. The mask is analysed at its own
+     * resolution, which may be lower than that of the image, and the blobs are scaled to the image.
      *
      * @param image the image to extract from.
      * @param mask the mask to apply.
@@ -50,59 +119,160 @@ public class ColorStrawberryDetector implements StrawberryDetector {
      * @return list of cropped strawberries with bounding boxes.
      */
     public List<StrawberrySegment> extractStrawberries(Mat image, Mat mask) {
-        Mat resizedMask = new Mat();
-        Imgproc.resize(mask, resizedMask, new Size(image.width(), image.height()), 0, 0, Imgproc.INTER_AREA);
-        List<Mat> segments = segmentBinaryImage(resizedMask);
+        double scaleX = (double) image.width() / mask.width();
+        double scaleY = (double) image.height() / mask.height();
 
         ArrayList<StrawberrySegment> strawberries = new ArrayList<>();
-        for (Mat segment : segments) {
-            if (Core.sumElems(segment).val[0] == 0) {
-                continue;
-            }
-            MatOfPoint indices = new MatOfPoint();
-            Core.findNonZero(segment, indices);
-            Rect boundingRect = Imgproc.boundingRect(indices);
-            Mat croppedMask = new Mat(segment, boundingRect);
-
-            double height = croppedMask.height(), width = croppedMask.width();
-            double ratio = height / width;
-            double area = Core.sumElems(segment).val[0] / 255;
-
-            if (ratio > MIN_RATIO && ratio < MAX_RATIO && area > MIN_AREA && area > MIN_AREA_RATIO * width * height) {
-                strawberries.add(new StrawberrySegment(boundingRect));
+        Mat labels = new Mat();
+        for (Blob blob : findBlobs(mask, labels)) {
+            Blob scaledBlob = blob.scale(scaleX, scaleY, image.width(), image.height());
+            if (isStrawberryShaped(scaledBlob)) {
+                strawberries.add(new StrawberrySegment(scaledBlob.getBoundingBox(), createMask(labels, blob, scaledBlob)));
             }
         }
+        labels.release();
         Log.d("Number of strawberries: ", String.valueOf(strawberries.size()));
         return strawberries;
     }
 
     /**
-     * Filters out noise from the mask.
+     * Cuts the pixels of a blob out of the label image, scaled to the bounding box in the image.
+     *
+     * @param labels     the label image the blob was found in.
+     * @param blob       the blob in the label image.
+     * @param scaledBlob the blob in the image.
+     *
+     * @return the instance mask of the blob, marked as derived from color.
+     */
+    private static SegmentMask createMask(Mat labels, Blob blob, Blob scaledBlob) {
+        Mat pixels = new Mat();
+        Core.compare(labels.submat(blob.getBoundingBox()), new Scalar(blob.getLabel()), pixels, Core.CMP_EQ);
+        Rect box = scaledBlob.getBoundingBox();
+        if (pixels.width() != box.width || pixels.height() != box.height) {
+            Imgproc.resize(pixels, pixels, new Size(box.width, box.height), 0, 0, Imgproc.INTER_NEAREST);
+        }
+        SegmentMask mask = SegmentMask.fromMat(pixels).asColorDerived();
+        pixels.release();
+        return mask;
+    }
+
+    /**
+     * Whether a blob has the size and shape of a strawberry.
+     *
+     * @param blob the blob.
+     *
+     * @return whether the blob is a strawberry.
+     */
+    public boolean isStrawberryShaped(Blob blob) {
+        double ratio = blob.getRatio();
+        return ratio > MIN_RATIO && ratio < MAX_RATIO && blob.getArea() > MIN_AREA
+                && blob.getFillRatio() > MIN_AREA_RATIO;
+    }
+
+    /**
+     * Filters out noise from the mask. The kernel sizes are scaled with the size of the mask, relative
+     * to the default working resolution. The opening is done with repeated small kernels and the
+     * large dilation at half resolution, which is much cheaper than a single large elliptical kernel.
      *
      * @param inputMask the initial mask as a binary image.
      *
      * @return the filtered mask.
      */
     public Mat filterMask(Mat inputMask) {
+        double scale = (double) Math.max(inputMask.width(), inputMask.height()) / DEFAULT_WORKING_SIDE;
         Mat mask = inputMask.clone();
         Mat mask_reduced = new Mat();
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(30, 30));
-        Imgproc.morphologyEx(mask, mask_reduced, Imgproc.MORPH_OPEN, kernel);
-        kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(50, 50));
-        Imgproc.morphologyEx(mask_reduced, mask_reduced, Imgproc.MORPH_DILATE, kernel);
+        open(mask, mask_reduced, scaleKernelSize(OPEN_KERNEL_SIZE, scale));
+        dilate(mask_reduced, mask_reduced, scaleKernelSize(DILATE_KERNEL_SIZE, scale));
         Core.bitwise_and(mask, mask_reduced, mask);
+        mask_reduced.release();
 
-        kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(20, 20));
+        int closeSize = scaleKernelSize(CLOSE_KERNEL_SIZE, scale);
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(closeSize, closeSize));
         Imgproc.morphologyEx(mask, mask, Imgproc.MORPH_CLOSE, kernel);
 
+        fillHoles(mask);
+        return mask;
+    }
+
+    /**
+     * Scales the size of a kernel to the resolution of the mask.
+     *
+     * @param size  the size of the kernel at the default working resolution.
+     * @param scale the size of the mask relative to the default working resolution.
+     *
+     * @return the scaled kernel size, at least 1.
+     */
+    private static int scaleKernelSize(int size, double scale) {
+        return Math.max((int) Math.round(size * scale), 1);
+    }
+
+    /**
+     * Applies a morphological opening with an elliptical kernel. Large kernels are approximated by
+     * opening with a small kernel repeatedly, which grows roughly as fast.
+     *
+     * @param src  the binary image.
+     * @param dst  the opened image.
+     * @param size the size of the elliptical kernel.
+     */
+    private static void open(Mat src, Mat dst, int size) {
+        int iterations = 1;
+        if (size > DECOMPOSED_KERNEL_SIZE) {
+            iterations = (int) Math.round((double) size / (DECOMPOSED_KERNEL_SIZE - 1));
+            size = DECOMPOSED_KERNEL_SIZE;
+        }
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size, size));
+        Imgproc.morphologyEx(src, dst, Imgproc.MORPH_OPEN, kernel, new Point(-1, -1), iterations);
+    }
+
+    /**
+     * Dilates a binary image with an elliptical kernel. Large kernels are applied to a copy at half
+     * the resolution, with a kernel of half the size, and the result is scaled back up.
+     *
+     * @param src  the binary image.
+     * @param dst  the dilated image.
+     * @param size the size of the elliptical kernel.
+     */
+    private static void dilate(Mat src, Mat dst, int size) {
+        if (size <= 2 * DECOMPOSED_KERNEL_SIZE) {
+            Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size, size));
+            Imgproc.morphologyEx(src, dst, Imgproc.MORPH_DILATE, kernel);
+            return;
+        }
+        Size originalSize = src.size();
+        Mat small = new Mat();
+        Imgproc.resize(src, small, new Size(), 0.5, 0.5, Imgproc.INTER_AREA);
+        // Every pixel that covers a foreground pixel is foreground, so nothing is lost
+        Imgproc.threshold(small, small, 0, 255, Imgproc.THRESH_BINARY);
+        int smallSize = (size + 1) / 2;
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(smallSize, smallSize));
+        Imgproc.morphologyEx(small, small, Imgproc.MORPH_DILATE, kernel);
+        Imgproc.resize(small, dst, originalSize, 0, 0, Imgproc.INTER_NEAREST);
+        small.release();
+    }
+
+    /**
+     * Fills the holes in the segments of a binary image. The image is only drawn on if there are
+     * holes, which is rare after closing.
+     *
+     * @param mask the binary image, which is changed in place.
+     */
+    private static void fillHoles(Mat mask) {
         List<MatOfPoint> contours = new ArrayList<>();
         Mat hierarchy = new Mat();
-        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-        for (int i = 0; i < contours.size(); i++) {
-            Imgproc.drawContours(mask, contours, i, new Scalar(255), Core.FILLED);
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+        if (contours.isEmpty()) {
+            return;
         }
 
-        return mask;
+        // Every hierarchy entry is next, previous, first child and parent, and holes have a parent
+        int[] links = new int[contours.size() * 4];
+        hierarchy.get(0, 0, links);
+        for (int i = 0; i < contours.size(); i++) {
+            if (links[i * 4 + 3] >= 0) {
+                Imgproc.drawContours(mask, contours, i, new Scalar(255), Core.FILLED);
+            }
+        }
     }
 
     /**
@@ -110,50 +280,60 @@ public class ColorStrawberryDetector implements StrawberryDetector {
      *
      * @param image the input image.
      *
-     * @return the corresponding mask.
+     * @return the corresponding mask, which is reused by the next call.
      */
-    public Mat generateMask(Mat image) {
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_RGB2HSV);
-
-        Scalar cmin_low = new Scalar(0, 60, 100);
-        Scalar cmax_low = new Scalar(10, 255, 255);
-
-        Scalar cmin_high = new Scalar(165, 60, 100);
-        Scalar cmax_high = new Scalar(180, 255, 255);
-
-        Mat mask1 = new Mat();
-        Core.inRange(hsv, cmin_low, cmax_low, mask1);
-
-        Mat mask2 = new Mat();
-        Core.inRange(hsv, cmin_high, cmax_high, mask2);
+    public synchronized Mat generateMask(Mat image) {
+        if (redMask == null) {
+            redMask = new Mat();
+        }
+        classifier.classify(image, redMask);
+        return redMask;
+    }
 
-        Mat mask = new Mat();
-        Core.bitwise_or(mask1, mask2, mask);
-        return mask;
+    /**
+     * Finds the disconnected segments of a binary image in a single labelling pass. Pixels of at
+     * least half intensity are foreground, so the edges of a resized mask are counted once.
+     *
+     * @param binaryImage the binary image.
+     *
+     * @return the bounding boxes and areas of all disconnected segments within the image.
+     */
+    public List<Blob> findBlobs(Mat binaryImage) {
+        Mat labels = new Mat();
+        List<Blob> blobs = findBlobs(binaryImage, labels);
+        labels.release();
+        return blobs;
     }
 
     /**
-     * Transforms a binary image into a list of disconnected segments.
+     * Finds the disconnected segments of a binary image, and keeps the label of every pixel.
      *
      * @param binaryImage the binary image.
+     * @param labels      the output label image, in which the pixels of every blob have its label.
      *
-     * @return all disconnected segments within the image as separate images.
+     * @return the bounding boxes, areas and labels of all disconnected segments within the image.
      */
-    public List<Mat> segmentBinaryImage(Mat binaryImage) {
-        Mat img = binaryImage.clone();
-        List<Mat> segments = new ArrayList<>();
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(img, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-        for (int i = 0; i < contours.size(); i++) {
-            Mat segmentMask = Mat.zeros(img.size(), img.type());
-            Imgproc.drawContours(segmentMask, contours, i, new Scalar(255), Core.FILLED);
-            Mat segment = new Mat();
-            Core.bitwise_and(img, segmentMask, segment);
-            Core.bitwise_xor(img, segment, img);
-            segments.add(segment);
+    private List<Blob> findBlobs(Mat binaryImage, Mat labels) {
+        Mat foreground = new Mat();
+        Imgproc.threshold(binaryImage, foreground, 127, 255, Imgproc.THRESH_BINARY);
+        Mat stats = new Mat();
+        Mat centroids = new Mat();
+        int labelCount = Imgproc.connectedComponentsWithStats(foreground, labels, stats, centroids, 8, CvType.CV_32S);
+        foreground.release();
+        centroids.release();
+
+        // Reading all statistics at once, one row of CC_STAT_MAX values per label
+        int[] values = new int[labelCount * Imgproc.CC_STAT_MAX];
+        stats.get(0, 0, values);
+        stats.release();
+
+        List<Blob> blobs = new ArrayList<>(labelCount - 1);
+        for (int label = 1; label < labelCount; label++) {
+            int offset = label * Imgproc.CC_STAT_MAX;
+            Rect boundingBox = new Rect(values[offset + Imgproc.CC_STAT_LEFT], values[offset + Imgproc.CC_STAT_TOP],
+                    values[offset + Imgproc.CC_STAT_WIDTH], values[offset + Imgproc.CC_STAT_HEIGHT]);
+            blobs.add(new Blob(boundingBox, values[offset + Imgproc.CC_STAT_AREA], label));
         }
-        return segments;
+        return blobs;
     }
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.color;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Classifies the pixels of an RGB image as red or not red. A pixel is red if its HSV color is in the
+ * low or the high red hue band and within the saturation and value limits. Images are classified
+ * natively: {@code Imgproc.cvtColor} converts them to HSV, one {@code Core.LUT} pass maps every
+ * channel to 255 if it is within its limits, and {@code Core.inRange} keeps the pixels with all three
+ * channels set. {@link #isRed(int, int, int)} computes the same HSV color for single colors.
+ */
+public class RedPixelClassifier {
+
+    public static final int MAX_HUE = 180; // The largest hue of an 8-bit HSV image.
+    public static final int DEFAULT_LOW_HUE_MAX = 10; // The default upper hue of the low red band.
+    public static final int DEFAULT_HIGH_HUE_MIN = 165; // The default lower hue of the high red band.
+    public static final int DEFAULT_SATURATION_MIN = 60; // The default minimum saturation.
+    public static final int DEFAULT_VALUE_MIN = 100; // The default minimum value.
+
+    private static final int HSV_SHIFT = 12; // The fixed point precision of the OpenCV conversion.
+    private static final int[] SATURATION_DIVISORS = new int[256]; // 255 / v in fixed point.
+    private static final int[] HUE_DIVISORS = new int[256]; // 180 / (6 * diff) in fixed point.
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            SATURATION_DIVISORS[i] = (int) Math.rint((255 << HSV_SHIFT) / (double) i);
+            HUE_DIVISORS[i] = (int) Math.rint((MAX_HUE << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+
+    private final int lowHueMax; // The upper hue of the low red band, which starts at 0.
+    private final int highHueMin; // The lower hue of the high red band, which ends at MAX_HUE.
+    private final int saturationMin; // The minimum saturation.
+    private final int saturationMax; // The maximum saturation.
+    private final int valueMin; // The minimum value.
+    private final int valueMax; // The maximum value.
+    private final boolean[] redHues = new boolean[256]; // Whether a hue is in one of the red bands.
+    private final boolean[] validColors = new boolean[256 * 256]; // Whether a value and max - min have valid saturation and value.
+    private Mat hsv; // The HSV image of the last classified image, reused between calls.
+    private Mat table; // Per HSV channel, 255 for the values within the limits and 0 otherwise.
+
+    /**
+     * Creates a classifier with the default thresholds.
+     */
+    public RedPixelClassifier() {
+        this(DEFAULT_LOW_HUE_MAX, DEFAULT_HIGH_HUE_MIN, DEFAULT_SATURATION_MIN, 255, DEFAULT_VALUE_MIN, 255);
+    }
+
+    /**
+     * Creates a classifier with custom thresholds, for example to calibrate it to the lighting of a
+     * greenhouse. All limits are inclusive.
+     *
+     * @param lowHueMax     the upper hue of the low red band, which starts at 0.
+     * @param highHueMin    the lower hue of the high red band, which ends at 180.
+     * @param saturationMin the minimum saturation, from 0 to 255.
+     * @param saturationMax the maximum saturation, from 0 to 255.
+     * @param valueMin      the minimum value, from 0 to 255.
+     * @param valueMax      the maximum value, from 0 to 255.
+     */
+    public RedPixelClassifier(int lowHueMax, int highHueMin, int saturationMin, int saturationMax,
+                              int valueMin, int valueMax) {
+        checkRange("low hue", 0, lowHueMax, MAX_HUE);
+        checkRange("high hue", highHueMin, MAX_HUE, MAX_HUE);
+        checkRange("saturation", saturationMin, saturationMax, 255);
+        checkRange("value", valueMin, valueMax, 255);
+        this.lowHueMax = lowHueMax;
+        this.highHueMin = highHueMin;
+        this.saturationMin = saturationMin;
+        this.saturationMax = saturationMax;
+        this.valueMin = valueMin;
+        this.valueMax = valueMax;
+
+        for (int hue = 0; hue < redHues.length; hue++) {
+            redHues[hue] = hue <= lowHueMax || (hue >= highHueMin && hue <= MAX_HUE);
+        }
+        for (int value = valueMin; value <= valueMax; value++) {
+            for (int diff = 0; diff <= value; diff++) {
+                int saturation = (diff * SATURATION_DIVISORS[value] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+                validColors[value << 8 | diff] = saturation >= saturationMin && saturation <= saturationMax;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a pair of thresholds is valid.
+     *
+     * @param name the name of the channel.
+     * @param min  the lower threshold.
+     * @param max  the upper threshold.
+     * @param last the largest possible value of the channel.
+     */
+    private static void checkRange(String name, int min, int max, int last) {
+        if (min < 0 || max > last || min > max) {
+            throw new IllegalArgumentException("Invalid " + name + " range " + min + "-" + max);
+        }
+    }
+
+    /**
+     * Classifies every pixel of an image.
+     *
+     * @param image the 8-bit RGB or RGBA image.
+     * @param mask  the output mask, which is reallocated only if it does not have the size of the
+     *              image yet. Red pixels are set to 255, the other pixels to 0.
+     */
+    public synchronized void classify(Mat image, Mat mask) {
+        int channels = image.channels();
+        if (image.depth() != CvType.CV_8U || (channels != 3 && channels != 4)) {
+            throw new IllegalArgumentException("Expected an 8-bit RGB or RGBA image");
+        }
+        if (table == null) {
+            hsv = new Mat();
+            table = createTable();
+        }
+        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_RGB2HSV);
+        Core.LUT(hsv, table, hsv);
+        Core.inRange(hsv, new Scalar(255, 255, 255), new Scalar(255, 255, 255), mask);
+    }
+
+    /**
+     * Creates the lookup table of the HSV channels.
+     *
+     * @return a 1x256 table with 3 channels, 255 where a hue, saturation or value is within its limits.
+     */
+    private Mat createTable() {
+        byte[] entries = new byte[256 * 3];
+        for (int i = 0; i < 256; i++) {
+            entries[i * 3] = redHues[i] ? (byte) 255 : 0;
+            entries[i * 3 + 1] = i >= saturationMin && i <= saturationMax ? (byte) 255 : 0;
+            entries[i * 3 + 2] = i >= valueMin && i <= valueMax ? (byte) 255 : 0;
+        }
+        Mat lookupTable = new Mat(1, 256, CvType.CV_8UC3);
+        lookupTable.put(0, 0, entries);
+        return lookupTable;
+    }
+
+    /**
+     * Classifies a single color.
+     *
+     * @param r the red component, from 0 to 255.
+     * @param g the green component, from 0 to 255.
+     * @param b the blue component, from 0 to 255.
+     *
+     * @return whether the color is red.
+     */
+    public boolean isRed(int r, int g, int b) {
+        int value = Math.max(r, Math.max(g, b));
+        int diff = value - Math.min(r, Math.min(g, b));
+        if (!validColors[value << 8 | diff]) {
+            return false;
+        }
+
+        // The hue is computed the same way as the 8-bit OpenCV conversion, including its rounding
+        int hue;
+        if (value == r) {
+            hue = g - b;
+        } else if (value == g) {
+            hue = b - r + 2 * diff;
+        } else {
+            hue = r - g + 4 * diff;
+        }
+        hue = (hue * HUE_DIVISORS[diff] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+        if (hue < 0) {
+            hue += MAX_HUE;
+        }
+        return redHues[hue];
+    }
+
+    /**
+     * A getter for the upper hue of the low red band.
+     *
+     * @return the upper hue of the low red band.
+     */
+    public int getLowHueMax() {
+        return lowHueMax;
+    }
+
+    /**
+     * A getter for the lower hue of the high red band.
+     *
+     * @return the lower hue of the high red band.
+     */
+    public int getHighHueMin() {
+        return highHueMin;
+    }
+
+    /**
+     * A getter for the minimum saturation.
+     *
+     * @return the minimum saturation.
+     */
+    public int getSaturationMin() {
+        return saturationMin;
+    }
+
+    /**
+     * A getter for the maximum saturation.
+     *
+     * @return the maximum saturation.
+     */
+    public int getSaturationMax() {
+        return saturationMax;
+    }
+
+    /**
+     * A getter for the minimum value.
+     *
+     * @return the minimum value.
+     */
+    public int getValueMin() {
+        return valueMin;
+    }
+
+    /**
+     * A getter for the maximum value.
+     *
+     * @return the maximum value.
+     */
+    public int getValueMax() {
+        return valueMax;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.neural;
+
+import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects strawberries in two stages. A cheap detector, usually color segmentation, proposes
+ * candidate boxes, and a small classifier only looks at these crops to reject red objects that are
+ * not strawberries, such as flowers and labels. The cost of the model grows with the number of
+ * candidates instead of the size of the image.
+ */
+public class CascadeStrawberryDetector implements StrawberryDetector {
+
+    public static final float DEFAULT_THRESHOLD = 0.5f; // The default probability above which a candidate is kept.
+
+    private static final String TAG = "CascadeStrawberryDetector";
+
+    private final StrawberryDetector proposer; // The detector that proposes the candidates.
+    private final StrawberryCropClassifier classifier; // The classifier that checks the candidates.
+    private final float threshold; // The probability above which a candidate is kept.
+
+    /**
+     * Creates a cascade with the default threshold.
+     *
+     * @param proposer   the detector that proposes the candidates.
+     * @param classifier the classifier that checks the candidates.
+     */
+    public CascadeStrawberryDetector(StrawberryDetector proposer, StrawberryCropClassifier classifier) {
+        this(proposer, classifier, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a cascade.
+     *
+     * @param proposer   the detector that proposes the candidates.
+     * @param classifier the classifier that checks the candidates.
+     * @param threshold  the probability above which a candidate is kept.
+     */
+    public CascadeStrawberryDetector(StrawberryDetector proposer, StrawberryCropClassifier classifier, float threshold) {
+        this.proposer = proposer;
+        this.classifier = classifier;
+        this.threshold = threshold;
+    }
+
+    /**
+     * A getter for the detector that proposes the candidates.
+     *
+     * @return the detector that proposes the candidates.
+     */
+    public StrawberryDetector getProposer() {
+        return proposer;
+    }
+
+    /**
+     * A getter for the classifier that checks the candidates.
+     *
+     * @return the classifier that checks the candidates.
+     */
+    public StrawberryCropClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * A getter for the probability above which a candidate is kept.
+     *
+     * @return the threshold.
+     */
+    public float getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image.
+     *
+     * @param image the input image.
+     *
+     * @return the candidates that the classifier accepts, or all candidates if the model could not
+     *         be loaded.
+     */
+    @Override
+    public List<StrawberrySegment> detectStrawberries(Mat image) {
+        List<StrawberrySegment> candidates = proposer.detectStrawberries(image);
+        List<Rect> boxes = new ArrayList<>();
+        for (StrawberrySegment candidate : candidates) {
+            boxes.add(candidate.getBoundingBox());
+        }
+
+        float[] probabilities;
+        try {
+            probabilities = classifier.classify(image, boxes);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load " + classifier.getModelFileName(), e);
+            return candidates;
+        }
+
+        List<StrawberrySegment> strawberries = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (probabilities[i] >= threshold) {
+                strawberries.add(candidates.get(i));
+            }
+        }
+        return strawberries;
+    }
+}
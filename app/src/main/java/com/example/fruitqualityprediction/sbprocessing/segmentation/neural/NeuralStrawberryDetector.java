@@ -0,0 +1,296 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.neural;
+
+import android.content.Context;
+import android.util.Log;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects strawberries on the device with a bundled YOLOX model, so no network is needed. The image
+ * is letterboxed straight into the input tensor of the model, the boxes of all anchors are decoded
+ * in one pass over the output, and overlapping boxes are removed with non-maximum suppression.
+ * The model is expected to take a square BGR image with values from 0 to 255 and to return one row
+ * of (x, y, w, h, objectness, class scores) per anchor, either still relative to the anchor grid as
+ * exported by YOLOX or already decoded to input pixels.
+ */
+public class NeuralStrawberryDetector implements StrawberryDetector {
+
+    public static final String FOLDER_NAME = "detection-models"; // The assets folder with the detection models.
+    public static final String DEFAULT_MODEL = "strawberry-yolox-nano.tflite"; // The default detection model.
+    public static final float DEFAULT_SCORE_THRESHOLD = 0.3f; // The default score below which boxes are ignored.
+    public static final float DEFAULT_NMS_THRESHOLD = 0.45f; // The default intersection over union above which the weaker box is removed.
+
+    private static final String TAG = "NeuralStrawberryDetector";
+    private static final int[] STRIDES = {8, 16, 32}; // The strides of the YOLOX output levels.
+    private static final Scalar PAD_COLOR = new Scalar(114, 114, 114); // The color of the letterbox borders, as in YOLOX.
+    private static final int BOX_VALUES = 5; // The number of values in a row before the class scores.
+
+    private final Context context; // The current context, to load the model from the assets.
+    private final String modelFileName; // The name of the model file.
+    private final float scoreThreshold; // The score below which boxes are ignored.
+    private final float nmsThreshold; // The intersection over union above which the weaker box is removed.
+
+    private int inputSide; // The size of the square model input.
+    private ByteBuffer inputBuffer; // The input tensor, which is reused between images.
+    private Mat inputMat; // The input tensor as an image, sharing the memory of the input buffer.
+    private ByteBuffer outputBuffer; // The output tensor, which is reused between images.
+    private float[] output; // The output values, which are reused between images.
+    private int rowLength; // The number of values per anchor.
+    private float[] grid; // The x, y and stride of every anchor, or null if the model decodes the boxes itself.
+    private final Mat resized = new Mat(); // The scaled image, which is reused between images.
+    private final Mat bgr = new Mat(); // The scaled image in BGR, which is reused between images.
+
+    /**
+     * Checks whether the default detection model is bundled with the app.
+     *
+     * @param context the current context.
+     *
+     * @return whether the detector can be used.
+     */
+    public static boolean isAvailable(Context context) {
+        return InterpreterRegistry.hasAsset(context, FOLDER_NAME + "/" + DEFAULT_MODEL);
+    }
+
+    /**
+     * Creates a detector with the default model and thresholds.
+     *
+     * @param context the current context.
+     */
+    public NeuralStrawberryDetector(Context context) {
+        this(context, DEFAULT_MODEL, DEFAULT_SCORE_THRESHOLD, DEFAULT_NMS_THRESHOLD);
+    }
+
+    /**
+     * Creates a detector.
+     *
+     * @param context        the current context.
+     * @param modelFileName  the name of the .tflite model in the detection models folder.
+     * @param scoreThreshold the score below which boxes are ignored.
+     * @param nmsThreshold   the intersection over union above which the weaker box is removed.
+     */
+    public NeuralStrawberryDetector(Context context, String modelFileName, float scoreThreshold, float nmsThreshold) {
+        this.context = context;
+        this.modelFileName = modelFileName;
+        this.scoreThreshold = scoreThreshold;
+        this.nmsThreshold = nmsThreshold;
+    }
+
+    /**
+     * Finds the bounding boxes of the strawberries in an image.
+     *
+     * @param image the RGB or RGBA input image.
+     *
+     * @return the list of bounding boxes, or an empty list if the model could not be loaded.
+     */
+    @Override
+    public synchronized List<StrawberrySegment> detectStrawberries(Mat image) {
+        InterpreterRegistry.Lease lease;
+        try {
+            lease = InterpreterRegistry.getInstance().acquire(context, FOLDER_NAME, modelFileName);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load " + modelFileName, e);
+            return new ArrayList<>();
+        }
+
+        List<StrawberrySegment> strawberries = new ArrayList<>();
+        try (lease) {
+            Interpreter interpreter = lease.getInterpreter();
+            synchronized (interpreter) {
+                prepareBuffers(interpreter);
+                double scale = letterbox(image);
+                outputBuffer.rewind();
+                interpreter.run(inputBuffer, outputBuffer);
+                outputBuffer.rewind();
+                outputBuffer.asFloatBuffer().get(output);
+
+                List<float[]> boxes = decode(output, rowLength, grid, scoreThreshold);
+                for (float[] box : nonMaxSuppression(boxes, nmsThreshold)) {
+                    // Undo the letterbox scaling and clip to the image
+                    int left = Math.max((int) Math.floor(box[0] / scale), 0);
+                    int top = Math.max((int) Math.floor(box[1] / scale), 0);
+                    int right = Math.min((int) Math.ceil(box[2] / scale), image.width());
+                    int bottom = Math.min((int) Math.ceil(box[3] / scale), image.height());
+                    if (right > left && bottom > top) {
+                        strawberries.add(new StrawberrySegment(new Rect(left, top, right - left, bottom - top)));
+                    }
+                }
+            }
+        }
+        return strawberries;
+    }
+
+    /**
+     * Allocates the input and output tensors on first use. The input image shares its memory with
+     * the direct input buffer, so letterboxing writes the tensor without further copies.
+     *
+     * @param interpreter the interpreter of the model.
+     */
+    private void prepareBuffers(Interpreter interpreter) {
+        if (inputBuffer != null) {
+            return;
+        }
+        int[] inputShape = interpreter.getInputTensor(0).shape();
+        inputSide = inputShape[1];
+        boolean quantized = interpreter.getInputTensor(0).dataType() == DataType.UINT8;
+        int type = quantized ? CvType.CV_8UC3 : CvType.CV_32FC3;
+        inputBuffer = ByteBuffer.allocateDirect(inputSide * inputSide * 3 * (quantized ? 1 : 4)).order(ByteOrder.nativeOrder());
+        inputMat = new Mat(inputSide, inputSide, type, inputBuffer);
+
+        int[] outputShape = interpreter.getOutputTensor(0).shape();
+        rowLength = outputShape[2];
+        output = new float[outputShape[1] * rowLength];
+        outputBuffer = ByteBuffer.allocateDirect(output.length * 4).order(ByteOrder.nativeOrder());
+        grid = createGrid(inputSide);
+        if (grid.length / 3 != outputShape[1]) {
+            // The anchors do not match the YOLOX grid, so the model already decodes its boxes
+            grid = null;
+        }
+    }
+
+    /**
+     * Scales an image to fit the model input, keeping its aspect ratio, and pads the rest of the
+     * input on the right and the bottom, as YOLOX does.
+     *
+     * @param image the RGB or RGBA image.
+     *
+     * @return the scale from the image to the model input.
+     */
+    private double letterbox(Mat image) {
+        double scale = Math.min((double) inputSide / image.width(), (double) inputSide / image.height());
+        int width = Math.max(1, Math.min(inputSide, (int) Math.round(image.width() * scale)));
+        int height = Math.max(1, Math.min(inputSide, (int) Math.round(image.height() * scale)));
+
+        Imgproc.resize(image, resized, new Size(width, height), 0, 0, Imgproc.INTER_LINEAR);
+        Imgproc.cvtColor(resized, bgr, image.channels() == 4 ? Imgproc.COLOR_RGBA2BGR : Imgproc.COLOR_RGB2BGR);
+        inputMat.setTo(PAD_COLOR);
+        bgr.convertTo(inputMat.submat(0, height, 0, width), inputMat.type());
+        return scale;
+    }
+
+    /**
+     * Computes the grid cell and stride of every anchor of a YOLOX model.
+     *
+     * @param inputSide the size of the square model input.
+     *
+     * @return the x, y and stride of every anchor, in the order of the output rows.
+     */
+    static float[] createGrid(int inputSide) {
+        int anchors = 0;
+        for (int stride : STRIDES) {
+            anchors += (inputSide / stride) * (inputSide / stride);
+        }
+        float[] grid = new float[anchors * 3];
+        int i = 0;
+        for (int stride : STRIDES) {
+            int cells = inputSide / stride;
+            for (int y = 0; y < cells; y++) {
+                for (int x = 0; x < cells; x++) {
+                    grid[i++] = x;
+                    grid[i++] = y;
+                    grid[i++] = stride;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Decodes the boxes of all anchors whose score is high enough. The score is checked first, so
+     * most anchors are skipped after reading two values.
+     *
+     * @param output         the output of the model, one row per anchor.
+     * @param rowLength      the number of values per anchor.
+     * @param grid           the x, y and stride of every anchor, or null if the boxes are decoded.
+     * @param scoreThreshold the score below which boxes are ignored.
+     *
+     * @return the boxes as (left, top, right, bottom, score) in input pixels.
+     */
+    static List<float[]> decode(float[] output, int rowLength, float[] grid, float scoreThreshold) {
+        List<float[]> boxes = new ArrayList<>();
+        int anchors = output.length / rowLength;
+        for (int anchor = 0, row = 0; anchor < anchors; anchor++, row += rowLength) {
+            float objectness = output[row + 4];
+            if (objectness < scoreThreshold) {
+                continue;
+            }
+            float classScore = 1;
+            if (rowLength > BOX_VALUES) {
+                classScore = output[row + BOX_VALUES];
+                for (int i = row + BOX_VALUES + 1; i < row + rowLength; i++) {
+                    classScore = Math.max(classScore, output[i]);
+                }
+            }
+            float score = objectness * classScore;
+            if (score < scoreThreshold) {
+                continue;
+            }
+
+            float centerX = output[row], centerY = output[row + 1];
+            float width = output[row + 2], height = output[row + 3];
+            if (grid != null) {
+                float stride = grid[anchor * 3 + 2];
+                centerX = (centerX + grid[anchor * 3]) * stride;
+                centerY = (centerY + grid[anchor * 3 + 1]) * stride;
+                width = (float) Math.exp(width) * stride;
+                height = (float) Math.exp(height) * stride;
+            }
+            boxes.add(new float[] {centerX - width / 2, centerY - height / 2, centerX + width / 2, centerY + height / 2, score});
+        }
+        return boxes;
+    }
+
+    /**
+     * Removes boxes that overlap a box with a higher score too much.
+     *
+     * @param boxes        the boxes as (left, top, right, bottom, score).
+     * @param iouThreshold the intersection over union above which the weaker box is removed.
+     *
+     * @return the remaining boxes, by descending score.
+     */
+    static List<float[]> nonMaxSuppression(List<float[]> boxes, float iouThreshold) {
+        float[][] sorted = boxes.toArray(new float[0][]);
+        Arrays.sort(sorted, (a, b) -> Float.compare(b[4], a[4]));
+        float[] areas = new float[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            areas[i] = (sorted[i][2] - sorted[i][0]) * (sorted[i][3] - sorted[i][1]);
+        }
+
+        boolean[] suppressed = new boolean[sorted.length];
+        List<float[]> kept = new ArrayList<>();
+        for (int i = 0; i < sorted.length; i++) {
+            if (suppressed[i]) {
+                continue;
+            }
+            float[] box = sorted[i];
+            kept.add(box);
+            for (int j = i + 1; j < sorted.length; j++) {
+                if (suppressed[j]) {
+                    continue;
+                }
+                float[] other = sorted[j];
+                float width = Math.min(box[2], other[2]) - Math.max(box[0], other[0]);
+                float height = Math.min(box[3], other[3]) - Math.max(box[1], other[1]);
+                if (width > 0 && height > 0) {
+                    float intersection = width * height;
+                    suppressed[j] = intersection / (areas[i] + areas[j] - intersection) > iouThreshold;
+                }
+            }
+        }
+        return kept;
+    }
+}
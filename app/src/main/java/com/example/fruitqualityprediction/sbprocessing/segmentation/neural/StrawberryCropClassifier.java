@@ -0,0 +1,168 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.neural;
+
+import android.content.Context;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.Interpreter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Decides with a small on-device model whether image crops show a strawberry. All crops of an image
+ * are classified with a single invocation of the model. The model is expected to take square RGB
+ * crops with values from 0 to 1, and to return either the probability of a strawberry, or the
+ * probabilities of the background and a strawberry.
+ */
+public class StrawberryCropClassifier {
+
+    public static final String DEFAULT_MODEL = "strawberry-classifier.tflite"; // The default classification model.
+
+    private static final double CROP_MARGIN = 0.1; // The part of the box size added around a crop, for context.
+
+    private final Context context; // The current context, to load the model from the assets.
+    private final String modelFileName; // The name of the model file.
+
+    private int inputSide; // The size of the square model input.
+    private int classes; // The number of values the model returns per crop.
+    private ByteBuffer inputBuffer; // The input tensor, which is reused and grown when needed.
+    private Mat resized; // The scaled crop, which is reused between crops.
+    private Mat rgb; // The scaled crop in RGB, which is reused between crops.
+
+    /**
+     * Checks whether the default classification model is bundled with the app.
+     *
+     * @param context the current context.
+     *
+     * @return whether the classifier can be used.
+     */
+    public static boolean isAvailable(Context context) {
+        return InterpreterRegistry.hasAsset(context, NeuralStrawberryDetector.FOLDER_NAME + "/" + DEFAULT_MODEL);
+    }
+
+    /**
+     * Creates a classifier with the default model.
+     *
+     * @param context the current context.
+     */
+    public StrawberryCropClassifier(Context context) {
+        this(context, DEFAULT_MODEL);
+    }
+
+    /**
+     * Creates a classifier.
+     *
+     * @param context       the current context.
+     * @param modelFileName the name of the .tflite model in the detection models folder.
+     */
+    public StrawberryCropClassifier(Context context, String modelFileName) {
+        this.context = context;
+        this.modelFileName = modelFileName;
+    }
+
+    /**
+     * A getter for the name of the model file.
+     *
+     * @return the name of the model file.
+     */
+    public String getModelFileName() {
+        return modelFileName;
+    }
+
+    /**
+     * Computes the probability that each box of an image contains a strawberry.
+     *
+     * @param image the RGB or RGBA image.
+     * @param boxes the boxes to classify, inside the image.
+     *
+     * @return the probability of every box.
+     *
+     * @throws IOException if the model could not be loaded.
+     */
+    public synchronized float[] classify(Mat image, List<Rect> boxes) throws IOException {
+        if (boxes.isEmpty()) {
+            return new float[0];
+        }
+        try (InterpreterRegistry.Lease lease = InterpreterRegistry.getInstance()
+                .acquire(context, NeuralStrawberryDetector.FOLDER_NAME, modelFileName)) {
+            Interpreter interpreter = lease.getInterpreter();
+            synchronized (interpreter) {
+                if (inputBuffer == null) {
+                    inputSide = interpreter.getInputTensor(0).shape()[1];
+                    int[] outputShape = interpreter.getOutputTensor(0).shape();
+                    classes = outputShape[outputShape.length - 1];
+                    resized = new Mat();
+                    rgb = new Mat();
+                }
+                int cropBytes = inputSide * inputSide * 3 * 4;
+                if (inputBuffer == null || inputBuffer.capacity() < boxes.size() * cropBytes) {
+                    inputBuffer = ByteBuffer.allocateDirect(boxes.size() * cropBytes).order(ByteOrder.nativeOrder());
+                }
+
+                // Every crop is written straight into its slice of the input tensor
+                for (int i = 0; i < boxes.size(); i++) {
+                    inputBuffer.position(i * cropBytes);
+                    ByteBuffer slice = inputBuffer.slice().order(ByteOrder.nativeOrder());
+                    Imgproc.resize(image.submat(widen(boxes.get(i), image.width(), image.height())), resized,
+                            new Size(inputSide, inputSide), 0, 0, Imgproc.INTER_AREA);
+                    Mat crop = resized;
+                    if (image.channels() == 4) {
+                        Imgproc.cvtColor(resized, rgb, Imgproc.COLOR_RGBA2RGB);
+                        crop = rgb;
+                    }
+                    crop.convertTo(new Mat(inputSide, inputSide, CvType.CV_32FC3, slice), CvType.CV_32FC3, 1 / 255.0);
+                }
+
+                float[][] outputs = new float[boxes.size()][classes];
+                inputBuffer.position(0);
+                ByteBuffer batch = inputBuffer.slice().order(ByteOrder.nativeOrder());
+                batch.limit(boxes.size() * cropBytes);
+                try {
+                    interpreter.resizeInput(0, new int[] {boxes.size(), inputSide, inputSide, 3});
+                    interpreter.run(batch, outputs);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // The model does not support a dynamic batch size, so run the crops one by one
+                    interpreter.resizeInput(0, new int[] {1, inputSide, inputSide, 3});
+                    for (int i = 0; i < boxes.size(); i++) {
+                        batch.position(i * cropBytes);
+                        ByteBuffer crop = batch.slice().order(ByteOrder.nativeOrder());
+                        crop.limit(cropBytes);
+                        float[][] output = new float[1][classes];
+                        interpreter.run(crop, output);
+                        outputs[i] = output[0];
+                    }
+                }
+
+                float[] probabilities = new float[boxes.size()];
+                for (int i = 0; i < boxes.size(); i++) {
+                    probabilities[i] = outputs[i][classes - 1];
+                }
+                return probabilities;
+            }
+        }
+    }
+
+    /**
+     * Widens a box by a margin, clipped to the image.
+     *
+     * @param box    the box.
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     *
+     * @return the widened box.
+     */
+    static Rect widen(Rect box, int width, int height) {
+        int marginX = (int) Math.round(box.width * CROP_MARGIN);
+        int marginY = (int) Math.round(box.height * CROP_MARGIN);
+        int left = Math.max(box.x - marginX, 0);
+        int top = Math.max(box.y - marginY, 0);
+        int right = Math.min(box.x + box.width + marginX, width);
+        int bottom = Math.min(box.y + box.height + marginY, height);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+}
@@ -1,37 +1,89 @@
 package com.example.fruitqualityprediction.sbprocessing.segmentation.remote;
 
 import android.util.Log;
+import androidx.annotation.NonNull;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.AsyncStrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentationUtils;
-import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.gson.stream.JsonReader;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.core.Rect;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
- * Sends an image to a remote server to detect the strawberries in an image.
+ * Sends an image to a remote server to detect the strawberries in an image. All detectors share one
+ * HTTP client, so consecutive frames reuse a kept-alive connection. Frames are sent as raw pixels by
+ * default, which every server accepts. Servers that decode the "encoding" query parameter can be
+ * sent JPEG or WebP images instead, which makes the uploads much smaller on a slow network.
  */
-public class RemoteStrawberryDetector implements StrawberryDetector {
+public class RemoteStrawberryDetector implements AsyncStrawberryDetector {
+
+    public static final int DEFAULT_QUALITY = 80; // The default quality of compressed images, from 0 to 100.
+    public static final Encoding DEFAULT_ENCODING = Encoding.RAW; // The default way images are sent to the server.
+    public static final String DEFAULT_HOST = "localhost:8080"; // The default endpoint host.
 
     private static final String ENDPOINT_PROTOCOL = "http://"; // The protocol to use to reach the endpoint.
-    private static final String ENDPOINT_HOST = "localhost:8080"; // The endpoint host.
     private static final String ENDPOINT_PATH = "segmentation/"; // The path at the endpoint host.
+    private static final String TAG = "RemoteStrawberryDetector";
+
+    // The client shared by all detectors, which keeps connections to the server alive between frames
+    private static final OkHttpClient CLIENT = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .callTimeout(20, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * The ways an image can be sent to the server.
+     */
+    public enum Encoding {
+        RAW("application/octet-stream", null, 0), // The uncompressed pixels, for servers that do not decode images.
+        JPEG("image/jpeg", ".jpg", Imgcodecs.IMWRITE_JPEG_QUALITY), // A JPEG image.
+        WEBP("image/webp", ".webp", Imgcodecs.IMWRITE_WEBP_QUALITY); // A WebP image.
+
+        private final MediaType mediaType; // The content type of the request.
+        private final String extension; // The file extension that selects the OpenCV encoder.
+        private final int qualityFlag; // The OpenCV flag that sets the quality.
+
+        /**
+         * Creates an encoding.
+         *
+         * @param contentType the content type of the request.
+         * @param extension   the file extension that selects the OpenCV encoder.
+         * @param qualityFlag the OpenCV flag that sets the quality.
+         */
+        Encoding(String contentType, String extension, int qualityFlag) {
+            this.mediaType = MediaType.get(contentType);
+            this.extension = extension;
+            this.qualityFlag = qualityFlag;
+        }
+    }
 
     private final String segmentationMethod; // The segmentation method to use.
+    private final String host; // The endpoint host, with its port.
 
     private int maxSide = 640; // The maximum side of the image for segmentation restrictions.
+    private Encoding encoding = DEFAULT_ENCODING; // The way images are sent to the server.
+    private int quality = DEFAULT_QUALITY; // The quality of compressed images.
 
     /**
      * A constructor that initializes the segmentation method.
@@ -39,7 +91,18 @@ public class RemoteStrawberryDetector implements StrawberryDetector {
      * @param method the segmentation method. Accepted methods: 'color', 'yolox'
      */
     public RemoteStrawberryDetector(String method) {
+        this(method, DEFAULT_HOST);
+    }
+
+    /**
+     * A constructor that initializes the segmentation method and the server.
+     *
+     * @param method the segmentation method. Accepted methods: 'color', 'yolox'
+     * @param host   the endpoint host, with its port, such as "localhost:8080".
+     */
+    public RemoteStrawberryDetector(String method, String host) {
         this.segmentationMethod = method;
+        this.host = host;
     }
 
     /**
@@ -53,80 +116,138 @@ public class RemoteStrawberryDetector implements StrawberryDetector {
     }
 
     /**
-     * Sends an image to a remote server for segmentation.
+     * A setter for the way images are sent to the server. JPEG and WebP need a server that reads
+     * the "encoding" query parameter.
+     *
+     * @param encoding the encoding of the images.
+     */
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * A setter for the quality of compressed images. Lower qualities make smaller uploads.
+     *
+     * @param quality the quality, from 0 to 100.
+     */
+    public void setQuality(int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("The quality must be between 0 and 100");
+        }
+        this.quality = quality;
+    }
+
+    /**
+     * Sends an image to a remote server for segmentation. The request runs on the threads of the
+     * shared client, so this may also be called from the main thread. Cancelling the result
+     * cancels the request.
      *
      * @param image the input image.
      *
-     * @return the bounding boxes of the detected segments.
+     * @return the future bounding boxes of the detected segments, which fails if the request failed.
      */
     @Override
-    public List<StrawberrySegment> detectStrawberries(Mat image) {
+    public CompletableFuture<List<StrawberrySegment>> detectStrawberriesAsync(Mat image) {
         final int originalHeight = image.height();
         if (this.maxSide > 0) {
             image = SegmentationUtils.resizeImage(image, this.maxSide);
         }
 
-        byte[] data = imageToByteArray(image); // Convert to byte array.
-
-        final int height = image.height();
-        final int width = image.width();
-        final int type = image.type();
-        final float scaling = (float) height / originalHeight;
-
-        AtomicReference<ArrayList<StrawberrySegment>> strawberries = new AtomicReference<>(new ArrayList<>());
-        Thread connectionThread = new Thread(() -> {
-            try {
-                // Construct request parameters
-                String parameters =
-                        "?height=" + height +
-                                "&width=" + width +
-                                "&type=" + type;
-
-                // Construct full request
-                URL url = new URL(
-                        ENDPOINT_PROTOCOL +
-                                ENDPOINT_HOST + "/" +
-                                ENDPOINT_PATH +
-                                segmentationMethod +
-                                parameters);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setDoOutput(true);
-                connection.setRequestProperty("Content-Type", "application/octet-stream");
-                connection.setRequestProperty("Content-Length", String.valueOf(data.length));
-
-                // Fill request body with byte array
-                DataOutputStream outputStream = new DataOutputStream(connection.getOutputStream());
-                outputStream.write(data);
-                outputStream.flush();
-                outputStream.close();
-
-                // Get response
-                int responseCode = connection.getResponseCode();
-                Log.d("SENT", Integer.toString(responseCode));
-
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    // Decode response
-                    String responseString = buildStringFromStream(connection.getInputStream());
-                    strawberries.set(decodeStrawberryList(responseString, scaling));
-                } else {
-                    Log.d("HTTP Error", connection.toString());
+        byte[] data = encodeImage(image);
+        final float scaling = (float) image.height() / originalHeight;
+        return sendAsync(data, image.width(), image.height(), image.type(), scaling);
+    }
+
+    /**
+     * Sends an image that is already encoded with the selected encoding to the server.
+     *
+     * @param data    the encoded image.
+     * @param width   the width of the image.
+     * @param height  the height of the image.
+     * @param type    the OpenCV type of the image.
+     * @param scaling the scaling applied to the image, which is undone for the bounding boxes.
+     *
+     * @return the future bounding boxes of the detected segments, which fails if the request failed.
+     */
+    public CompletableFuture<List<StrawberrySegment>> sendAsync(byte[] data, int width, int height, int type, float scaling) {
+        // Construct request parameters
+        String parameters =
+                "?height=" + height +
+                        "&width=" + width +
+                        "&type=" + type +
+                        "&encoding=" + encoding.name().toLowerCase();
+
+        // Construct full request
+        Request request = new Request.Builder()
+                .url(ENDPOINT_PROTOCOL +
+                        host + "/" +
+                        ENDPOINT_PATH +
+                        segmentationMethod +
+                        parameters)
+                .post(RequestBody.create(data, encoding.mediaType))
+                .build();
+
+        CompletableFuture<List<StrawberrySegment>> strawberries = new CompletableFuture<>();
+        Call call = CLIENT.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                fail(e);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        throw new IOException("HTTP " + response.code());
+                    }
+                    if (body.contentLength() == 0) {
+                        strawberries.complete(new ArrayList<>());
+                        return;
+                    }
+                    // Decode the response while it is still arriving
+                    strawberries.complete(decodeStrawberryList(body.charStream(), scaling));
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
                 }
+            }
 
-                connection.disconnect();
-            } catch (IOException | JSONException e) {
-                Log.d("REQUEST FAILED", e.toString());
+            /**
+             * Fails the detection, unless it was cancelled.
+             *
+             * @param e the reason the request failed.
+             */
+            private void fail(Exception e) {
+                if (!strawberries.isCancelled()) {
+                    Log.e(TAG, "Request failed", e);
+                    strawberries.completeExceptionally(e);
+                }
+            }
+        });
+        strawberries.whenComplete((segments, error) -> {
+            if (strawberries.isCancelled()) {
+                call.cancel();
             }
         });
+        return strawberries;
+    }
 
-        connectionThread.start();
-        try {
-            connectionThread.join();
-        } catch (InterruptedException e) {
-            Log.d("CONNECTION", e.toString());
+    /**
+     * Encodes an image for the request body with the selected encoding.
+     *
+     * @param image the RGB or RGBA input image.
+     *
+     * @return the request body.
+     */
+    public byte[] encodeImage(Mat image) {
+        if (encoding == Encoding.RAW) {
+            return imageToByteArray(image);
         }
-
-        return strawberries.get();
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(image, bgr, image.channels() == 4 ? Imgproc.COLOR_RGBA2BGR : Imgproc.COLOR_RGB2BGR);
+        MatOfByte buffer = new MatOfByte();
+        Imgcodecs.imencode(encoding.extension, bgr, buffer, new MatOfInt(encoding.qualityFlag, quality));
+        return buffer.toArray();
     }
 
     /**
@@ -153,42 +274,45 @@ public class RemoteStrawberryDetector implements StrawberryDetector {
      *
      * @return the strawberry segments generated from the detected bounding boxes.
      */
-    public ArrayList<StrawberrySegment> decodeStrawberryList(String responseString, float scaling) throws IOException, JSONException {
-        ArrayList<StrawberrySegment> strawberries = new ArrayList<>();
-        if (!responseString.isEmpty()) {
-            JSONArray jsonArray = new JSONArray(responseString);
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject jsonObject = jsonArray.getJSONObject(i);
-                int x = (int) (jsonObject.getInt("x") / scaling);
-                int y = (int) (jsonObject.getInt("y") / scaling);
-                int width = (int) (jsonObject.getInt("width") / scaling);
-                int height = (int) (jsonObject.getInt("height") / scaling);
-
-                Rect boundingBox = new Rect(x, y, width, height);
-                strawberries.add(new StrawberrySegment(boundingBox));
-            }
+    public ArrayList<StrawberrySegment> decodeStrawberryList(String responseString, float scaling) throws IOException {
+        if (responseString.isEmpty()) {
+            return new ArrayList<>();
         }
-
-        return strawberries;
+        return decodeStrawberryList(new StringReader(responseString), scaling);
     }
 
     /**
-     * Constructs a string from an input stream.
+     * Decodes the JSON response containing the bounding boxes from a stream, without buffering the
+     * whole response first.
      *
-     * @param inputStream the input stream.
+     * @param responseReader the JSON response, an array of objects with x, y, width and height.
+     * @param scaling the scaling applied to the image.
      *
-     * @return a string.
+     * @return the strawberry segments generated from the detected bounding boxes.
      */
-    public String buildStringFromStream(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        StringBuilder response = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            response.append(line);
+    public ArrayList<StrawberrySegment> decodeStrawberryList(Reader responseReader, float scaling) throws IOException {
+        ArrayList<StrawberrySegment> strawberries = new ArrayList<>();
+        JsonReader reader = new JsonReader(responseReader);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int x = 0, y = 0, width = 0, height = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "x" -> x = (int) reader.nextDouble();
+                    case "y" -> y = (int) reader.nextDouble();
+                    case "width" -> width = (int) reader.nextDouble();
+                    case "height" -> height = (int) reader.nextDouble();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            Rect boundingBox = new Rect((int) (x / scaling), (int) (y / scaling), (int) (width / scaling), (int) (height / scaling));
+            strawberries.add(new StrawberrySegment(boundingBox));
         }
-        reader.close();
-        inputStream.close();
+        reader.endArray();
 
-        return response.toString();
+        return strawberries;
     }
 }
@@ -12,8 +12,11 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
-import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.AsyncStrawberryDetector;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -25,25 +28,26 @@ import org.opencv.core.Rect;
 /**
  * Implements strawberry segmentation using the Roboflow API.
  */
-public class RoboflowDetector implements StrawberryDetector {
+public class RoboflowDetector implements AsyncStrawberryDetector {
 
     final String API_KEY = "6HQ3BYPcnO0otJgxQEPO"; // The API key to use at the endpoint.
     final String MODEL_ENDPOINT = "strawberry---ripe---not-ripe/3"; // The Roboflow endpoint.
 
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(); // Runs the requests of all detectors.
+
     /**
      * Creates a request for the Roboflow model endpoint of the respective segmentation model.
      * This returns a JSON response containing each individual segmentation. This output is then
-     * transformed into a List of StrawberrySegments, which can then be used for annotation.
+     * transformed into a List of StrawberrySegments, which can then be used for annotation. The
+     * request runs on a shared pool of threads.
      *
      * @param image the input image.
      *
-     * @return a list of segmented strawberries.
+     * @return a future list of segmented strawberries, which fails if the request failed.
      */
     @Override
-    public List<StrawberrySegment> detectStrawberries(Mat image) {
-        AtomicReference<ArrayList<StrawberrySegment>> strawberries = new AtomicReference<>(new ArrayList<>());
-
-        Thread connectionThread = new Thread(() -> {
+    public CompletableFuture<List<StrawberrySegment>> detectStrawberriesAsync(Mat image) {
+        return CompletableFuture.supplyAsync(() -> {
             try {
                 Bitmap bitmapImage = convertMatToBitmap(image);
                 String base64Image = encodeImageToBase64(bitmapImage);
@@ -52,22 +56,12 @@ public class RoboflowDetector implements StrawberryDetector {
                 HttpURLConnection connection = setupConnection(uploadURL, base64Image);
 
                 String response = getResponse(connection);
-                List<StrawberrySegment> segments = parseResponse(response);
-                strawberries.set((ArrayList<StrawberrySegment>) segments);
+                return parseResponse(response);
             } catch (Exception e) {
                 e.printStackTrace();
+                throw new CompletionException(e);
             }
-        });
-
-        connectionThread.start();
-
-        try {
-            connectionThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        return strawberries.get();
+        }, EXECUTOR);
     }
 
     /**
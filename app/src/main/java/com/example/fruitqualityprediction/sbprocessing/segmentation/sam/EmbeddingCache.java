@@ -0,0 +1,133 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
+
+import android.content.Context;
+import android.util.Log;
+import org.opencv.core.Mat;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the Segment-Anything embeddings of the most recent images. The encoder runs in the
+ * background as soon as an image is shown, so by the time the user taps a strawberry only the
+ * decoder is left to run. Embeddings are large, so only a few images are kept.
+ */
+public class EmbeddingCache {
+
+    public static final int DEFAULT_CAPACITY = 2; // The default number of images whose embeddings are kept.
+
+    private static final String TAG = "EmbeddingCache";
+
+    private static EmbeddingCache instance; // The shared cache.
+
+    private final SegmentAnythingModelEncoder encoder; // The encoder that computes the embeddings.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(); // Runs the encoder in the background.
+    private final Map<String, Future<ImageEmbedding>> embeddings; // The embeddings by image content, least recently used first.
+
+    /**
+     * Creates a cache.
+     *
+     * @param encoder  the encoder that computes the embeddings.
+     * @param capacity the number of images whose embeddings are kept.
+     */
+    public EmbeddingCache(SegmentAnythingModelEncoder encoder, int capacity) {
+        this.encoder = encoder;
+        this.embeddings = new LinkedHashMap<>(capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Future<ImageEmbedding>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * A getter for the shared cache, which uses the default encoder and capacity.
+     *
+     * @param context the current context.
+     *
+     * @return the shared cache.
+     */
+    public static synchronized EmbeddingCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new EmbeddingCache(new SegmentAnythingModelEncoder(context.getApplicationContext()), DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts computing the embedding of an image in the background, unless it is already known.
+     * The image is scaled down right away, so the caller may change it afterwards. Images are
+     * told apart by their content, as different photos may have the same name.
+     *
+     * @param image the RGB or RGBA image.
+     *
+     * @return the key of the image, to get its embedding with.
+     */
+    public String prefetch(Mat image) {
+        Mat resized = SegmentAnythingModelEncoder.resize(image);
+        Mat continuous = resized.isContinuous() ? resized : resized.clone();
+        byte[] pixels = new byte[(int) continuous.total() * continuous.channels()];
+        continuous.get(0, 0, pixels);
+        int width = image.width();
+        int height = image.height();
+        String key = getKey(pixels, width, height);
+        synchronized (this) {
+            if (!embeddings.containsKey(key)) {
+                embeddings.put(key, executor.submit(() -> encoder.encodeResized(resized, width, height)));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Computes the key of an image from its size and the digest of its scaled pixels, which are
+     * exactly what the encoder sees.
+     *
+     * @param pixels the pixels of the scaled image.
+     * @param width  the width of the original image.
+     * @param height the height of the original image.
+     *
+     * @return the key of the image.
+     */
+    static String getKey(byte[] pixels, int width, int height) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder().append(width).append('x').append(height).append(':');
+        for (byte b : digest.digest(pixels)) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the embedding of an image if it has been computed, without waiting for the encoder.
+     *
+     * @param key the key of the image.
+     *
+     * @return the embedding, or null if it is unknown, still being computed or failed.
+     */
+    public synchronized ImageEmbedding getIfReady(String key) {
+        Future<ImageEmbedding> embedding = embeddings.get(key);
+        if (embedding == null || !embedding.isDone()) {
+            return null;
+        }
+        try {
+            return embedding.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not encode " + key, e.getCause());
+            embeddings.remove(key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
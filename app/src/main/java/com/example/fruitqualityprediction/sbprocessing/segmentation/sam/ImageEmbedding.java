@@ -0,0 +1,94 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
+
+import org.opencv.core.Rect;
+
+/**
+ * The output of the Segment-Anything image encoder for one image, together with the geometry
+ * that is needed to map points of the image to the model input. Computing it is the expensive part
+ * of Segment-Anything, so it is computed once per image and every prompt reuses it.
+ */
+public class ImageEmbedding {
+
+    private final float[] values; // The embedding values, in the layout of the encoder output.
+    private final long[] shape; // The shape of the encoder output.
+    private final int width; // The width of the encoded image.
+    private final int height; // The height of the encoded image.
+    private final double scale; // The scale from the encoded image to the model input.
+
+    /**
+     * Creates an embedding.
+     *
+     * @param values the embedding values, in the layout of the encoder output.
+     * @param shape  the shape of the encoder output.
+     * @param width  the width of the encoded image.
+     * @param height the height of the encoded image.
+     * @param scale  the scale from the encoded image to the model input.
+     */
+    public ImageEmbedding(float[] values, long[] shape, int width, int height, double scale) {
+        this.values = values;
+        this.shape = shape;
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+    }
+
+    /**
+     * A getter for the embedding values.
+     *
+     * @return the embedding values, in the layout of the encoder output.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * A getter for the shape of the embedding.
+     *
+     * @return the shape of the encoder output.
+     */
+    public long[] getShape() {
+        return shape;
+    }
+
+    /**
+     * A getter for the width of the encoded image.
+     *
+     * @return the width of the encoded image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * A getter for the height of the encoded image.
+     *
+     * @return the height of the encoded image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * A getter for the scale from the encoded image to the model input.
+     *
+     * @return the scale.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Clips a box to the borders of the encoded image.
+     *
+     * @param box the box.
+     *
+     * @return the part of the box inside the image.
+     */
+    public Rect clip(Rect box) {
+        int left = Math.max(box.x, 0);
+        int top = Math.max(box.y, 0);
+        int right = Math.min(box.x + box.width, width);
+        int bottom = Math.min(box.y + box.height, height);
+        return new Rect(left, top, Math.max(right - left, 0), Math.max(bottom - top, 0));
+    }
+}
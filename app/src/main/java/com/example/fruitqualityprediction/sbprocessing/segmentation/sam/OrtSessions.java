@@ -0,0 +1,212 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
+
+import android.content.Context;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Process-wide ONNX Runtime sessions of the Segment-Anything models. Creating a session reads and
+ * optimizes the whole model, so every model is loaded once and then kept until it is no longer
+ * needed. The models are copied out of the assets to a file once, so that ONNX Runtime reads them
+ * from disk instead of from a copy on the Java heap. Sessions are handed out as leases, so a
+ * session that is removed while it runs is only closed once it is done.
+ */
+public final class OrtSessions {
+
+    public static final String FOLDER_NAME = "sam-models"; // The assets folder with the Segment-Anything models.
+
+    private static final Map<String, Entry> SESSIONS = new HashMap<>(); // Loaded sessions by model file.
+
+    /**
+     * A loaded session and the number of callers using it.
+     */
+    private static class Entry {
+
+        private final OrtSession session; // The session of the model.
+        private int leases; // The number of leases that have not been released.
+        private boolean retired; // Whether the session is closed once its last lease is released.
+
+        /**
+         * Creates an entry.
+         *
+         * @param session the session of the model.
+         */
+        private Entry(OrtSession session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * The right to use a session until the lease is closed. The session stays open while it is
+     * leased, even if it is removed in the meantime.
+     */
+    static final class Lease implements AutoCloseable {
+
+        private final Entry entry; // The leased session.
+        private boolean released; // Whether the lease has been closed.
+
+        /**
+         * Creates a lease.
+         *
+         * @param entry the leased session.
+         */
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * A getter for the leased session.
+         *
+         * @return the session.
+         */
+        OrtSession getSession() {
+            return entry.session;
+        }
+
+        /**
+         * Releases the session. Closing a lease more than once has no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (OrtSessions.class) {
+                if (!released) {
+                    released = true;
+                    entry.leases--;
+                    if (entry.retired && entry.leases == 0) {
+                        OrtSessions.close(entry.session);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Only static methods are used.
+     */
+    private OrtSessions() {
+    }
+
+    /**
+     * Leases the session of a model, loading it on first use. Loading takes seconds, so this must
+     * not be called on the main thread. The lease must be closed once the session is no longer
+     * used, preferably with try-with-resources.
+     *
+     * @param context       the current context.
+     * @param modelFileName the name of the .onnx model in the Segment-Anything models folder.
+     *
+     * @return the lease of the session of the model.
+     *
+     * @throws IOException  if the model could not be read.
+     * @throws OrtException if the model could not be loaded.
+     */
+    static synchronized Lease acquire(Context context, String modelFileName) throws IOException, OrtException {
+        Entry entry = SESSIONS.get(modelFileName);
+        if (entry == null) {
+            File model = copyModel(context, modelFileName);
+            entry = new Entry(OrtEnvironment.getEnvironment().createSession(model.getAbsolutePath(), new OrtSession.SessionOptions()));
+            SESSIONS.put(modelFileName, entry);
+        }
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    /**
+     * Removes every session whose model is not in the given collection, and closes it once it is
+     * no longer leased.
+     *
+     * @param modelFileNames the names of the models to keep.
+     */
+    public static synchronized void retainModels(Collection<String> modelFileNames) {
+        Iterator<Map.Entry<String, Entry>> iterator = SESSIONS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!modelFileNames.contains(entry.getKey())) {
+                retire(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all sessions, and closes each once it is no longer leased. The models are loaded
+     * again on their next use.
+     */
+    public static synchronized void clear() {
+        for (Entry entry : SESSIONS.values()) {
+            retire(entry);
+        }
+        SESSIONS.clear();
+    }
+
+    /**
+     * Copies a model out of the assets, unless a copy of the same size already exists. The copy
+     * is written to a temporary file first, so an interrupted copy is never used.
+     *
+     * @param context       the current context.
+     * @param modelFileName the name of the .onnx model in the Segment-Anything models folder.
+     *
+     * @return the copy of the model.
+     *
+     * @throws IOException if the model could not be copied.
+     */
+    private static File copyModel(Context context, String modelFileName) throws IOException {
+        File folder = new File(context.getNoBackupFilesDir(), FOLDER_NAME);
+        File model = new File(folder, modelFileName);
+        try (InputStream inputStream = context.getAssets().open(FOLDER_NAME + "/" + modelFileName)) {
+            // Assets report their full uncompressed size
+            if (model.length() == inputStream.available()) {
+                return model;
+            }
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Could not create " + folder);
+            }
+            File copy = new File(folder, modelFileName + ".tmp");
+            try (FileOutputStream outputStream = new FileOutputStream(copy)) {
+                byte[] buffer = new byte[1 << 16];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                }
+            }
+            if (!copy.renameTo(model)) {
+                copy.delete();
+                throw new IOException("Could not copy " + modelFileName);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Closes a session now if it is not leased, or else when its last lease is released.
+     *
+     * @param entry the session to retire.
+     */
+    private static void retire(Entry entry) {
+        entry.retired = true;
+        if (entry.leases == 0) {
+            close(entry.session);
+        }
+    }
+
+    /**
+     * Closes a session.
+     *
+     * @param session the session to close.
+     */
+    private static void close(OrtSession session) {
+        try {
+            session.close();
+        } catch (OrtException e) {
+            // The native memory is freed either way
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
+
+import android.content.Context;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Runs the prompt decoder of the Segment-Anything model, which turns a click on an image into the
+ * mask of the object under it. It only needs the embedding of the image, so it takes tens of
+ * milliseconds instead of the seconds of the encoder. The model is expected to have the inputs and
+ * outputs of the official Segment-Anything ONNX export. Only the low resolution masks are read,
+ * and only the tapped region is scaled up, as full resolution masks of a photo take hundreds of
+ * megabytes.
+ */
+public class SegmentAnythingModelDecoder {
+
+    public static final String DEFAULT_MODEL = "sam-decoder.onnx"; // The default decoder model.
+
+    private static final int MASK_SIDE = 256; // The size of the square mask prompt and low resolution masks.
+    private static final Set<String> OUTPUTS = new HashSet<>(Arrays.asList("iou_predictions", "low_res_masks")); // The outputs that are read.
+
+    private final Context context; // The current context, to load the model from the assets.
+    private final String modelFileName; // The name of the model file.
+
+    /**
+     * Checks whether the default decoder model is bundled with the app.
+     *
+     * @param context the current context.
+     *
+     * @return whether the decoder can be used.
+     */
+    public static boolean isAvailable(Context context) {
+        return InterpreterRegistry.hasAsset(context, OrtSessions.FOLDER_NAME + "/" + DEFAULT_MODEL);
+    }
+
+    /**
+     * Creates a decoder with the default model.
+     *
+     * @param context the current context.
+     */
+    public SegmentAnythingModelDecoder(Context context) {
+        this(context, DEFAULT_MODEL);
+    }
+
+    /**
+     * Creates a decoder.
+     *
+     * @param context       the current context.
+     * @param modelFileName the name of the .onnx model in the Segment-Anything models folder.
+     */
+    public SegmentAnythingModelDecoder(Context context, String modelFileName) {
+        this.context = context;
+        this.modelFileName = modelFileName;
+    }
+
+    /**
+     * Computes the mask of the object at a point of an image. The first call loads the model, which
+     * takes seconds, so this must not be called on the main thread.
+     *
+     * @param embedding the embedding of the image.
+     * @param click     the point on the object, in image pixels.
+     * @param region    the part of the image to return the mask of, inside the image.
+     *
+     * @return the mask of the object within the region.
+     *
+     * @throws IOException  if the model could not be read.
+     * @throws OrtException if the model could not be loaded or run.
+     */
+    public SegmentMask decode(ImageEmbedding embedding, Point click, Rect region) throws IOException, OrtException {
+        OrtEnvironment environment = OrtEnvironment.getEnvironment();
+
+        // The click is followed by a padding point, since there is no box prompt
+        float[][][] coordinates = {{toModelCoordinates(click, embedding.getScale()), {0, 0}}};
+        float[][] labels = {{1, -1}};
+        // The full resolution masks are not read, so they are kept as small as the low resolution ones
+        float[] imageSize = {toMaskSide(embedding.getHeight(), embedding.getScale()), toMaskSide(embedding.getWidth(), embedding.getScale())};
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try (OrtSessions.Lease lease = OrtSessions.acquire(context, modelFileName)) {
+            inputs.put("image_embeddings", OnnxTensor.createTensor(environment, FloatBuffer.wrap(embedding.getValues()), embedding.getShape()));
+            inputs.put("point_coords", OnnxTensor.createTensor(environment, coordinates));
+            inputs.put("point_labels", OnnxTensor.createTensor(environment, labels));
+            inputs.put("mask_input", OnnxTensor.createTensor(environment, FloatBuffer.allocate(MASK_SIDE * MASK_SIDE),
+                    new long[] {1, 1, MASK_SIDE, MASK_SIDE}));
+            inputs.put("has_mask_input", OnnxTensor.createTensor(environment, new float[] {0}));
+            inputs.put("orig_im_size", OnnxTensor.createTensor(environment, imageSize));
+
+            try (OrtSession.Result result = lease.getSession().run(inputs, OUTPUTS)) {
+                float[][] scores = (float[][]) result.get("iou_predictions").get().getValue();
+                OnnxTensor masks = (OnnxTensor) result.get("low_res_masks").get();
+                return toMask(masks.getFloatBuffer(), best(scores[0]) * MASK_SIDE * MASK_SIDE, embedding.getScale(), region);
+            }
+        } finally {
+            for (OnnxTensor input : inputs.values()) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Maps a point of the image to the model input.
+     *
+     * @param point the point in image pixels.
+     * @param scale the scale from the image to the model input.
+     *
+     * @return the x and y of the point in the model input.
+     */
+    static float[] toModelCoordinates(Point point, double scale) {
+        return new float[] {(float) (point.x * scale), (float) (point.y * scale)};
+    }
+
+    /**
+     * Computes how many pixels of the low resolution masks a side of the image covers.
+     *
+     * @param side  the length of the side in image pixels.
+     * @param scale the scale from the image to the model input.
+     *
+     * @return the length of the side in low resolution mask pixels.
+     */
+    static float toMaskSide(int side, double scale) {
+        return (float) Math.max(1, Math.ceil(side * scale * MASK_SIDE / SegmentAnythingModelEncoder.INPUT_SIDE));
+    }
+
+    /**
+     * Finds the mask with the highest predicted quality, when the model returns several.
+     *
+     * @param scores the predicted intersection over union of every mask.
+     *
+     * @return the index of the best mask.
+     */
+    static int best(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scales the low resolution mask logits up to a region of the image with bilinear
+     * interpolation, and thresholds them.
+     *
+     * @param logits the low resolution mask logits, which cover the model input, row by row.
+     * @param offset the index of the first logit of the mask.
+     * @param scale  the scale from the image to the model input.
+     * @param region the region of the image to return the mask of.
+     *
+     * @return the mask of the region, with every pixel whose interpolated logit is positive.
+     */
+    static SegmentMask toMask(FloatBuffer logits, int offset, double scale, Rect region) {
+        double factor = scale * MASK_SIDE / SegmentAnythingModelEncoder.INPUT_SIDE;
+
+        // The columns are the same for every row, so their neighbours and weights are computed once
+        int[] left = new int[region.width];
+        int[] right = new int[region.width];
+        float[] rightWeight = new float[region.width];
+        for (int x = 0; x < region.width; x++) {
+            double position = toMaskPosition(region.x + x, factor);
+            left[x] = (int) position;
+            right[x] = Math.min(left[x] + 1, MASK_SIDE - 1);
+            rightWeight[x] = (float) (position - left[x]);
+        }
+
+        byte[] pixels = new byte[region.width * region.height];
+        for (int y = 0; y < region.height; y++) {
+            double position = toMaskPosition(region.y + y, factor);
+            int top = offset + (int) position * MASK_SIDE;
+            int bottom = offset + Math.min((int) position + 1, MASK_SIDE - 1) * MASK_SIDE;
+            float bottomWeight = (float) (position - (int) position);
+            for (int x = 0; x < region.width; x++) {
+                float upper = logits.get(top + left[x]) * (1 - rightWeight[x]) + logits.get(top + right[x]) * rightWeight[x];
+                float lower = logits.get(bottom + left[x]) * (1 - rightWeight[x]) + logits.get(bottom + right[x]) * rightWeight[x];
+                if (upper * (1 - bottomWeight) + lower * bottomWeight > 0) {
+                    pixels[y * region.width + x] = (byte) 255;
+                }
+            }
+        }
+        return SegmentMask.fromPixels(pixels, region.width, region.height);
+    }
+
+    /**
+     * Maps the center of an image pixel onto the low resolution masks.
+     *
+     * @param pixel  the column or row of the pixel.
+     * @param factor the scale from the image to the low resolution masks.
+     *
+     * @return the column or row in the masks, within the masks.
+     */
+    private static double toMaskPosition(int pixel, double factor) {
+        return Math.min(Math.max((pixel + 0.5) * factor - 0.5, 0), MASK_SIDE - 1);
+    }
+}
@@ -1,154 +1,164 @@
 package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
-/*
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Log;
-
-import com.example.fruitqualityprediction.R;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
+import android.content.Context;
+import com.example.fruitqualityprediction.sbprocessing.calculator.InterpreterRegistry;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
-import org.opencv.dnn.Dnn;
-import org.opencv.dnn.Net;
 import org.opencv.imgproc.Imgproc;
-
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
 
 /**
- * Segments strawberries using the Segment-Anything model.
+ * Runs the image encoder of the Segment-Anything model. The encoder is by far the most expensive
+ * part of the model, so it should run once per image, after which {@link SegmentAnythingModelDecoder}
+ * turns every prompt into a mask cheaply. The model is expected to take a normalized RGB image in
+ * NCHW layout, whose longest side is scaled to 1024 pixels and which is padded with zeros on the
+ * right and the bottom, as in the original Segment-Anything preprocessing.
  */
 public class SegmentAnythingModelEncoder {
-/*
-
-    private static final int INPUT_WIDTH = 1024;
-    private static final int INPUT_HEIGHT = 1024;
-    private static final int INPUT_SIZE = INPUT_WIDTH * INPUT_HEIGHT;
-    private static final float SCALE_FACTOR = 1.0f / 255;
-    private static final float[] MEAN = new float[] { 123.675f, 116.28f, 103.53f }; // try dynamic?
-    private static final float[] STD = new float[] { 58.395f, 57.12f, 57.375f };
-
-    private static final String MODEL_NAME = "bit_b_q.onnx";
-
 
-    private static Mat img;
+    public static final String DEFAULT_MODEL = "sam-encoder.onnx"; // The default encoder model.
+    public static final int INPUT_SIDE = 1024; // The size of the square model input.
 
+    private static final float[] MEAN = {123.675f, 116.28f, 103.53f}; // The mean of every RGB channel.
+    private static final float[] STD = {58.395f, 57.12f, 57.375f}; // The standard deviation of every RGB channel.
 
-    public SegmentAnythingModelEncoder(String modelPath) {
+    private final Context context; // The current context, to load the model from the assets.
+    private final String modelFileName; // The name of the model file.
 
+    /**
+     * Checks whether the default encoder model is bundled with the app.
+     *
+     * @param context the current context.
+     *
+     * @return whether the encoder can be used.
+     */
+    public static boolean isAvailable(Context context) {
+        return InterpreterRegistry.hasAsset(context, OrtSessions.FOLDER_NAME + "/" + DEFAULT_MODEL);
     }
 
-    public static Mat preprocessOpenCV(Bitmap bitmap) {
-
-        Mat image = new Mat();
-
-        Utils.bitmapToMat(bitmap, image);
-
-        Imgproc.resize(image, image, new Size(1024, 1024));
-
-        Mat imgFloat = new Mat(image.rows(), image.cols(), CvType.CV_32FC3);
-
-        image.convertTo(imgFloat, CvType.CV_32FC3, SCALE_FACTOR);
-
-       // imgFloat = centerCrop(imgFloat);
-
-        Mat blob = Dnn.blobFromImage(
-                imgFloat,
-                SCALE_FACTOR,
-                new Size(INPUT_WIDTH, INPUT_HEIGHT),
-                MEAN,
-                true,
-                false
-        );
-
-        Core.divide(blob, STD, blob);
-
-        return blob;
+    /**
+     * Creates an encoder with the default model.
+     *
+     * @param context the current context.
+     */
+    public SegmentAnythingModelEncoder(Context context) {
+        this(context, DEFAULT_MODEL);
     }
-    public static Bitmap resizeImage(Bitmap bitmapImage) {
 
-        return bitmapImage;
+    /**
+     * Creates an encoder.
+     *
+     * @param context       the current context.
+     * @param modelFileName the name of the .onnx model in the Segment-Anything models folder.
+     */
+    public SegmentAnythingModelEncoder(Context context, String modelFileName) {
+        this.context = context;
+        this.modelFileName = modelFileName;
     }
 
     /**
-     * Takes an image of size 1024x1024 as input and transforms it into OnnxTensor
-     *
-     * @return an OnnxTensor
-     * /
-    public static OnnxTensor createTensorFromImage(Bitmap bitmapImage, OrtEnvironment environment) throws OrtException {
-       // Mat matImage = new Mat();
-        int[] pixels = new int[INPUT_SIZE];
-        bitmapImage.getPixels(pixels, 0, INPUT_WIDTH, 0, 0, INPUT_WIDTH, INPUT_HEIGHT);
-
-        float[][][] tensorData = new float[INPUT_HEIGHT][INPUT_WIDTH][3];
-        for(int i = 0; i < INPUT_SIZE; i++) {
-            int x = i % INPUT_WIDTH;
-            int y = i / INPUT_WIDTH;
-
-            tensorData[x][y][0] = (((pixels[i] >> 16) & 0xFF) * SCALE_FACTOR);// - MEAN[0]) / STD[0];
-            tensorData[x][y][1] = (((pixels[i] >> 8) & 0xFF) * SCALE_FACTOR);// - MEAN[1]) / STD[1];
-            tensorData[x][y][2] = ((pixels[i] & 0xFF) * SCALE_FACTOR); //- MEAN[2]) / STD[2];
-
-            if(tensorData[x][y][0] < 0 || tensorData[x][y][1] <0 || tensorData[x][y][2] <0) {
-                System.out.println("asda");
-            }
-        }
-
-        return OnnxTensor.createTensor(environment, tensorData);
+     * Computes the embedding of an image.
+     *
+     * @param image the RGB or RGBA image.
+     *
+     * @return the embedding of the image.
+     *
+     * @throws IOException  if the model could not be read.
+     * @throws OrtException if the model could not be loaded or run.
+     */
+    public ImageEmbedding encode(Mat image) throws IOException, OrtException {
+        return encodeResized(resize(image), image.width(), image.height());
     }
 
-    public static void test(Context context) throws OrtException, IOException {
-        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.sb);
+    /**
+     * Computes the embedding of an image that was already scaled with {@link #resize(Mat)}.
+     *
+     * @param resized the scaled RGB or RGBA image.
+     * @param width   the width of the original image.
+     * @param height  the height of the original image.
+     *
+     * @return the embedding of the original image.
+     *
+     * @throws IOException  if the model could not be read.
+     * @throws OrtException if the model could not be loaded or run.
+     */
+    public ImageEmbedding encodeResized(Mat resized, int width, int height) throws IOException, OrtException {
+        Mat continuous = resized.isContinuous() ? resized : resized.clone();
+        byte[] pixels = new byte[(int) continuous.total() * continuous.channels()];
+        continuous.get(0, 0, pixels);
+        FloatBuffer tensor = toTensor(pixels, continuous.cols(), continuous.rows(), continuous.channels(), INPUT_SIDE);
 
         OrtEnvironment environment = OrtEnvironment.getEnvironment();
-        OrtSession model = environment.createSession(getPath(MODEL_NAME, context));
-        OnnxTensor tensor = createTensorFromImage(bitmap, environment);
-        LinkedHashMap<String, OnnxTensor> inputs = new LinkedHashMap<>();
-        inputs.put(model.getInputNames().iterator().next(), tensor);
-        OrtSession.Result res = model.run(inputs);
-
-
-
-
-        //Mat inputBlob = getPreprocessedImage(bitmap);
-
-        try {
-            Net dnnNet = Dnn.readNetFromONNX(getPath(MODEL_NAME, context));
-            System.out.println("success");
-
-           // dnnNet.setInput(inputBlob);
+        try (OrtSessions.Lease lease = OrtSessions.acquire(context, modelFileName);
+             OnnxTensor input = OnnxTensor.createTensor(environment, tensor, new long[] {1, 3, INPUT_SIDE, INPUT_SIDE});
+             OrtSession.Result result = lease.getSession().run(Collections.singletonMap(lease.getSession().getInputNames().iterator().next(), input))) {
+            OnnxTensor output = (OnnxTensor) result.get(0);
+            FloatBuffer outputBuffer = output.getFloatBuffer();
+            float[] values = new float[outputBuffer.remaining()];
+            outputBuffer.get(values);
+            return new ImageEmbedding(values, output.getInfo().getShape(), width, height, getScale(width, height));
+        }
+    }
 
-            Mat classification = dnnNet.forward();
+    /**
+     * Scales an image so that its longest side fits the model input. This is cheap, so it can run
+     * right away, while the image itself may still be changed before the encoder runs.
+     *
+     * @param image the RGB or RGBA image.
+     *
+     * @return the scaled image.
+     */
+    public static Mat resize(Mat image) {
+        double scale = getScale(image.width(), image.height());
+        int width = Math.max(1, Math.min(INPUT_SIDE, (int) Math.round(image.width() * scale)));
+        int height = Math.max(1, Math.min(INPUT_SIDE, (int) Math.round(image.height() * scale)));
+        Mat resized = new Mat();
+        Imgproc.resize(image, resized, new Size(width, height), 0, 0, Imgproc.INTER_LINEAR);
+        return resized;
+    }
 
-            Log.d("AA", "Uhhhhhh");
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * Computes the scale from an image to the model input.
+     *
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     *
+     * @return the scale that makes the longest side as long as the model input.
+     */
+    static double getScale(int width, int height) {
+        return (double) INPUT_SIDE / Math.max(width, height);
     }
 
-    private static String getPath(String file, Context context) throws IOException {
-        BufferedInputStream inputStream = new BufferedInputStream(context.getAssets().open(file));
-        byte[] data = new byte[inputStream.available()];
-        inputStream.read(data);
-        inputStream.close();
-        File outFile = new File(context.getFilesDir(), file);
-        FileOutputStream os = new FileOutputStream(outFile);
-        os.write(data);
-        os.close();
-        return outFile.getAbsolutePath();
+    /**
+     * Normalizes interleaved RGB(A) pixels into a padded, planar input tensor.
+     *
+     * @param pixels   the pixels row by row, with the channels of a pixel next to each other.
+     * @param width    the width of the image.
+     * @param height   the height of the image.
+     * @param channels the number of channels, 3 or 4, of which the first three are red, green and
+     *                 blue.
+     * @param side     the size of the square tensor, which is at least the size of the image.
+     *
+     * @return the tensor with three planes of side by side values.
+     */
+    static FloatBuffer toTensor(byte[] pixels, int width, int height, int channels, int side) {
+        FloatBuffer tensor = ByteBuffer.allocateDirect(3 * side * side * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int channel = 0; channel < 3; channel++) {
+            int plane = channel * side * side;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0, i = y * width * channels + channel; x < width; x++, i += channels) {
+                    tensor.put(plane + y * side + x, ((pixels[i] & 0xFF) - MEAN[channel]) / STD[channel]);
+                }
+            }
+        }
+        return tensor;
     }
-*/
-}
\ No newline at end of file
+}
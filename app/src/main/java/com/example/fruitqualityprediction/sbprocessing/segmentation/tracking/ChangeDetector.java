@@ -0,0 +1,229 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.tracking;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the parts of a camera frame that changed since a reference frame, by differencing tiny
+ * grayscale versions of both frames. This costs a fraction of a millisecond, so it can decide on
+ * every frame whether a detection is needed at all, and which regions it has to cover.
+ */
+public class ChangeDetector {
+
+    public static final int DEFAULT_MARGIN = 32; // The default number of pixels added around a changed region.
+
+    private static final int SMALL_WIDTH = 80; // The width of the frames that are compared.
+    private static final double DIFFERENCE_THRESHOLD = 20; // The brightness difference above which a pixel changed.
+    private static final double MIN_CHANGED_FRACTION = 0.002; // The part of the pixels that has to change to count as a change.
+
+    private final int margin; // The number of pixels added around a changed region.
+    private final Mat reference = new Mat(); // The small version of the reference frame.
+    private Size frameSize; // The size of the reference frame.
+
+    /**
+     * Creates a change detector with the default margin.
+     */
+    public ChangeDetector() {
+        this(DEFAULT_MARGIN);
+    }
+
+    /**
+     * Creates a change detector.
+     *
+     * @param margin the number of pixels added around a changed region, so that strawberries that
+     *               only partly changed are still detected as a whole.
+     */
+    public ChangeDetector(int margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Sets the frame that later frames are compared with, usually the frame of the last detection.
+     *
+     * @param frame the RGBA reference frame.
+     */
+    public void setReference(Mat frame) {
+        shrink(frame).copyTo(reference);
+        frameSize = frame.size();
+    }
+
+    /**
+     * Forgets the reference frame, so that the whole next frame counts as changed. This is used when
+     * the detection of the reference frame failed.
+     */
+    public void reset() {
+        frameSize = null;
+    }
+
+    /**
+     * Finds the regions of a frame that differ from the reference frame.
+     *
+     * @param frame the RGBA frame.
+     *
+     * @return the changed regions in the coordinates of the frame, which do not overlap. The
+     *         regions are empty if the scene is static, and cover the whole frame if there is no
+     *         reference frame of the same size yet.
+     */
+    public List<Rect> findChanges(Mat frame) {
+        List<Rect> regions = new ArrayList<>();
+        Rect bounds = new Rect(0, 0, frame.cols(), frame.rows());
+        if (frameSize == null || !frameSize.equals(frame.size())) {
+            regions.add(bounds);
+            return regions;
+        }
+
+        Mat changed = new Mat();
+        Core.absdiff(shrink(frame), reference, changed);
+        Imgproc.threshold(changed, changed, DIFFERENCE_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        if (Core.countNonZero(changed) < MIN_CHANGED_FRACTION * changed.total()) {
+            return regions;
+        }
+
+        Mat labels = new Mat();
+        Mat stats = new Mat();
+        int count = Imgproc.connectedComponentsWithStats(changed, labels, stats, new Mat(), 8, CvType.CV_32S);
+        int[] values = new int[count * stats.cols()];
+        stats.get(0, 0, values);
+        double scale = (double) frame.cols() / changed.cols();
+
+        // Label 0 is the unchanged background
+        for (int label = 1; label < count; label++) {
+            int i = label * stats.cols();
+            int left = (int) Math.floor(values[i + Imgproc.CC_STAT_LEFT] * scale) - margin;
+            int top = (int) Math.floor(values[i + Imgproc.CC_STAT_TOP] * scale) - margin;
+            int right = (int) Math.ceil((values[i + Imgproc.CC_STAT_LEFT] + values[i + Imgproc.CC_STAT_WIDTH]) * scale) + margin;
+            int bottom = (int) Math.ceil((values[i + Imgproc.CC_STAT_TOP] + values[i + Imgproc.CC_STAT_HEIGHT]) * scale) + margin;
+            regions.add(clip(new Rect(left, top, right - left, bottom - top), bounds));
+        }
+        return mergeOverlapping(regions);
+    }
+
+    /**
+     * Computes the part of a frame covered by some regions.
+     *
+     * @param regions   regions that do not overlap.
+     * @param frameSize the size of the frame.
+     *
+     * @return the covered part, from 0 to 1.
+     */
+    public static double coverage(List<Rect> regions, Size frameSize) {
+        double area = 0;
+        for (Rect region : regions) {
+            area += region.area();
+        }
+        return area / frameSize.area();
+    }
+
+    /**
+     * Widens changed regions to the boxes they touch, so that strawberries which only partly
+     * changed are detected again as a whole.
+     *
+     * @param regions the changed regions.
+     * @param boxes   the boxes of the known strawberries.
+     *
+     * @return the widened regions, which do not overlap.
+     */
+    public static List<Rect> coverBoxes(List<Rect> regions, List<Rect> boxes) {
+        List<Rect> covered = new ArrayList<>();
+        for (Rect region : regions) {
+            for (Rect box : boxes) {
+                if (intersects(region, box)) {
+                    region = union(region, box);
+                }
+            }
+            covered.add(region);
+        }
+        return mergeOverlapping(covered);
+    }
+
+    /**
+     * Checks whether two boxes overlap.
+     *
+     * @param a the first box.
+     * @param b the second box.
+     *
+     * @return whether the boxes overlap.
+     */
+    public static boolean intersects(Rect a, Rect b) {
+        return a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height;
+    }
+
+    /**
+     * Replaces overlapping regions with the box around them, until no regions overlap.
+     *
+     * @param regions the regions.
+     *
+     * @return the merged regions.
+     */
+    static List<Rect> mergeOverlapping(List<Rect> regions) {
+        List<Rect> merged = new ArrayList<>(regions);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && !changed; i++) {
+                for (int j = i + 1; j < merged.size(); j++) {
+                    if (intersects(merged.get(i), merged.get(j))) {
+                        merged.set(i, union(merged.get(i), merged.get(j)));
+                        merged.remove(j);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Computes the smallest box around two boxes.
+     *
+     * @param a the first box.
+     * @param b the second box.
+     *
+     * @return the box around both boxes.
+     */
+    private static Rect union(Rect a, Rect b) {
+        int x = Math.min(a.x, b.x);
+        int y = Math.min(a.y, b.y);
+        return new Rect(x, y, Math.max(a.x + a.width, b.x + b.width) - x, Math.max(a.y + a.height, b.y + b.height) - y);
+    }
+
+    /**
+     * Converts a frame to a small, slightly blurred grayscale image, so camera noise does not count
+     * as a change.
+     *
+     * @param frame the RGBA frame.
+     *
+     * @return the small image.
+     */
+    private static Mat shrink(Mat frame) {
+        Mat small = new Mat();
+        int height = Math.max(1, (int) Math.round((double) frame.rows() * SMALL_WIDTH / frame.cols()));
+        Imgproc.resize(frame, small, new Size(SMALL_WIDTH, height), 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(small, small, Imgproc.COLOR_RGBA2GRAY);
+        Imgproc.GaussianBlur(small, small, new Size(3, 3), 0);
+        return small;
+    }
+
+    /**
+     * Clips a region to the borders of the frame.
+     *
+     * @param region the region.
+     * @param bounds the frame.
+     *
+     * @return the part of the region inside the frame.
+     */
+    private static Rect clip(Rect region, Rect bounds) {
+        int left = Math.max(region.x, bounds.x);
+        int top = Math.max(region.y, bounds.y);
+        int right = Math.min(region.x + region.width, bounds.x + bounds.width);
+        int bottom = Math.min(region.y + region.height, bounds.y + bounds.height);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+}
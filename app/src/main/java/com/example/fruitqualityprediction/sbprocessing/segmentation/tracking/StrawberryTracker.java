@@ -0,0 +1,348 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.tracking;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the bounding boxes of detected strawberries along with the camera between two detections.
+ * Corners inside every box are followed with sparse pyramidal Lucas-Kanade optical flow, and each
+ * box is shifted and scaled by the median motion of its corners. This is much cheaper than a full
+ * detection, so it can run on every frame, and the detector only has to run again when the boxes
+ * get old or tracking becomes unreliable. The boxes are tracked as a whole and only clipped to the
+ * frame when they are returned, so a strawberry that moves back into view gets its full box again,
+ * and masks move and scale along with their boxes.
+ */
+public class StrawberryTracker {
+
+    public static final int DEFAULT_REDETECT_INTERVAL = 20; // The default number of tracked frames after which to detect again.
+    public static final double DEFAULT_MIN_CONFIDENCE = 0.5; // The default part of the corners that has to be tracked.
+
+    private static final int MAX_CORNERS = 24; // The maximum number of corners tracked per box.
+    private static final int MIN_CORNERS = 3; // The minimum number of corners needed to move a box.
+    private static final int GRID_SIDE = 4; // The number of grid points per side used when a box has too few corners.
+    private static final Size WINDOW = new Size(21, 21); // The search window of the optical flow.
+    private static final int PYRAMID_LEVELS = 3; // The number of pyramid levels of the optical flow.
+
+    private final int redetectInterval; // The number of tracked frames after which to detect again.
+    private final double minConfidence; // The part of the corners that has to be tracked.
+
+    // The Mats below are reused for every frame, so tracking allocates no native memory per frame
+    private Mat previousFrame; // The grayscale version of the last frame.
+    private Mat currentFrame; // The grayscale version of the frame being tracked.
+    private final MatOfPoint2f previousPoints; // The corners of all boxes in the last frame.
+    private final MatOfPoint2f nextPoints; // The same corners in the frame being tracked.
+    private final MatOfByte status; // Per corner, whether it was found in the frame being tracked.
+    private final MatOfFloat errors; // Per corner, the tracking error.
+    private final MatOfPoint foundCorners; // The corners found inside a box.
+    private List<Rect> boxes = new ArrayList<>(); // The boxes in the last frame, which may extend beyond it.
+    private List<SegmentMask> masks = new ArrayList<>(); // The detected mask of each box, or null.
+    private List<Point[]> corners = new ArrayList<>(); // The corners of each box in the last frame.
+    private int framesSinceDetection; // The number of frames tracked since the last detection.
+    private double confidence; // The part of the corners that was tracked in the last frame.
+
+    /**
+     * Creates a tracker with the default settings.
+     */
+    public StrawberryTracker() {
+        this(DEFAULT_REDETECT_INTERVAL, DEFAULT_MIN_CONFIDENCE);
+    }
+
+    /**
+     * Creates a tracker.
+     *
+     * @param redetectInterval the number of tracked frames after which to detect again.
+     * @param minConfidence    the part of the corners that has to be tracked, below which to detect
+     *                         again.
+     */
+    public StrawberryTracker(int redetectInterval, double minConfidence) {
+        if (redetectInterval < 1) {
+            throw new IllegalArgumentException("Invalid redetect interval " + redetectInterval);
+        }
+        this.redetectInterval = redetectInterval;
+        this.minConfidence = minConfidence;
+        this.previousFrame = new Mat();
+        this.currentFrame = new Mat();
+        this.previousPoints = new MatOfPoint2f();
+        this.nextPoints = new MatOfPoint2f();
+        this.status = new MatOfByte();
+        this.errors = new MatOfFloat();
+        this.foundCorners = new MatOfPoint();
+    }
+
+    /**
+     * Starts tracking the strawberries of a new detection.
+     *
+     * @param frame    the RGBA frame the strawberries were detected in.
+     * @param segments the detected strawberries.
+     */
+    public void reset(Mat frame, List<StrawberrySegment> segments) {
+        Imgproc.cvtColor(frame, previousFrame, Imgproc.COLOR_RGBA2GRAY);
+        boxes = new ArrayList<>();
+        masks = new ArrayList<>();
+        corners = new ArrayList<>();
+        Rect bounds = new Rect(0, 0, frame.cols(), frame.rows());
+        for (StrawberrySegment segment : segments) {
+            Rect visible = clip(segment.getBoundingBox(), bounds);
+            if (visible.area() > 0) {
+                boxes.add(segment.getBoundingBox().clone());
+                masks.add(segment.getMask());
+                corners.add(findCorners(previousFrame, visible));
+            }
+        }
+        framesSinceDetection = 0;
+        confidence = 1;
+    }
+
+    /**
+     * Moves the boxes to a new frame.
+     *
+     * @param frame the new RGBA frame, of the same size as the previous one.
+     *
+     * @return the strawberries that could still be tracked, in the coordinates of the new frame.
+     */
+    public List<StrawberrySegment> track(Mat frame) {
+        Imgproc.cvtColor(frame, currentFrame, Imgproc.COLOR_RGBA2GRAY);
+        framesSinceDetection++;
+
+        List<Point> points = new ArrayList<>();
+        for (Point[] boxCorners : corners) {
+            points.addAll(Arrays.asList(boxCorners));
+        }
+        if (points.isEmpty()) {
+            swapFrames();
+            return new ArrayList<>();
+        }
+
+        // All boxes are tracked in a single call, which builds the image pyramids only once
+        previousPoints.fromList(points);
+        Video.calcOpticalFlowPyrLK(previousFrame, currentFrame, previousPoints, nextPoints, status, errors,
+                WINDOW, PYRAMID_LEVELS);
+        Point[] movedPoints = nextPoints.toArray();
+        byte[] found = status.toArray();
+
+        Rect bounds = new Rect(0, 0, frame.cols(), frame.rows());
+        List<Rect> trackedBoxes = new ArrayList<>();
+        List<SegmentMask> trackedMasks = new ArrayList<>();
+        List<Point[]> trackedCorners = new ArrayList<>();
+        int trackedCount = 0;
+        int offset = 0;
+        for (int i = 0; i < boxes.size(); i++) {
+            Point[] boxCorners = corners.get(i);
+            List<Point> before = new ArrayList<>();
+            List<Point> after = new ArrayList<>();
+            for (int j = 0; j < boxCorners.length; j++) {
+                if (found[offset + j] != 0) {
+                    before.add(boxCorners[j]);
+                    after.add(movedPoints[offset + j]);
+                }
+            }
+            offset += boxCorners.length;
+            trackedCount += after.size();
+
+            if (after.size() >= MIN_CORNERS) {
+                Rect box = moveBox(boxes.get(i), before, after);
+                if (clip(box, bounds).area() > 0) {
+                    trackedBoxes.add(box);
+                    trackedMasks.add(masks.get(i));
+                    trackedCorners.add(after.toArray(new Point[0]));
+                }
+            }
+        }
+
+        confidence = (double) trackedCount / points.size();
+        boxes = trackedBoxes;
+        masks = trackedMasks;
+        corners = trackedCorners;
+        swapFrames();
+
+        List<StrawberrySegment> segments = new ArrayList<>();
+        for (int i = 0; i < boxes.size(); i++) {
+            Rect visible = clip(boxes.get(i), bounds);
+            segments.add(new StrawberrySegment(visible, fitMask(masks.get(i), boxes.get(i), visible)));
+        }
+        return segments;
+    }
+
+    /**
+     * Makes the tracked frame the previous frame. The old previous frame is overwritten by the next
+     * frame, so no pixels are copied.
+     */
+    private void swapFrames() {
+        Mat frame = previousFrame;
+        previousFrame = currentFrame;
+        currentFrame = frame;
+    }
+
+    /**
+     * Releases the native memory of the tracker. It cannot be used afterwards.
+     */
+    public void release() {
+        previousFrame.release();
+        currentFrame.release();
+        previousPoints.release();
+        nextPoints.release();
+        status.release();
+        errors.release();
+        foundCorners.release();
+    }
+
+    /**
+     * Checks whether the strawberries should be detected again, because the last detection is too
+     * old, too many corners were lost, or nothing is being tracked.
+     *
+     * @return whether to run the detector.
+     */
+    public boolean needsDetection() {
+        return boxes.isEmpty() || framesSinceDetection >= redetectInterval || confidence < minConfidence;
+    }
+
+    /**
+     * A getter for the tracking confidence.
+     *
+     * @return the part of the corners that was tracked in the last frame.
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Finds the corners to track inside a box. Boxes without enough texture get a regular grid of
+     * points instead.
+     *
+     * @param gray the grayscale frame.
+     * @param box  the box, inside the frame.
+     *
+     * @return the corners in the coordinates of the frame.
+     */
+    private Point[] findCorners(Mat gray, Rect box) {
+        Mat region = gray.submat(box);
+        Imgproc.goodFeaturesToTrack(region, foundCorners, MAX_CORNERS, 0.01, Math.max(2, Math.min(box.width, box.height) / 8.0));
+        region.release();
+        Point[] points = foundCorners.toArray();
+        if (points.length < MIN_CORNERS) {
+            points = new Point[GRID_SIDE * GRID_SIDE];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = new Point((i % GRID_SIDE + 0.5) * box.width / GRID_SIDE, (i / GRID_SIDE + 0.5) * box.height / GRID_SIDE);
+            }
+        }
+        for (Point point : points) {
+            point.x += box.x;
+            point.y += box.y;
+        }
+        return points;
+    }
+
+    /**
+     * Moves a box by the motion of its corners. The box is shifted by the median displacement and
+     * scaled around its center by the median change of the distances between pairs of corners, so
+     * a few badly tracked corners do not throw it off.
+     *
+     * @param box    the box in the previous frame.
+     * @param before the tracked corners in the previous frame.
+     * @param after  the same corners in the new frame.
+     *
+     * @return the box in the new frame.
+     */
+    static Rect moveBox(Rect box, List<Point> before, List<Point> after) {
+        int count = before.size();
+        double[] dx = new double[count];
+        double[] dy = new double[count];
+        for (int i = 0; i < count; i++) {
+            dx[i] = after.get(i).x - before.get(i).x;
+            dy[i] = after.get(i).y - before.get(i).y;
+        }
+
+        double[] ratios = new double[count * (count - 1) / 2];
+        int pairs = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                double distanceBefore = distance(before.get(i), before.get(j));
+                if (distanceBefore > 1) {
+                    ratios[pairs++] = distance(after.get(i), after.get(j)) / distanceBefore;
+                }
+            }
+        }
+        double scale = pairs > 0 ? median(Arrays.copyOf(ratios, pairs)) : 1;
+
+        double centerX = box.x + box.width / 2.0 + median(dx);
+        double centerY = box.y + box.height / 2.0 + median(dy);
+        double width = box.width * scale;
+        double height = box.height * scale;
+        return new Rect((int) Math.round(centerX - width / 2), (int) Math.round(centerY - height / 2),
+                (int) Math.round(width), (int) Math.round(height));
+    }
+
+    /**
+     * Fits a detected mask to a tracked box. The mask is scaled to the box, which keeps its shape
+     * when the box grows or shrinks, and cut to the part of the box inside the frame.
+     *
+     * @param mask    the mask of the detected box, or null.
+     * @param box     the tracked box.
+     * @param visible the part of the box inside the frame.
+     *
+     * @return the mask of the visible part of the box, or null if there is no mask.
+     */
+    static SegmentMask fitMask(SegmentMask mask, Rect box, Rect visible) {
+        if (mask == null) {
+            return null;
+        }
+        if (mask.getWidth() != box.width || mask.getHeight() != box.height) {
+            mask = mask.resize(box.width, box.height);
+        }
+        return mask.crop(visible.x - box.x, visible.y - box.y, visible.width, visible.height);
+    }
+
+    /**
+     * Computes the distance between two points.
+     *
+     * @param a the first point.
+     * @param b the second point.
+     *
+     * @return the Euclidean distance.
+     */
+    private static double distance(Point a, Point b) {
+        return Math.hypot(a.x - b.x, a.y - b.y);
+    }
+
+    /**
+     * Computes the median of some values.
+     *
+     * @param values the values, which are sorted in place.
+     *
+     * @return the median.
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * Clips a box to the borders of the frame.
+     *
+     * @param box    the box.
+     * @param bounds the frame.
+     *
+     * @return the part of the box inside the frame, which may be empty.
+     */
+    static Rect clip(Rect box, Rect bounds) {
+        int left = Math.max(box.x, bounds.x);
+        int top = Math.max(box.y, bounds.y);
+        int right = Math.min(box.x + box.width, bounds.x + bounds.width);
+        int bottom = Math.min(box.y + box.height, bounds.y + bounds.height);
+        return new Rect(left, top, Math.max(right - left, 0), Math.max(bottom - top, 0));
+    }
+}
@@ -12,6 +12,7 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.ContextCompat;
 import com.example.fruitqualityprediction.UriUtils;
 import com.example.fruitqualityprediction.feedback.FeedbackSender;
 import com.example.fruitqualityprediction.R;
@@ -25,7 +26,12 @@ import com.example.fruitqualityprediction.sbprocessing.marketability.Marketabili
 import com.example.fruitqualityprediction.sbprocessing.marketability.RoundnessCalculator;
 import com.example.fruitqualityprediction.sbprocessing.marketability.SmoothnessCalculator;
 import com.example.fruitqualityprediction.sbprocessing.ripeness.RipenessCalculator;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
 import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.EmbeddingCache;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.ImageEmbedding;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.SegmentAnythingModelDecoder;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.sam.SegmentAnythingModelEncoder;
 import org.opencv.android.Utils;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -37,6 +43,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Annotates an image and sets up the click event dialogues.
@@ -47,11 +56,16 @@ public class Annotator {
     public static final FeatureRange<Float> BRIX_RANGE = new FeatureRange<>(0f, 12f); // The range of Brix values.
     public static final FeatureRange<Double> MARKETABILITY_RANGE = new FeatureRange<>(0.0, 1.0); // The range of marketability values.
 
+    private static final ExecutorService DECODER_EXECUTOR = Executors.newSingleThreadExecutor(); // Refines the masks of tapped strawberries off the main thread.
+
     private final PreferenceProvider preferenceProvider;
     private final Map<Rect, StrawberrySegment> boundingBoxInfoMap = new HashMap<>(); // Maps bounding boxes to segments.
     private final String imageName;
 
     private ChartGenerator chartGenerator; // Generates sigmoid charts.
+    private EmbeddingCache embeddingCache; // Keeps the Segment-Anything embedding of the image, or null.
+    private String embeddingKey; // The key of the image in the embedding cache, or null.
+    private SegmentAnythingModelDecoder maskDecoder; // Turns a tap into the mask of a strawberry, or null.
 
     /**
      * Create a new Annotator instance.
@@ -73,6 +87,24 @@ public class Annotator {
         this.chartGenerator = chartGenerator;
     }
 
+    /**
+     * Starts encoding the image with Segment-Anything in the background, so that tapping a
+     * strawberry later only has to run the cheap decoder to refine its mask. Must be called before
+     * the bounding boxes are drawn onto the image. The embedding is cached by the content of the image.
+     * Nothing is encoded unless both Segment-Anything models are bundled with the app.
+     *
+     * @param context the current context.
+     * @param image   the original image.
+     */
+    public void prepareMaskRefinement(Context context, Mat image) {
+        if (!SegmentAnythingModelEncoder.isAvailable(context) || !SegmentAnythingModelDecoder.isAvailable(context)) {
+            return;
+        }
+        embeddingCache = EmbeddingCache.getInstance(context);
+        maskDecoder = new SegmentAnythingModelDecoder(context.getApplicationContext());
+        embeddingKey = embeddingCache.prefetch(image);
+    }
+
     /**
      * This method is responsible for taking an array of ColorExtractorStrawberrySegment's, which are
      * a combination of a bounding box and a corresponding image, and annotates a bitmap, which
@@ -299,7 +331,8 @@ public class Annotator {
      * Handles the clicking functionality of bounding boxes on top of annotated image. Upon
      * clicking the image view, this method is called with the click coordinates and checks
      * against the map of bounding boxes to see if any of them were clicked. If any were clicked,
-     * then a dialog is shown.
+     * then a dialog is shown. When the mask of the strawberry can be refined, the decoder runs in
+     * the background first, and the dialog is shown once it is done.
      *
      * @param bitmap  the full processed bitmap.
      * @param x       the x coordinate of click.
@@ -314,39 +347,102 @@ public class Annotator {
                 StrawberrySegment strawberry = boundingBoxInfoMap.get(boundingBox);
                 if (strawberry == null) break;
 
-                if (strawberry.getRipeness() == null) {
-                    RipenessCalculator ripenessCalculator = new RipenessCalculator();
-                    strawberry.setRipeness(ripenessCalculator.calculateRipeness(bitmap));
-                }
-                if (strawberry.getBrix() == null) {
-                    BrixCalculator brixCalculator = new BrixCalculator(context, new TimeProvider(), preferenceProvider);
-                    strawberry.setBrix(brixCalculator.calculateBrix(brixCalculator.getTime(imageName), bitmap));
-                }
-                if (strawberry.getRoundness() == null) {
-                    RoundnessCalculator roundnessCalculator = new RoundnessCalculator();
-                    strawberry.setRoundness(roundnessCalculator.calculateRoundness(bitmap));
-                }
-                if (strawberry.getSmoothness() == null) {
-                    SmoothnessCalculator smoothnessCalculator = new SmoothnessCalculator();
-                    strawberry.setSmoothness(smoothnessCalculator.calculateSmoothness(bitmap));
+                if (embeddingCache == null) {
+                    showStrawberry(bitmap, context, strawberry);
+                } else {
+                    Executor mainExecutor = ContextCompat.getMainExecutor(context);
+                    DECODER_EXECUTOR.execute(() -> {
+                        try {
+                            refineMask(strawberry, clickPoint);
+                        } finally {
+                            mainExecutor.execute(() -> showStrawberry(bitmap, context, strawberry));
+                        }
+                    });
                 }
-                if (strawberry.getMarketability() == null) {
-                    MarketabilityCalculator marketabilityCalculator = new MarketabilityCalculator();
-                    strawberry.setMarketability(marketabilityCalculator.isMarketable(strawberry));
-                }
-                if (strawberry.getFirmness() == null) {
-                    FirmnessCalculator firmnessCalculator = new FirmnessCalculator(context, new TimeProvider(), preferenceProvider);
-                    strawberry.setFirmness(firmnessCalculator.calculateFirmnessFromView(firmnessCalculator.getTime(imageName), bitmap));
-                }
-
-                // Show the ripeness value in the dialog
-                showRipenessDialog(bitmap, context, strawberry);
 
                 break;
             }
         }
     }
 
+    /**
+     * Computes the missing features of a tapped strawberry and shows them in a dialog.
+     *
+     * @param bitmap     the full processed bitmap.
+     * @param context    the view in which the dialog should be displayed.
+     * @param strawberry the tapped strawberry.
+     */
+    private void showStrawberry(Bitmap bitmap, Context context, StrawberrySegment strawberry) {
+        if (strawberry.getRipeness() == null) {
+            RipenessCalculator ripenessCalculator = new RipenessCalculator();
+            strawberry.setRipeness(ripenessCalculator.calculateRipeness(bitmap));
+        }
+        if (strawberry.getBrix() == null) {
+            BrixCalculator brixCalculator = new BrixCalculator(context, new TimeProvider(), preferenceProvider);
+            strawberry.setBrix(brixCalculator.calculateBrix(brixCalculator.getTime(imageName), bitmap));
+        }
+        if (strawberry.getRoundness() == null) {
+            RoundnessCalculator roundnessCalculator = new RoundnessCalculator();
+            strawberry.setRoundness(roundnessCalculator.calculateRoundness(bitmap));
+        }
+        if (strawberry.getSmoothness() == null) {
+            SmoothnessCalculator smoothnessCalculator = new SmoothnessCalculator();
+            strawberry.setSmoothness(smoothnessCalculator.calculateSmoothness(bitmap));
+        }
+        if (strawberry.getMarketability() == null) {
+            MarketabilityCalculator marketabilityCalculator = new MarketabilityCalculator();
+            strawberry.setMarketability(marketabilityCalculator.isMarketable(strawberry));
+        }
+        if (strawberry.getFirmness() == null) {
+            FirmnessCalculator firmnessCalculator = new FirmnessCalculator(context, new TimeProvider(), preferenceProvider);
+            strawberry.setFirmness(firmnessCalculator.calculateFirmnessFromView(firmnessCalculator.getTime(imageName), bitmap));
+        }
+
+        // Show the ripeness value in the dialog
+        showRipenessDialog(bitmap, context, strawberry);
+    }
+
+    /**
+     * Refines the mask of a tapped strawberry with the Segment-Anything decoder, and recomputes the
+     * features that depend on the mask. Nothing changes while the embedding of the image is still
+     * being computed or if the models are not available. Runs on the decoder thread.
+     *
+     * @param strawberry the tapped strawberry.
+     * @param click      the tapped point in the image.
+     */
+    private void refineMask(StrawberrySegment strawberry, Point click) {
+        Bitmap crop = strawberry.getBitmap();
+        if (embeddingCache == null || crop == null) {
+            return;
+        }
+        ImageEmbedding embedding = embeddingCache.getIfReady(embeddingKey);
+        if (embedding == null) {
+            return;
+        }
+
+        // The crop of the strawberry is the bounding box clipped to the image
+        Rect region = embedding.clip(strawberry.getBoundingBox());
+        if (region.width != crop.getWidth() || region.height != crop.getHeight()) {
+            return;
+        }
+        SegmentMask mask;
+        try {
+            mask = maskDecoder.decode(embedding, click, region);
+        } catch (Exception e) {
+            Log.e("Annotator", "Could not refine the mask", e);
+            return;
+        }
+        if (mask.getArea() == 0) {
+            return;
+        }
+
+        strawberry.setMask(mask);
+        strawberry.setRipeness(new RipenessCalculator().calculateRipeness(crop, mask));
+        strawberry.setRoundness(new RoundnessCalculator().calculateRoundness(crop, mask));
+        strawberry.setSmoothness(new SmoothnessCalculator().calculateSmoothness(crop, mask));
+        strawberry.setMarketability(new MarketabilityCalculator().isMarketable(strawberry));
+    }
+
     /**
      * Method responsible for displaying dialog which contains additional information about the
      * selected strawberry.
@@ -0,0 +1,49 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class CompiledWeightsTest {
+
+    private static final String CSV = ",a-1,b-1,a,b,quantiles\n"
+            + "0,1.0,2.0,3.0,4.0,0.1\n"
+            + "1,-1.0,0.5,0.0,0.5,0.9\n";
+
+    @Test
+    public void parseSkipsHeader() throws IOException {
+        double[][] rows = CompiledWeights.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, rows.length);
+        assertArrayEquals(new double[] {0, 1.0, 2.0, 3.0, 4.0, 0.1}, rows[0], 0.0);
+    }
+
+    @Test
+    public void foldsColumnsOfTheSameFeature() throws IOException {
+        double[][] rows = CompiledWeights.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+        // a and a-1 map to feature 2, b and b-1 to feature 0, feature 1 is unused
+        FeatureSchema schema = new FeatureSchema(new int[] {2, 0, 2, 0});
+        CompiledWeights weights = CompiledWeights.compile(rows, new int[] {0, 5}, schema);
+
+        assertEquals(2, weights.getRowCount());
+        assertEquals(3, weights.getColumnCount());
+        assertArrayEquals(new double[] {6.0 * 10 + 4.0 * 1, 1.0 * 10 - 1.0 * 1},
+                weights.multiply(new double[] {10.0, 100.0, 1.0}), 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsColumnsWithoutFeature() throws IOException {
+        double[][] rows = CompiledWeights.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+        CompiledWeights.compile(rows, new int[] {0}, new FeatureSchema(new int[] {0, 1, 0, 1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooFewFeatures() throws IOException {
+        double[][] rows = CompiledWeights.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+        CompiledWeights.compile(rows, new int[] {0, 5}, new FeatureSchema(new int[] {2, 0, 2, 0}))
+                .multiply(new double[] {1.0});
+    }
+}
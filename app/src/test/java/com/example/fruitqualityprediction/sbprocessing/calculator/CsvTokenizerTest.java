@@ -0,0 +1,126 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CsvTokenizerTest {
+
+    private static final String CSV = "\uFEFF,\"temperature\",\"rain (1=wet, 0=dry)\",\"say \"\"hi\"\"\"\r\n"
+            + "2021-04-01 00:00:00,10.5,,-3e2\r\n"
+            + "\n"
+            + "last,\"\u00B0C\"";
+
+    /**
+     * Reads all cells as text.
+     *
+     * @param tokenizer the tokenizer.
+     *
+     * @return the cells of every line.
+     *
+     * @throws IOException if the data could not be read.
+     */
+    private static List<List<String>> readAll(CsvTokenizer tokenizer) throws IOException {
+        List<List<String>> lines = new ArrayList<>();
+        while (tokenizer.nextLine()) {
+            List<String> cells = new ArrayList<>();
+            while (tokenizer.nextCell()) {
+                cells.add(tokenizer.getString());
+            }
+            lines.add(cells);
+        }
+        return lines;
+    }
+
+    /**
+     * Creates a stream that returns at most a few bytes per read, so cells cross buffer refills.
+     *
+     * @param data the data.
+     *
+     * @return the stream.
+     */
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    @Test
+    public void splitsQuotedAndUnquotedCells() throws IOException {
+        List<List<String>> lines = readAll(new CsvTokenizer(CSV.getBytes(StandardCharsets.UTF_8), ','));
+        assertEquals(4, lines.size());
+        assertEquals(List.of("", "temperature", "rain (1=wet, 0=dry)", "say \"hi\""), lines.get(0));
+        assertEquals(List.of("2021-04-01 00:00:00", "10.5", "", "-3e2"), lines.get(1));
+        assertEquals(List.of(""), lines.get(2));
+        assertEquals(List.of("last", "\u00B0C"), lines.get(3));
+    }
+
+    @Test
+    public void streamsAcrossBufferRefills() throws IOException {
+        byte[] data = CSV.getBytes(StandardCharsets.UTF_8);
+        assertEquals(readAll(new CsvTokenizer(data, ',')), readAll(new CsvTokenizer(trickle(data), ',')));
+    }
+
+    @Test
+    public void growsBufferForLongCells() throws IOException {
+        String longCell = "x".repeat(3 * CsvTokenizer.DEFAULT_BUFFER_SIZE);
+        byte[] data = ("a," + longCell + ",b\n").getBytes(StandardCharsets.UTF_8);
+        assertEquals(List.of(List.of("a", longCell, "b")), readAll(new CsvTokenizer(new ByteArrayInputStream(data), ',')));
+    }
+
+    @Test
+    public void skipsUnreadCells() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(CSV.getBytes(StandardCharsets.UTF_8), ',');
+        assertTrue(tokenizer.nextLine());
+        assertTrue(tokenizer.nextLine());
+        assertTrue(tokenizer.nextCell());
+        assertEquals("2021-04-01 00:00:00", tokenizer.getString());
+        assertFalse(tokenizer.isQuoted());
+        assertEquals('2', tokenizer.byteAt(0));
+    }
+
+    @Test
+    public void parsesNumbers() throws IOException {
+        String[] numbers = {"0", "-0.0", "10.5", "-3e2", "1E-5", "+7", "0.1", "123456789.123456789",
+                "0.000000000000000000000000001", "1.7976931348623157e308", "4.9e-324", "NaN", "Infinity",
+                "12345678901234567890123", ".5", "5."};
+        CsvTokenizer tokenizer = new CsvTokenizer(String.join(",", numbers).getBytes(StandardCharsets.UTF_8), ',');
+        assertTrue(tokenizer.nextLine());
+        for (String number : numbers) {
+            assertTrue(tokenizer.nextCell());
+            double expected = Double.parseDouble(number);
+            assertEquals(number, expected, tokenizer.getDouble(), Math.ulp(expected));
+        }
+    }
+
+    @Test
+    public void emptyCellsAreNaN() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer("1,,\"\"".getBytes(StandardCharsets.UTF_8), ',');
+        assertTrue(tokenizer.nextLine());
+        assertTrue(tokenizer.nextCell());
+        assertEquals(1.0, tokenizer.getDouble(), 0.0);
+        assertTrue(tokenizer.nextCell());
+        assertTrue(Double.isNaN(tokenizer.getDouble()));
+        assertTrue(tokenizer.nextCell());
+        assertTrue(Float.isNaN(tokenizer.getFloat()));
+        assertFalse(tokenizer.nextCell());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsText() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer("abc".getBytes(StandardCharsets.UTF_8), ',');
+        tokenizer.nextLine();
+        tokenizer.nextCell();
+        tokenizer.getDouble();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class FeatureSchemaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "schemas/test.schema");
+        new FeatureSchema(new int[] {3, 0, 3, 7}).write(file, 1);
+
+        FeatureSchema schema = FeatureSchema.read(file, 1);
+        assertNotNull(schema);
+        assertEquals(4, schema.size());
+        assertEquals(3, schema.getFeatureIndex(0));
+        assertEquals(7, schema.getFeatureIndex(3));
+    }
+
+    @Test
+    public void ignoresOtherAssets() throws IOException {
+        File file = new File(folder.getRoot(), "test.schema");
+        new FeatureSchema(new int[] {1, 2}).write(file, 1);
+        assertNull(FeatureSchema.read(file, 2));
+    }
+
+    @Test
+    public void writeAndReadEmpty() throws IOException {
+        File file = new File(folder.getRoot(), "empty.schema");
+        new FeatureSchema(new int[0]).write(file, 1);
+        assertEquals(0, FeatureSchema.read(file, 1).size());
+    }
+
+    @Test
+    public void checksumCoversTheClimateDataHeaderOnly() throws IOException {
+        long checksum = checksum("a;b;c", "x,y", ",\"t\"\n2021-04-01 00:00:00,1\n");
+        assertEquals(checksum, checksum("a;b;c", "x,y", ",\"t\"\n2021-04-01 00:00:00,2\n"));
+        assertNotEquals(checksum, checksum("a;b;c", "x,y", ",\"u\"\n2021-04-01 00:00:00,1\n"));
+        assertNotEquals(checksum, checksum("a;b;d", "x,y", ",\"t\"\n2021-04-01 00:00:00,1\n"));
+        assertNotEquals(checksum, checksum("a;b;c", "x,z", ",\"t\"\n2021-04-01 00:00:00,1\n"));
+    }
+
+    private static long checksum(String attributeInformation, String weights, String climateData)
+            throws IOException {
+        return FeatureSchema.checksum(toStream(attributeInformation), toStream(weights), toStream(climateData));
+    }
+
+    private static InputStream toStream(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void fileNameHasNoDirectories() {
+        assertEquals("weights_a.csv--climate-data_b.csv.schema",
+                FeatureSchema.toFileName("weights/a.csv", "climate-data/b.csv"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuantileCacheTest {
+
+    private QuantileCache cache;
+
+    @Before
+    public void setup() {
+        cache = new QuantileCache(2);
+    }
+
+    @Test
+    public void getMissing() {
+        assertNull(cache.get("missing"));
+    }
+
+    @Test
+    public void putAndGet() {
+        cache.put("a", new double[] {1.0, 2.0});
+        assertArrayEquals(new double[] {1.0, 2.0}, cache.get("a"), 0.0);
+    }
+
+    @Test
+    public void returnsCopies() {
+        double[] quantiles = {1.0};
+        cache.put("a", quantiles);
+        quantiles[0] = 5.0;
+        cache.get("a")[0] = 7.0;
+        assertArrayEquals(new double[] {1.0}, cache.get("a"), 0.0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.put("a", new double[] {1.0});
+        cache.put("b", new double[] {2.0});
+        cache.get("a");
+        cache.put("c", new double[] {3.0});
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void keyContainsAllInputs() {
+        String key = QuantileCache.createKey("2021-04-15 14:00:00", "climate-data-standardized.csv",
+                "weights/KRR-a100-d1_weights_mean.csv", new int[] {0}, 336);
+        assertNotEquals(key, QuantileCache.createKey("2021-04-15 15:00:00", "climate-data-standardized.csv",
+                "weights/KRR-a100-d1_weights_mean.csv", new int[] {0}, 336));
+        assertNotEquals(key, QuantileCache.createKey("2021-04-15 14:00:00", "climate-data-standardized.csv",
+                "weights/KRR-a100-d1_weights_mean.csv", new int[] {0, 43}, 336));
+        assertNotEquals(key, QuantileCache.createKey("2021-04-15 14:00:00", "climate-data-standardized.csv",
+                "weights/KRR-a100-d1_weights_mean.csv", new int[] {0}, 168));
+        assertEquals(key, QuantileCache.createKey("2021-04-15 14:00:00", "climate-data-standardized.csv",
+                "weights/KRR-a100-d1_weights_mean.csv", new int[] {0}, 336));
+    }
+}
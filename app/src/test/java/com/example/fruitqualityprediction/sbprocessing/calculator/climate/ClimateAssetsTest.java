@@ -0,0 +1,35 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class ClimateAssetsTest {
+
+    @Test
+    public void binaryCopiesMatchTheirCsvFiles() throws IOException {
+        // The app only compares the sizes, so an outdated copy of the same size is caught here
+        File assets = new File("src/main/assets").isDirectory() ? new File("src/main/assets")
+                : new File("app/src/main/assets");
+        File[] csvFiles = new File(assets, "climate-data").listFiles((directory, name) -> name.endsWith(".csv"));
+        assertNotNull(csvFiles);
+        assertTrue(csvFiles.length > 0);
+        for (File csvFile : csvFiles) {
+            File binaryFile = new File(assets, ClimateStore.toBinaryAssetPath(csvFile.getName()));
+            assertTrue("Missing " + binaryFile + ", run runClimateDataConverter", binaryFile.isFile());
+            ClimateStore copy = ClimateStore.read(ByteBuffer.wrap(Files.readAllBytes(binaryFile.toPath())));
+            try (InputStream inputStream = new FileInputStream(csvFile)) {
+                assertEquals(binaryFile + " is outdated, run runClimateDataConverter",
+                        ClimateStore.checksum(inputStream), copy.getSourceChecksum());
+            }
+            assertEquals(csvFile.length(), copy.getSourceSize());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class ClimateFeedTest {
+
+    private static final String CSV = ",\"temperature\",\"humidity\"\n"
+            + "2021-04-01 00:00:00,10,50\n"
+            + "2021-04-01 01:00:00,12,60\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ClimateStore store;
+
+    @Before
+    public void setup() throws IOException {
+        store = ClimateStore.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readsNewLinesOfFile() throws IOException {
+        File file = folder.newFile("feed.csv");
+        ClimateFeed feed = new ClimateFeed(store);
+        write(file, CSV);
+        assertEquals(0, feed.readFile(file));
+
+        write(file, "2021-04-01 02:00:00,14,70\n2021-04-01 03:00:00,1");
+        assertEquals(1, feed.readFile(file));
+        assertEquals(3, store.getRowCount());
+
+        // The last line is completed later
+        write(file, "6,80\r\n");
+        assertEquals(1, feed.readFile(file));
+        assertEquals(16.0, store.getValue(3, 0), 0.0);
+        assertEquals(0, feed.readFile(file));
+        assertEquals(2, feed.getAppendedRows());
+    }
+
+    @Test
+    public void readsLinesFromSocket() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             ClimateFeed feed = ClimateFeed.connect(store, server.getInetAddress().getHostAddress(),
+                     server.getLocalPort(), 10)) {
+            try (Socket client = server.accept();
+                 OutputStream outputStream = client.getOutputStream()) {
+                outputStream.write("2021-04-01 02:00:00,14,70\n2021-04-01 03:00:00,16,80\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (feed.getAppendedRows() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            assertEquals(2, feed.getAppendedRows());
+            assertEquals(3, store.indexOf("2021-04-01 03:00:00"));
+        }
+    }
+
+    private static void write(File file, String text) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+            outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
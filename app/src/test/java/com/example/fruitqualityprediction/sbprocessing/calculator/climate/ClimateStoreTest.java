@@ -0,0 +1,216 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+public class ClimateStoreTest {
+
+    private static final String CSV = ",\"temperature\",\"rain (1=wet, 0=dry)\",\"humidity\"\n"
+            + "2021-04-01 00:00:00,10,0,50\n"
+            + "2021-04-01 01:00:00,12,,60\n"
+            + "2021-04-01 02:00:00,14,1,\n"
+            + "2021-04-01 03:00:00,16,1,80\n"
+            + ",,,\n"
+            + "Link to dashboard,\"https://example.com\"\n";
+
+    private ClimateStore store;
+
+    @Before
+    public void setup() throws IOException {
+        store = ClimateStore.parse(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void parsesQuotedHeader() {
+        assertEquals(3, store.getColumnCount());
+        assertEquals("rain (1=wet, 0=dry)", store.getColumnName(1));
+    }
+
+    @Test
+    public void skipsRowsWithoutTimestamp() {
+        assertEquals(4, store.getRowCount());
+    }
+
+    @Test
+    public void emptyCellsAreNaN() {
+        assertTrue(Double.isNaN(store.getValue(1, 1)));
+        assertTrue(Double.isNaN(store.getValue(2, 2)));
+        assertEquals(12.0, store.getValue(1, 0), 0.0);
+    }
+
+    @Test
+    public void rowsWithoutLastValueAreIncomplete() {
+        assertTrue(store.isComplete(1));
+        assertFalse(store.isComplete(2));
+    }
+
+    @Test
+    public void indexOf() {
+        assertEquals(0, store.indexOf("2021-04-01 00:00:00"));
+        assertEquals(3, store.indexOf("2021-04-01 03:00:00"));
+        assertEquals(-1, store.indexOf("2021-04-01 04:00:00"));
+        assertEquals(-1, store.indexOf("not a timestamp"));
+    }
+
+    @Test
+    public void windowAveragesCountMissingAsZero() {
+        ClimateWindow window = store.getWindow(1, 4);
+        assertEquals(3, window.size());
+        assertEquals(14.0, window.getValue(1, 0), 0.0);
+        assertArrayEquals(new double[] {14.0, 2.0 / 3, 140.0 / 3}, window.getAverages(), 1e-9);
+    }
+
+    @Test
+    public void prefixSumsAndMissingCounts() {
+        assertEquals(42.0, store.getSum(0, 1, 4), 0.0);
+        assertEquals(2.0, store.getSum(1, 0, 4), 0.0);
+        assertEquals(1, store.getMissingCount(1, 0, 4));
+        assertEquals(0, store.getMissingCount(1, 2, 4));
+        assertEquals(0.0, store.getSum(2, 2, 2), 0.0);
+    }
+
+    @Test
+    public void observedAveragesIgnoreMissing() {
+        ClimateWindow window = store.getWindow(1, 4);
+        assertArrayEquals(new int[] {0, 1, 1}, window.getMissingCounts());
+        assertArrayEquals(new double[] {14.0, 1.0, 70.0}, window.getObservedAverages(), 1e-9);
+    }
+
+    @Test
+    public void floatValuesKeepDoubleAverages() throws IOException {
+        // The values are stored as floats, the averages of the parsed doubles must stay within 1e-6
+        Random random = new Random(42);
+        int rowCount = 14 * 24;
+        double[] sums = new double[2];
+        StringBuilder csv = new StringBuilder(",standardized,absolute\n");
+        for (int row = 0; row < rowCount; row++) {
+            double standardized = random.nextGaussian();
+            double absolute = 1000 + 100 * random.nextDouble();
+            sums[0] += standardized;
+            sums[1] += absolute;
+            csv.append(String.format(Locale.ROOT, "2021-04-%02d %02d:00:00,%s,%s%n", 1 + row / 24, row % 24,
+                    Double.toString(standardized), Double.toString(absolute)));
+        }
+        ClimateStore parsed = ClimateStore.parse(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)));
+
+        double[] averages = parsed.getWindow(0, rowCount).getAverages();
+        assertEquals(sums[0] / rowCount, averages[0], 1e-6);
+        assertEquals(sums[1] / rowCount, averages[1], 1e-6 * sums[1] / rowCount);
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        store.write(outputStream);
+        ClimateStore copy = ClimateStore.read(ByteBuffer.wrap(outputStream.toByteArray()));
+
+        assertEquals(store.getRowCount(), copy.getRowCount());
+        assertEquals("rain (1=wet, 0=dry)", copy.getColumnName(1));
+        assertEquals(store.getEpochHour(3), copy.getEpochHour(3));
+        assertFalse(copy.isComplete(2));
+        assertTrue(Double.isNaN(copy.getValue(1, 1)));
+        assertEquals(16.0, copy.getValue(3, 0), 0.0);
+        assertArrayEquals(store.getWindow(0, 4).getAverages(), copy.getWindow(0, 4).getAverages(), 0.0);
+    }
+
+    @Test
+    public void binaryKeepsPrefixesAndAppends() throws IOException {
+        store.appendLine("2021-04-01 04:00:00,18,,");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        store.write(outputStream);
+        ClimateStore copy = ClimateStore.read(ByteBuffer.wrap(outputStream.toByteArray()));
+
+        assertEquals(5, copy.getRowCount());
+        assertEquals(60.0, copy.getSum(0, 1, 5), 0.0);
+        assertEquals(2, copy.getMissingCount(1, 0, 5));
+        assertTrue(copy.appendLine("2021-04-01 05:00:00,20,1,90"));
+        assertEquals(80.0, copy.getSum(0, 1, 6), 0.0);
+        assertEquals(3.0, copy.getSum(1, 0, 6), 0.0);
+        assertEquals(2, copy.getMissingCount(2, 2, 6));
+    }
+
+    @Test
+    public void binaryRecordsTheSourceSize() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        store.write(outputStream);
+        ClimateStore copy = ClimateStore.read(ByteBuffer.wrap(outputStream.toByteArray()));
+
+        assertEquals(CSV.getBytes(StandardCharsets.UTF_8).length, store.getSourceSize());
+        assertEquals(store.getSourceSize(), copy.getSourceSize());
+    }
+
+    @Test
+    public void binaryRecordsTheSourceChecksum() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        store.write(outputStream);
+        ClimateStore copy = ClimateStore.read(ByteBuffer.wrap(outputStream.toByteArray()));
+
+        long checksum = ClimateStore.checksum(new ByteArrayInputStream(CSV.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(checksum, copy.getSourceChecksum());
+        String edited = CSV.replace("16,1,80", "17,1,80");
+        assertNotEquals(checksum, ClimateStore.checksum(new ByteArrayInputStream(edited.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedBinary() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        store.write(outputStream);
+        byte[] bytes = outputStream.toByteArray();
+        ClimateStore.read(ByteBuffer.wrap(bytes, 0, bytes.length - 4).slice());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws IOException {
+        ClimateStore.read(ByteBuffer.wrap(CSV.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void binaryAssetPath() {
+        assertEquals("climate-data-binary/climate-data.climate",
+                ClimateStore.toBinaryAssetPath("climate-data/climate-data.csv"));
+    }
+
+    @Test
+    public void appendUpdatesWindows() {
+        assertTrue(store.appendLine("2021-04-01 05:00:00,20,,90"));
+        assertEquals(5, store.getRowCount());
+        assertEquals(4, store.indexOf("2021-04-01 05:00:00"));
+        assertTrue(Double.isNaN(store.getValue(4, 1)));
+        assertArrayEquals(new double[] {50.0 / 3, 2.0 / 3, 170.0 / 3}, store.getWindow(2, 5).getAverages(), 1e-9);
+        assertEquals(2, store.getMissingCount(1, 0, 5));
+    }
+
+    @Test
+    public void appendSkipsOldRowsAndHeaders() {
+        assertFalse(store.appendLine("2021-04-01 03:00:00,1,1,1"));
+        assertFalse(store.appendLine(",\"temperature\",\"rain\",\"humidity\""));
+        assertEquals(4, store.getRowCount());
+    }
+
+    @Test
+    public void appendManyRows() {
+        long epochHour = store.getEpochHour(3);
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(store.append(epochHour + i, new float[] {1, 1, 1}, true));
+        }
+        assertEquals(104, store.getRowCount());
+        assertArrayEquals(new double[] {1, 1, 1}, store.getWindow(4, 104).getAverages(), 0.0);
+        assertEquals(10.0, store.getValue(0, 0), 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnorderedData() throws IOException {
+        String csv = ",a\n2021-04-01 01:00:00,1\n2021-04-01 00:00:00,2\n";
+        ClimateStore.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+}
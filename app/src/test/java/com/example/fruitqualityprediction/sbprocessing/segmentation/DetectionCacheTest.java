@@ -0,0 +1,202 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class DetectionCacheTest {
+
+    /**
+     * Creates a list with one strawberry.
+     */
+    private static List<StrawberrySegment> segments(Rect box) {
+        List<StrawberrySegment> segments = new ArrayList<>();
+        segments.add(new StrawberrySegment(box));
+        return segments;
+    }
+
+    /**
+     * Creates a 9 by 8 thumbnail whose brightness increases from left to right.
+     */
+    private static byte[] gradient() {
+        byte[] pixels = new byte[9 * 8];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (i % 9 * 20);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void differenceHashComparesNeighbours() {
+        byte[] pixels = gradient();
+        assertEquals(0, CachingStrawberryDetector.differenceHash(pixels));
+
+        pixels[0] = (byte) 200;
+        assertEquals(1L << 63, CachingStrawberryDetector.differenceHash(pixels));
+    }
+
+    @Test
+    public void differenceHashIgnoresBrightness() {
+        byte[] pixels = gradient();
+        byte[] brighter = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            brighter[i] = (byte) ((pixels[i] & 0xFF) + 50);
+        }
+        assertEquals(CachingStrawberryDetector.differenceHash(pixels), CachingStrawberryDetector.differenceHash(brighter));
+    }
+
+    /**
+     * Creates a 90 by 80 grayscale photo whose brightness increases from left to right, with a
+     * small bright strawberry.
+     */
+    private static byte[] scene(int strawberryX, int strawberryY) {
+        byte[] pixels = new byte[90 * 80];
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 90; x++) {
+                boolean strawberry = x >= strawberryX && x < strawberryX + 4 && y >= strawberryY && y < strawberryY + 4;
+                pixels[y * 90 + x] = (byte) (x / 10 * 20 + (strawberry ? 40 : 0));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Scales a 90 by 80 photo down to the 9 by 8 thumbnail of the difference hash.
+     */
+    private static byte[] thumbnail(byte[] pixels) {
+        byte[] thumbnail = new byte[9 * 8];
+        for (int ty = 0; ty < 8; ty++) {
+            for (int tx = 0; tx < 9; tx++) {
+                int sum = 0;
+                for (int y = ty * 10; y < ty * 10 + 10; y++) {
+                    for (int x = tx * 10; x < tx * 10 + 10; x++) {
+                        sum += pixels[y * 90 + x] & 0xFF;
+                    }
+                }
+                thumbnail[ty * 9 + tx] = (byte) (sum / 100);
+            }
+        }
+        return thumbnail;
+    }
+
+    @Test
+    public void onlyReusesTheSameImageByDefault() {
+        DetectionCache cache = new DetectionCache();
+        cache.put(0b1010L, 100, 50, segments(new Rect(10, 10, 20, 20)));
+
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cache.get(0b1010L, 100, 50));
+        assertNull(cache.get(0b1011L, 100, 50));
+        assertNull(cache.get(0b1010L, 200, 100));
+    }
+
+    @Test
+    public void tellsSimilarScenesApart() {
+        // Two photos of the same row with the strawberry elsewhere have the same difference hash
+        byte[] scene = scene(12, 12);
+        byte[] otherScene = scene(52, 42);
+        assertEquals(CachingStrawberryDetector.differenceHash(thumbnail(scene)),
+                CachingStrawberryDetector.differenceHash(thumbnail(otherScene)));
+
+        DetectionCache cache = new DetectionCache();
+        cache.put(CachingStrawberryDetector.checksum(scene), 90, 80, segments(new Rect(12, 12, 4, 4)));
+
+        assertNull(cache.get(CachingStrawberryDetector.checksum(otherScene), 90, 80));
+        assertEquals(segments(new Rect(12, 12, 4, 4)), cache.get(CachingStrawberryDetector.checksum(scene.clone()), 90, 80));
+    }
+
+    @Test
+    public void returnsNearDuplicates() {
+        DetectionCache cache = new DetectionCache(DetectionCache.DEFAULT_BUDGET, DetectionCache.NEAR_DUPLICATE_DISTANCE);
+        cache.put(0b1010L, 100, 50, segments(new Rect(10, 10, 20, 20)));
+
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cache.get(0b1010L, 100, 50));
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cache.get(0b1011L, 100, 50));
+        assertNull(cache.get(0b0101L | 0xF0L, 100, 50));
+        assertNull(cache.get(0b1010L, 100, 100));
+    }
+
+    @Test
+    public void matchesRetakesAsNearDuplicates() {
+        // A retake of the same scene has other noise and a slightly different exposure
+        byte[] scene = scene(12, 12);
+        byte[] retake = new byte[scene.length];
+        Random random = new Random(42);
+        for (int i = 0; i < scene.length; i++) {
+            retake[i] = (byte) ((scene[i] & 0xFF) + 10 + random.nextInt(7) - 3);
+        }
+        long hash = CachingStrawberryDetector.differenceHash(thumbnail(scene));
+        long retakeHash = CachingStrawberryDetector.differenceHash(thumbnail(retake));
+        assertNotEquals(CachingStrawberryDetector.checksum(scene), CachingStrawberryDetector.checksum(retake));
+
+        DetectionCache cache = new DetectionCache(DetectionCache.DEFAULT_BUDGET, DetectionCache.NEAR_DUPLICATE_DISTANCE);
+        cache.put(hash, 90, 80, segments(new Rect(12, 12, 4, 4)));
+
+        assertEquals(segments(new Rect(12, 12, 4, 4)), cache.get(retakeHash, 90, 80));
+    }
+
+    @Test
+    public void rescalesToTheImageSize() {
+        DetectionCache cache = new DetectionCache(DetectionCache.DEFAULT_BUDGET, DetectionCache.NEAR_DUPLICATE_DISTANCE);
+        cache.put(7, 100, 50, segments(new Rect(10, 10, 20, 20)));
+
+        assertEquals(segments(new Rect(20, 20, 40, 40)), cache.get(7, 200, 100));
+    }
+
+    @Test
+    public void returnsCopies() {
+        DetectionCache cache = new DetectionCache();
+        List<StrawberrySegment> detected = segments(new Rect(10, 10, 20, 20));
+        cache.put(7, 100, 50, detected);
+        detected.get(0).getBoundingBox().x = 0;
+        cache.get(7, 100, 50).get(0).getBoundingBox().x = 0;
+
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cache.get(7, 100, 50));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        long entryBytes = DetectionCache.estimateSize(segments(new Rect()));
+        DetectionCache cache = new DetectionCache(2 * entryBytes, 0);
+        cache.put(1, 100, 50, segments(new Rect()));
+        cache.put(2, 100, 50, segments(new Rect()));
+        cache.get(1, 100, 50);
+        cache.put(3, 100, 50, segments(new Rect()));
+
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2 * entryBytes, cache.getSize());
+        assertNotNull(cache.get(1, 100, 50));
+        assertNull(cache.get(2, 100, 50));
+        assertNotNull(cache.get(3, 100, 50));
+    }
+
+    @Test
+    public void doesNotRememberFailedDetections() {
+        // The first request fails and the second one finds a strawberry
+        List<CompletableFuture<List<StrawberrySegment>>> results = new ArrayList<>();
+        results.add(CompletableFuture.failedFuture(new java.io.IOException("Offline")));
+        results.add(CompletableFuture.completedFuture(segments(new Rect(10, 10, 20, 20))));
+        AsyncStrawberryDetector detector = image -> results.remove(0);
+        CachingStrawberryDetector cachingDetector = new CachingStrawberryDetector(detector);
+
+        assertTrue(cachingDetector.detectStrawberries(7, 100, 50, null).isEmpty());
+        assertEquals(0, cachingDetector.getCache().getEntryCount());
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cachingDetector.detectStrawberries(7, 100, 50, null));
+        assertEquals(segments(new Rect(10, 10, 20, 20)), cachingDetector.detectStrawberries(7, 100, 50, null));
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void clearReleasesTheMemory() {
+        DetectionCache cache = new DetectionCache();
+        cache.put(1, 100, 50, segments(new Rect()));
+        cache.clear();
+
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(1, 100, 50));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class PipelinedStrawberryDetectorTest {
+
+    private final List<CompletableFuture<List<StrawberrySegment>>> requests = new ArrayList<>(); // The requests the fake detector received.
+    private PipelinedStrawberryDetector pipeline;
+
+    @Before
+    public void setUp() {
+        AsyncStrawberryDetector detector = image -> {
+            CompletableFuture<List<StrawberrySegment>> request = new CompletableFuture<>();
+            requests.add(request);
+            return request;
+        };
+        pipeline = new PipelinedStrawberryDetector(detector, 2);
+    }
+
+    /**
+     * Creates a result with one strawberry.
+     */
+    private static List<StrawberrySegment> result(int x) {
+        List<StrawberrySegment> segments = new ArrayList<>();
+        segments.add(new StrawberrySegment(new Rect(x, 0, 10, 10)));
+        return segments;
+    }
+
+    @Test
+    public void limitsFramesInFlight() {
+        pipeline.detectStrawberriesAsync((Mat) null);
+        pipeline.detectStrawberriesAsync((Mat) null);
+        pipeline.detectStrawberriesAsync((Mat) null);
+        assertEquals(2, requests.size());
+
+        requests.get(0).complete(result(0));
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void coalescesWaitingFrames() {
+        pipeline.detectStrawberriesAsync((Mat) null);
+        pipeline.detectStrawberriesAsync((Mat) null);
+        CompletableFuture<List<StrawberrySegment>> superseded = pipeline.detectStrawberriesAsync((Mat) null);
+        CompletableFuture<List<StrawberrySegment>> newest = pipeline.detectStrawberriesAsync((Mat) null);
+        assertTrue(superseded.isCancelled());
+        assertFalse(newest.isDone());
+
+        requests.get(0).complete(result(0));
+        assertEquals(3, requests.size());
+        requests.get(2).complete(result(2));
+        assertEquals(result(2), newest.join());
+    }
+
+    @Test
+    public void dropsStaleResults() {
+        CompletableFuture<List<StrawberrySegment>> older = pipeline.detectStrawberriesAsync((Mat) null);
+        CompletableFuture<List<StrawberrySegment>> newer = pipeline.detectStrawberriesAsync((Mat) null);
+
+        requests.get(1).complete(result(1));
+        requests.get(0).complete(result(0));
+        assertEquals(result(1), newer.join());
+        assertTrue(older.isCancelled());
+    }
+
+    @Test
+    public void passesFailuresOn() {
+        CompletableFuture<List<StrawberrySegment>> failed = pipeline.detectStrawberriesAsync((Mat) null);
+        pipeline.detectStrawberriesAsync((Mat) null);
+        CompletableFuture<List<StrawberrySegment>> waiting = pipeline.detectStrawberriesAsync((Mat) null);
+
+        requests.get(0).completeExceptionally(new RuntimeException("offline"));
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(3, requests.size());
+        requests.get(2).complete(result(2));
+        assertEquals(result(2), waiting.join());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPipeline() {
+        new PipelinedStrawberryDetector(image -> new CompletableFuture<>(), 0);
+    }
+}
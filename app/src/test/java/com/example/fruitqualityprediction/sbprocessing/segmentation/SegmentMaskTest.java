@@ -0,0 +1,102 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SegmentMaskTest {
+
+    /**
+     * Creates a mask with a filled circle.
+     */
+    private static byte[] circle(int width, int height, int radius) {
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx = x - width / 2, dy = y - height / 2;
+                pixels[y * width + x] = dx * dx + dy * dy <= radius * radius ? (byte) 255 : 0;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void roundTrip() {
+        byte[] pixels = circle(67, 45, 20);
+        SegmentMask mask = SegmentMask.fromPixels(pixels, 67, 45);
+        assertEquals(67, mask.getWidth());
+        assertEquals(45, mask.getHeight());
+        assertArrayEquals(pixels, mask.toPixels());
+        assertTrue(mask.contains(33, 22));
+        assertFalse(mask.contains(0, 0));
+    }
+
+    @Test
+    public void area() {
+        byte[] pixels = circle(67, 45, 20);
+        int expected = 0;
+        for (byte pixel : pixels) {
+            expected += pixel != 0 ? 1 : 0;
+        }
+        assertEquals(expected, SegmentMask.fromPixels(pixels, 67, 45).getArea());
+        assertEquals(0, SegmentMask.fromPixels(new byte[12], 4, 3).getArea());
+    }
+
+    @Test
+    public void crop() {
+        SegmentMask mask = SegmentMask.fromPixels(circle(67, 45, 20), 67, 45);
+        SegmentMask part = mask.crop(30, 10, 20, 25);
+        assertEquals(20, part.getWidth());
+        assertEquals(25, part.getHeight());
+        for (int y = 0; y < 25; y++) {
+            for (int x = 0; x < 20; x++) {
+                assertEquals(mask.contains(30 + x, 10 + y), part.contains(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void resize() {
+        SegmentMask mask = SegmentMask.fromPixels(new byte[] {(byte) 255, 0, 0, (byte) 255}, 2, 2);
+        SegmentMask larger = mask.resize(4, 6);
+        assertEquals(4, larger.getWidth());
+        assertEquals(6, larger.getHeight());
+        assertTrue(larger.contains(1, 2));
+        assertFalse(larger.contains(2, 2));
+        assertTrue(larger.contains(3, 5));
+        assertEquals(12, larger.getArea());
+        assertEquals(mask, larger.resize(2, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutside() {
+        SegmentMask.fromPixels(new byte[12], 4, 3).crop(2, 0, 3, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongPixelCount() {
+        SegmentMask.fromPixels(new byte[11], 4, 3);
+    }
+
+    @Test
+    public void equality() {
+        SegmentMask a = SegmentMask.fromPixels(circle(30, 30, 10), 30, 30);
+        SegmentMask b = SegmentMask.fromPixels(circle(30, 30, 10), 30, 30);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, SegmentMask.fromPixels(circle(30, 30, 9), 30, 30));
+    }
+
+    @Test
+    public void colorDerivedIsKept() {
+        SegmentMask mask = SegmentMask.fromPixels(circle(67, 45, 20), 67, 45);
+        assertFalse(mask.isColorDerived());
+        SegmentMask colored = mask.asColorDerived();
+        assertTrue(colored.isColorDerived());
+        assertArrayEquals(mask.toPixels(), colored.toPixels());
+        assertNotEquals(mask, colored);
+        assertTrue(colored.crop(30, 10, 20, 25).isColorDerived());
+        assertTrue(colored.resize(20, 30).isColorDerived());
+        assertFalse(mask.crop(30, 10, 20, 25).isColorDerived());
+    }
+}
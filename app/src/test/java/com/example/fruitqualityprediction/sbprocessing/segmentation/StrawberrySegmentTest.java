@@ -45,6 +45,15 @@ public class StrawberrySegmentTest {
         assertNull(strawberrySegment.getBitmap());
     }
 
+    @Test
+    public void mask() {
+        assertNull(strawberrySegment.getMask());
+        SegmentMask mask = SegmentMask.fromPixels(new byte[100 * 100], 100, 100);
+        strawberrySegment.setMask(mask);
+        assertSame(mask, strawberrySegment.getMask());
+        assertSame(mask, new StrawberrySegment(boundingBox, mask).getMask());
+    }
+
     @Test
     public void getRipeness() {
         assertNull(strawberrySegment.getRipeness());
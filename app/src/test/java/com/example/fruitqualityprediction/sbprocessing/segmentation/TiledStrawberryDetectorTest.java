@@ -0,0 +1,59 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TiledStrawberryDetectorTest {
+
+    @Test
+    public void singleTile() {
+        assertArrayEquals(new int[] {0}, TiledStrawberryDetector.tileOffsets(1024, 1024, 256));
+        assertArrayEquals(new int[] {0}, TiledStrawberryDetector.tileOffsets(500, 1024, 256));
+    }
+
+    @Test
+    public void tilesCoverTheImage() {
+        for (int length : new int[] {1025, 2048, 3000, 4096}) {
+            int[] offsets = TiledStrawberryDetector.tileOffsets(length, 1024, 256);
+            assertEquals(0, offsets[0]);
+            assertEquals(length - 1024, offsets[offsets.length - 1]);
+            for (int i = 1; i < offsets.length; i++) {
+                // Neighbouring tiles share at least the overlap
+                assertTrue(offsets[i - 1] + 1024 - offsets[i] >= 256);
+            }
+        }
+        assertEquals(2, TiledStrawberryDetector.tileOffsets(1792, 1024, 256).length);
+        assertEquals(3, TiledStrawberryDetector.tileOffsets(1793, 1024, 256).length);
+    }
+
+    @Test
+    public void mergesDuplicateDetections() {
+        List<Rect> merged = TiledStrawberryDetector.mergeBoxes(Arrays.asList(
+                new Rect(100, 100, 50, 50), new Rect(102, 101, 50, 50), new Rect(400, 400, 20, 20)), 0.5);
+        assertEquals(Arrays.asList(new Rect(100, 100, 52, 51), new Rect(400, 400, 20, 20)), merged);
+    }
+
+    @Test
+    public void mergesCutOffParts() {
+        // The part of a strawberry on the edge of a tile lies inside the full detection of the next tile
+        List<Rect> merged = TiledStrawberryDetector.mergeBoxes(Arrays.asList(
+                new Rect(1000, 200, 24, 60), new Rect(990, 200, 60, 62)), 0.5);
+        assertEquals(Arrays.asList(new Rect(990, 200, 60, 62)), merged);
+    }
+
+    @Test
+    public void keepsNeighbouringStrawberries() {
+        List<Rect> boxes = Arrays.asList(new Rect(0, 0, 50, 50), new Rect(40, 0, 50, 50), new Rect(100, 0, 50, 50));
+        assertEquals(boxes, TiledStrawberryDetector.mergeBoxes(boxes, 0.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidOverlap() {
+        new TiledStrawberryDetector(null, 512, 512, 0.5, null);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.color;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RedPixelClassifierTest {
+
+    private final RedPixelClassifier classifier = new RedPixelClassifier();
+
+    @Test
+    public void classifiesReds() {
+        assertTrue(classifier.isRed(255, 0, 0));
+        assertTrue(classifier.isRed(200, 40, 0));
+        assertTrue(classifier.isRed(255, 0, 60));
+    }
+
+    @Test
+    public void rejectsOtherColors() {
+        assertFalse(classifier.isRed(0, 255, 0));
+        assertFalse(classifier.isRed(0, 0, 255));
+        assertFalse(classifier.isRed(255, 128, 0));
+        assertFalse(classifier.isRed(255, 255, 255));
+        assertFalse(classifier.isRed(0, 0, 0));
+    }
+
+    @Test
+    public void rejectsDarkAndPaleReds() {
+        assertFalse(classifier.isRed(90, 0, 0));
+        assertTrue(classifier.isRed(100, 0, 0));
+        assertFalse(classifier.isRed(255, 220, 220));
+    }
+
+    @Test
+    public void roundsHueLikeOpenCV() {
+        // A hue of -14.8 rounds to 165 and -15.9 to 164
+        assertTrue(classifier.isRed(255, 0, 130));
+        assertFalse(classifier.isRed(255, 0, 140));
+    }
+
+    @Test
+    public void customThresholds() {
+        RedPixelClassifier orange = new RedPixelClassifier(20, 180, 60, 255, 50, 255);
+        assertTrue(orange.isRed(255, 128, 0));
+        assertTrue(orange.isRed(90, 0, 0));
+        assertFalse(orange.isRed(255, 0, 60));
+        assertEquals(20, orange.getLowHueMax());
+        assertEquals(50, orange.getValueMin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidThresholds() {
+        new RedPixelClassifier(10, 165, 200, 100, 100, 255);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHueOutOfRange() {
+        new RedPixelClassifier(10, 181, 60, 255, 100, 255);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.neural;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class CascadeStrawberryDetectorTest {
+
+    private final List<StrawberrySegment> candidates = Arrays.asList(
+            new StrawberrySegment(new Rect(0, 0, 10, 10)),
+            new StrawberrySegment(new Rect(20, 0, 10, 10)),
+            new StrawberrySegment(new Rect(40, 0, 10, 10)));
+
+    /**
+     * A classifier that returns fixed probabilities.
+     */
+    private static class FixedClassifier extends StrawberryCropClassifier {
+
+        private final float[] probabilities;
+        private int calls;
+
+        FixedClassifier(float... probabilities) {
+            super(null);
+            this.probabilities = probabilities;
+        }
+
+        @Override
+        public float[] classify(Mat image, List<Rect> boxes) throws IOException {
+            calls++;
+            if (probabilities == null) {
+                throw new FileNotFoundException(getModelFileName());
+            }
+            assertEquals(probabilities.length, boxes.size());
+            return probabilities;
+        }
+    }
+
+    @Test
+    public void keepsAcceptedCandidates() {
+        FixedClassifier classifier = new FixedClassifier(0.9f, 0.2f, 0.5f);
+        CascadeStrawberryDetector detector = new CascadeStrawberryDetector(image -> candidates, classifier);
+
+        List<StrawberrySegment> strawberries = detector.detectStrawberries(null);
+        assertEquals(Arrays.asList(candidates.get(0), candidates.get(2)), strawberries);
+        assertEquals(1, classifier.calls);
+    }
+
+    @Test
+    public void keepsCandidatesWithoutModel() {
+        CascadeStrawberryDetector detector = new CascadeStrawberryDetector(image -> candidates, new FixedClassifier((float[]) null));
+        assertEquals(candidates, detector.detectStrawberries(null));
+    }
+
+    @Test
+    public void widensCrops() {
+        assertEquals(new Rect(45, 18, 60, 24), StrawberryCropClassifier.widen(new Rect(50, 20, 50, 20), 200, 200));
+        assertEquals(new Rect(0, 0, 55, 22), StrawberryCropClassifier.widen(new Rect(0, 0, 50, 20), 200, 200));
+        assertEquals(new Rect(145, 178, 55, 22), StrawberryCropClassifier.widen(new Rect(150, 180, 50, 20), 200, 200));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.neural;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class NeuralStrawberryDetectorTest {
+
+    @Test
+    public void gridCoversAllLevels() {
+        float[] grid = NeuralStrawberryDetector.createGrid(416);
+        assertEquals((52 * 52 + 26 * 26 + 13 * 13) * 3, grid.length);
+
+        // The first anchor of the second level
+        int anchor = 52 * 52;
+        assertEquals(0, grid[anchor * 3], 0);
+        assertEquals(0, grid[anchor * 3 + 1], 0);
+        assertEquals(16, grid[anchor * 3 + 2], 0);
+
+        // The last anchor
+        int last = grid.length / 3 - 1;
+        assertArrayEquals(new float[] {12, 12, 32}, Arrays.copyOfRange(grid, last * 3, last * 3 + 3), 0);
+    }
+
+    @Test
+    public void decodesGridBoxes() {
+        float[] grid = {0, 0, 8, 3, 2, 8, 5, 1, 16};
+        float[] output = {
+                0.5f, 0.5f, 0, 0, 0.9f, 0.9f,
+                0.5f, 0.5f, (float) Math.log(2), 0, 0.9f, 0.8f,
+                0, 0, 0, 0, 0.1f, 1f,
+        };
+        List<float[]> boxes = NeuralStrawberryDetector.decode(output, 6, grid, 0.3f);
+        assertEquals(2, boxes.size());
+        assertArrayEquals(new float[] {0, 0, 8, 8, 0.81f}, boxes.get(0), 1e-5f);
+        assertArrayEquals(new float[] {20, 16, 36, 24, 0.72f}, boxes.get(1), 1e-5f);
+    }
+
+    @Test
+    public void decodesDecodedBoxes() {
+        float[] output = {100, 50, 20, 10, 0.8f};
+        List<float[]> boxes = NeuralStrawberryDetector.decode(output, 5, null, 0.3f);
+        assertEquals(1, boxes.size());
+        assertArrayEquals(new float[] {90, 45, 110, 55, 0.8f}, boxes.get(0), 1e-5f);
+    }
+
+    @Test
+    public void scoreCombinesObjectnessAndClass() {
+        float[] output = {100, 50, 20, 10, 0.5f, 0.5f};
+        assertTrue(NeuralStrawberryDetector.decode(output, 6, null, 0.3f).isEmpty());
+    }
+
+    @Test
+    public void suppressesOverlappingBoxes() {
+        List<float[]> boxes = Arrays.asList(
+                new float[] {0, 0, 10, 10, 0.6f},
+                new float[] {1, 1, 11, 11, 0.9f},
+                new float[] {20, 20, 30, 30, 0.5f},
+                new float[] {5, 0, 15, 10, 0.7f});
+        List<float[]> kept = NeuralStrawberryDetector.nonMaxSuppression(boxes, 0.45f);
+        assertEquals(3, kept.size());
+        assertEquals(0.9f, kept.get(0)[4], 0);
+        assertEquals(0.7f, kept.get(1)[4], 0);
+        assertEquals(0.5f, kept.get(2)[4], 0);
+    }
+}
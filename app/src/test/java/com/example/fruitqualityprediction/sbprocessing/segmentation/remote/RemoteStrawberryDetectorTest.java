@@ -0,0 +1,42 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.remote;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import org.junit.Test;
+import org.opencv.core.Rect;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+public class RemoteStrawberryDetectorTest {
+
+    private final RemoteStrawberryDetector detector = new RemoteStrawberryDetector("color");
+
+    @Test
+    public void decodesScaledBoxes() throws IOException {
+        String response = "[{\"x\": 10, \"y\": 20, \"width\": 30, \"height\": 40},"
+                + " {\"score\": 0.9, \"x\": 5.0, \"y\": 0, \"width\": 15.5, \"height\": 25, \"label\": {\"name\": \"ripe\"}}]";
+        List<StrawberrySegment> strawberries = detector.decodeStrawberryList(new StringReader(response), 0.5f);
+
+        assertEquals(2, strawberries.size());
+        assertEquals(new Rect(20, 40, 60, 80), strawberries.get(0).getBoundingBox());
+        assertEquals(new Rect(10, 0, 30, 50), strawberries.get(1).getBoundingBox());
+    }
+
+    @Test
+    public void decodesEmptyResponses() throws IOException {
+        assertTrue(detector.decodeStrawberryList("", 1).isEmpty());
+        assertTrue(detector.decodeStrawberryList("[]", 1).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedResponses() throws IOException {
+        detector.decodeStrawberryList("[{\"x\": 10, \"y\": 2", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidQuality() {
+        detector.setQuality(101);
+    }
+}
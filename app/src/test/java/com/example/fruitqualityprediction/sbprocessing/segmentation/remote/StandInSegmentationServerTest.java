@@ -0,0 +1,124 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.remote;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Rect;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class StandInSegmentationServerTest {
+
+    private StandInSegmentationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        // Reports one box the size of the image, instead of running color segmentation
+        server = new StandInSegmentationServer(0, 2, (method, parameters, body) -> {
+            if (!"color".equals(method)) {
+                throw new IOException("Unsupported method " + method);
+            }
+            List<Rect> boxes = new ArrayList<>();
+            boxes.add(new Rect(0, 0, Integer.parseInt(parameters.get("width")), Integer.parseInt(parameters.get("height"))));
+            boxes.add(new Rect(1, 2, 3, body.length));
+            return boxes;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Sends a request to the server.
+     */
+    private HttpURLConnection request(String requestMethod, String path, byte[] body) throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(requestMethod);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Reads the body of a response.
+     */
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        inputStream.transferTo(outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void answersWithBoxes() throws IOException {
+        HttpURLConnection connection = request("POST", "/segmentation/color?height=48&width=64&type=24&encoding=raw", new byte[5]);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/json", connection.getHeaderField("Content-Type"));
+
+        List<StrawberrySegment> strawberries = new RemoteStrawberryDetector("color")
+                .decodeStrawberryList(read(connection.getInputStream()), 1);
+        assertEquals(2, strawberries.size());
+        assertEquals(new Rect(0, 0, 64, 48), strawberries.get(0).getBoundingBox());
+        assertEquals(new Rect(1, 2, 3, 5), strawberries.get(1).getBoundingBox());
+    }
+
+    @Test
+    public void rejectsBadRequests() throws IOException {
+        assertEquals(405, request("GET", "/segmentation/color", null).getResponseCode());
+        assertEquals(404, request("POST", "/segmentation/", new byte[1]).getResponseCode());
+        assertEquals(400, request("POST", "/segmentation/unknown?width=1&height=1", new byte[1]).getResponseCode());
+    }
+
+    @Test
+    public void parsesQueries() {
+        Map<String, String> parameters = StandInSegmentationServer.parseQuery("height=480&width=640&encoding=jpeg&flag&name=a%20b");
+        assertEquals("480", parameters.get("height"));
+        assertEquals("jpeg", parameters.get("encoding"));
+        assertEquals("", parameters.get("flag"));
+        assertEquals("a b", parameters.get("name"));
+        assertTrue(StandInSegmentationServer.parseQuery(null).isEmpty());
+    }
+
+    @Test
+    public void writesJson() {
+        List<Rect> boxes = new ArrayList<>();
+        assertEquals("[]", StandInSegmentationServer.toJson(boxes));
+        boxes.add(new Rect(1, 2, 3, 4));
+        boxes.add(new Rect(5, 6, 7, 8));
+        assertEquals("[{\"x\":1,\"y\":2,\"width\":3,\"height\":4},{\"x\":5,\"y\":6,\"width\":7,\"height\":8}]",
+                StandInSegmentationServer.toJson(boxes));
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        long[] latencies = new long[100];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (100 - i) * 1_000_000L;
+        }
+        SegmentationLoadGenerator.Report report = new SegmentationLoadGenerator.Report(latencies, 3, 2_000_000_000L);
+        assertEquals(100, report.getSuccesses());
+        assertEquals(3, report.getFailures());
+        assertEquals(50, report.getLatencyMillis(50), 1e-9);
+        assertEquals(99, report.getLatencyMillis(99), 1e-9);
+        assertEquals(100, report.getLatencyMillis(100), 1e-9);
+        assertEquals(1, report.getLatencyMillis(0), 1e-9);
+        assertEquals(50, report.getThroughput(), 1e-9);
+    }
+}
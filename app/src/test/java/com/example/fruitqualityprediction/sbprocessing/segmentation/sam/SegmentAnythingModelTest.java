@@ -0,0 +1,108 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.sam;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import org.junit.Test;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import java.nio.FloatBuffer;
+
+public class SegmentAnythingModelTest {
+
+    @Test
+    public void scale() {
+        assertEquals(0.5, SegmentAnythingModelEncoder.getScale(2048, 1536), 1e-9);
+        assertEquals(2.0, SegmentAnythingModelEncoder.getScale(300, 512), 1e-9);
+    }
+
+    @Test
+    public void toTensor() {
+        // A 2x1 RGBA image in a 3x3 tensor
+        byte[] pixels = {(byte) 255, 0, 0, (byte) 255, 0, (byte) 128, 0, (byte) 255};
+        FloatBuffer tensor = SegmentAnythingModelEncoder.toTensor(pixels, 2, 1, 4, 3);
+        assertEquals(27, tensor.capacity());
+        assertEquals((255 - 123.675f) / 58.395f, tensor.get(0), 1e-5);
+        assertEquals((0 - 123.675f) / 58.395f, tensor.get(1), 1e-5);
+        assertEquals((128 - 116.28f) / 57.12f, tensor.get(9 + 1), 1e-5);
+        assertEquals((0 - 103.53f) / 57.375f, tensor.get(18), 1e-5);
+
+        // The padding stays zero
+        assertEquals(0, tensor.get(2), 0);
+        assertEquals(0, tensor.get(3), 0);
+        assertEquals(0, tensor.get(26), 0);
+    }
+
+    @Test
+    public void modelCoordinates() {
+        assertArrayEquals(new float[] {50, 25}, SegmentAnythingModelDecoder.toModelCoordinates(new Point(100, 50), 0.5), 1e-6f);
+    }
+
+    @Test
+    public void bestMask() {
+        assertEquals(2, SegmentAnythingModelDecoder.best(new float[] {0.1f, 0.5f, 0.9f, 0.3f}));
+        assertEquals(0, SegmentAnythingModelDecoder.best(new float[] {0.7f}));
+    }
+
+    @Test
+    public void toMask() {
+        // Two low resolution masks, of which the second is positive at (2, 1) and (3, 1)
+        float[] logits = new float[2 * 256 * 256];
+        java.util.Arrays.fill(logits, -1);
+        int offset = 256 * 256;
+        logits[offset + 256 + 2] = 3;
+        logits[offset + 256 + 3] = 0.5f;
+
+        // At a scale of 4 every image pixel is one mask pixel
+        SegmentMask mask = SegmentAnythingModelDecoder.toMask(FloatBuffer.wrap(logits), offset, 4, new Rect(1, 1, 2, 2));
+        assertEquals(2, mask.getWidth());
+        assertEquals(2, mask.getHeight());
+        assertEquals(1, mask.getArea());
+        assertTrue(mask.contains(1, 0));
+        assertFalse(mask.contains(0, 0));
+    }
+
+    @Test
+    public void toMaskScalesUp() {
+        // One positive mask pixel at (1, 1) covers the image pixels around (2.5, 2.5) at a scale of 2
+        float[] logits = new float[256 * 256];
+        java.util.Arrays.fill(logits, -1);
+        logits[256 + 1] = 4;
+        SegmentMask mask = SegmentAnythingModelDecoder.toMask(FloatBuffer.wrap(logits), 0, 2, new Rect(0, 0, 6, 6));
+        assertEquals(4, mask.getArea());
+        assertTrue(mask.contains(2, 2));
+        assertTrue(mask.contains(3, 3));
+        assertFalse(mask.contains(1, 1));
+        assertFalse(mask.contains(4, 4));
+
+        // A region is the same part of the mask
+        SegmentMask part = SegmentAnythingModelDecoder.toMask(FloatBuffer.wrap(logits), 0, 2, new Rect(2, 1, 3, 4));
+        assertEquals(mask.crop(2, 1, 3, 4), part);
+    }
+
+    @Test
+    public void maskSide() {
+        // A 4000x3000 photo is scaled to 1024x768 for the model, which is 256x192 in the masks
+        double scale = SegmentAnythingModelEncoder.getScale(4000, 3000);
+        assertEquals(256, SegmentAnythingModelDecoder.toMaskSide(4000, scale), 0);
+        assertEquals(192, SegmentAnythingModelDecoder.toMaskSide(3000, scale), 0);
+        assertEquals(1, SegmentAnythingModelDecoder.toMaskSide(1, scale), 0);
+    }
+
+    @Test
+    public void embeddingKey() {
+        // Photos with the same name but other pixels or another size are told apart
+        byte[] pixels = {1, 2, 3, 4, 5, 6};
+        byte[] other = {1, 2, 3, 4, 5, 7};
+        assertEquals(EmbeddingCache.getKey(pixels, 40, 30), EmbeddingCache.getKey(pixels.clone(), 40, 30));
+        assertNotEquals(EmbeddingCache.getKey(pixels, 40, 30), EmbeddingCache.getKey(other, 40, 30));
+        assertNotEquals(EmbeddingCache.getKey(pixels, 40, 30), EmbeddingCache.getKey(pixels, 80, 60));
+    }
+
+    @Test
+    public void clip() {
+        ImageEmbedding embedding = new ImageEmbedding(new float[0], new long[0], 100, 80, 10.24);
+        assertEquals(new Rect(90, 0, 10, 20), embedding.clip(new Rect(90, -10, 30, 30)));
+        assertEquals(new Rect(10, 10, 20, 20), embedding.clip(new Rect(10, 10, 20, 20)));
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.tracking;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ChangeDetectorTest {
+
+    @Test
+    public void mergesOverlappingRegions() {
+        List<Rect> merged = ChangeDetector.mergeOverlapping(Arrays.asList(
+                new Rect(0, 0, 10, 10), new Rect(20, 20, 10, 10), new Rect(5, 5, 20, 20)));
+        assertEquals(Collections.singletonList(new Rect(0, 0, 30, 30)), merged);
+    }
+
+    @Test
+    public void keepsTouchingRegionsApart() {
+        List<Rect> regions = Arrays.asList(new Rect(0, 0, 10, 10), new Rect(10, 0, 10, 10));
+        assertEquals(regions, ChangeDetector.mergeOverlapping(regions));
+    }
+
+    @Test
+    public void coversTouchedBoxes() {
+        List<Rect> regions = ChangeDetector.coverBoxes(
+                Collections.singletonList(new Rect(100, 100, 40, 40)),
+                Arrays.asList(new Rect(130, 90, 30, 30), new Rect(300, 300, 30, 30)));
+        assertEquals(Collections.singletonList(new Rect(100, 90, 60, 50)), regions);
+    }
+
+    @Test
+    public void coverage() {
+        List<Rect> regions = Arrays.asList(new Rect(0, 0, 100, 50), new Rect(100, 0, 100, 50));
+        assertEquals(0.25, ChangeDetector.coverage(regions, new Size(200, 200)), 1e-9);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.tracking;
+
+import static org.junit.Assert.*;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.SegmentMask;
+import org.junit.Test;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StrawberryTrackerTest {
+
+    private final List<Point> corners = Arrays.asList(
+            new Point(110, 110), new Point(140, 115), new Point(120, 140), new Point(145, 145));
+
+    /**
+     * Moves and scales the corners around a center.
+     */
+    private List<Point> transform(double dx, double dy, double scale) {
+        List<Point> moved = new ArrayList<>();
+        for (Point corner : corners) {
+            moved.add(new Point(125 + (corner.x - 125) * scale + dx, 125 + (corner.y - 125) * scale + dy));
+        }
+        return moved;
+    }
+
+    @Test
+    public void translatesBox() {
+        Rect box = StrawberryTracker.moveBox(new Rect(100, 100, 50, 50), corners, transform(12, -7, 1));
+        assertEquals(new Rect(112, 93, 50, 50), box);
+    }
+
+    @Test
+    public void scalesBox() {
+        Rect box = StrawberryTracker.moveBox(new Rect(100, 100, 50, 50), corners, transform(0, 0, 1.2));
+        assertEquals(60, box.width);
+        assertEquals(60, box.height);
+        assertEquals(95, box.x, 1);
+        assertEquals(95, box.y, 1);
+    }
+
+    @Test
+    public void ignoresOutliers() {
+        List<Point> moved = new ArrayList<>(transform(5, 5, 1));
+        moved.add(new Point(400, 10));
+        List<Point> before = new ArrayList<>(corners);
+        before.add(new Point(130, 130));
+
+        Rect box = StrawberryTracker.moveBox(new Rect(100, 100, 50, 50), before, moved);
+        assertEquals(105, box.x, 1);
+        assertEquals(105, box.y, 1);
+        assertEquals(50, box.width, 3);
+    }
+
+    @Test
+    public void clipsOnlyTheOutput() {
+        Rect bounds = new Rect(0, 0, 100, 100);
+        assertEquals(new Rect(0, 10, 20, 30), StrawberryTracker.clip(new Rect(-20, 10, 40, 30), bounds));
+        assertEquals(0, StrawberryTracker.clip(new Rect(100, 10, 40, 30), bounds).area(), 0);
+    }
+
+    @Test
+    public void fitsMaskToTheVisiblePart() {
+        byte[] pixels = new byte[40 * 30];
+        for (int i = 0; i < 30; i++) {
+            pixels[i * 40] = (byte) 255;
+        }
+        SegmentMask mask = SegmentMask.fromPixels(pixels, 40, 30);
+
+        SegmentMask shifted = StrawberryTracker.fitMask(mask, new Rect(-20, 10, 40, 30), new Rect(0, 10, 20, 30));
+        assertEquals(20, shifted.getWidth());
+        assertEquals(0, shifted.getArea());
+
+        SegmentMask moved = StrawberryTracker.fitMask(mask, new Rect(5, 10, 40, 30), new Rect(5, 10, 40, 30));
+        assertEquals(mask, moved);
+    }
+
+    @Test
+    public void scalesMaskWithTheBox() {
+        SegmentMask mask = SegmentMask.fromPixels(new byte[] {(byte) 255, 0, 0, (byte) 255}, 2, 2);
+        SegmentMask scaled = StrawberryTracker.fitMask(mask, new Rect(0, 0, 4, 4), new Rect(0, 0, 4, 4));
+        assertEquals(4, scaled.getWidth());
+        assertEquals(8, scaled.getArea());
+        assertNull(StrawberryTracker.fitMask(null, new Rect(0, 0, 4, 4), new Rect(0, 0, 4, 4)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidInterval() {
+        new StrawberryTracker(0, 0.5);
+    }
+}
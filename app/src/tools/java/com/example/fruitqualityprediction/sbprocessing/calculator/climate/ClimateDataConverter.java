@@ -0,0 +1,88 @@
+package com.example.fruitqualityprediction.sbprocessing.calculator.climate;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts climate data CSV files to the binary format of {@link ClimateStore}. The binary copies in
+ * the assets have to be regenerated whenever a climate data CSV file is added or changed. Until
+ * then the app logs a warning and parses the CSV file instead of using the outdated copy:
+ *
+ * <pre>
+ * ./gradlew :app:runClimateDataConverter
+ * </pre>
+ * <p>Without arguments it converts app/src/main/assets/climate-data into
+ * app/src/main/assets/climate-data-binary.</p>
+ */
+public final class ClimateDataConverter {
+
+    public static final String DEFAULT_CSV_DIRECTORY = "app/src/main/assets/climate-data"; // The climate data assets.
+    public static final String DEFAULT_BINARY_DIRECTORY = "app/src/main/assets/climate-data-binary"; // The binary copies.
+
+    /**
+     * This class only has static methods.
+     */
+    private ClimateDataConverter() {
+    }
+
+    /**
+     * Converts every CSV file in a directory.
+     *
+     * @param args the optional directory with the CSV files and directory to write the binary copies to.
+     *
+     * @throws IOException if a file could not be converted.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 0 && args.length != 2) {
+            System.err.println("Usage: ClimateDataConverter [<csv directory> <binary directory>]");
+            System.exit(1);
+        }
+        String csvDirectory = args.length == 2 ? args[0] : DEFAULT_CSV_DIRECTORY;
+        File outputDirectory = new File(args.length == 2 ? args[1] : DEFAULT_BINARY_DIRECTORY);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Could not create " + outputDirectory);
+        }
+        File[] csvFiles = new File(csvDirectory).listFiles((directory, name) -> name.endsWith(".csv"));
+        if (csvFiles == null) {
+            throw new IOException("Could not list " + csvDirectory);
+        }
+        for (File csvFile : csvFiles) {
+            File binaryFile = new File(outputDirectory,
+                    new File(ClimateStore.toBinaryAssetPath(csvFile.getName())).getName());
+            convert(csvFile, binaryFile);
+            System.out.println(csvFile + " -> " + binaryFile);
+        }
+    }
+
+    /**
+     * Converts a climate data CSV file to the binary format.
+     *
+     * @param csvFile    the CSV file.
+     * @param binaryFile the file to write the binary copy to.
+     *
+     * @throws IOException if the CSV file could not be read or the binary file could not be written.
+     */
+    public static void convert(File csvFile, File binaryFile) throws IOException {
+        try (InputStream inputStream = new FileInputStream(csvFile);
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(binaryFile))) {
+            convert(inputStream, outputStream);
+        }
+    }
+
+    /**
+     * Converts climate data in CSV format to the binary format.
+     *
+     * @param csv    the CSV data.
+     * @param binary the stream to write the binary data to.
+     *
+     * @throws IOException if the CSV data could not be read or the binary data could not be written.
+     */
+    public static void convert(InputStream csv, OutputStream binary) throws IOException {
+        ClimateStore.parse(csv).write(binary);
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.remote;
+
+import org.opencv.core.CvType;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Replays JPEG images against a segmentation server through {@link RemoteStrawberryDetector}, with
+ * a fixed number of requests in flight, and reports the latency percentiles and the throughput.
+ * Together with {@link StandInSegmentationServer} this benchmarks the client transport and the
+ * scaling of the server on one machine:
+ * <pre>
+ * ./gradlew :app:runSegmentationLoadGenerator -PtoolArgs="[host:port] [concurrency] [requests] [image folder]"
+ * </pre>
+ */
+public class SegmentationLoadGenerator {
+
+    public static final String DEFAULT_IMAGE_FOLDER = "app/src/main/assets"; // The folder with the bundled images.
+
+    /**
+     * An image to send, which is already JPEG-encoded.
+     */
+    public static class Frame {
+
+        private final byte[] jpeg; // The encoded image.
+        private final int width; // The width of the image.
+        private final int height; // The height of the image.
+
+        /**
+         * Creates a frame.
+         *
+         * @param jpeg   the encoded image.
+         * @param width  the width of the image.
+         * @param height the height of the image.
+         */
+        public Frame(byte[] jpeg, int width, int height) {
+            this.jpeg = jpeg;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The outcome of a load test.
+     */
+    public static class Report {
+
+        private final long[] latencies; // The latency of every successful request in nanoseconds, sorted.
+        private final int failures; // The number of failed requests.
+        private final long elapsed; // The duration of the whole test in nanoseconds.
+
+        /**
+         * Creates a report.
+         *
+         * @param latencies the latency of every successful request in nanoseconds.
+         * @param failures  the number of failed requests.
+         * @param elapsed   the duration of the whole test in nanoseconds.
+         */
+        public Report(long[] latencies, int failures, long elapsed) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.failures = failures;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * A getter for the number of successful requests.
+         *
+         * @return the number of successful requests.
+         */
+        public int getSuccesses() {
+            return latencies.length;
+        }
+
+        /**
+         * A getter for the number of failed requests.
+         *
+         * @return the number of failed requests.
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * Computes a latency percentile with the nearest-rank method.
+         *
+         * @param percentile the percentile, from 0 to 100.
+         *
+         * @return the latency in milliseconds, or 0 if no request succeeded.
+         */
+        public double getLatencyMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1] / 1e6;
+        }
+
+        /**
+         * Computes the throughput.
+         *
+         * @return the successful requests per second.
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : latencies.length / (elapsed / 1e9);
+        }
+
+        /**
+         * Formats the report for the console.
+         *
+         * @return the report.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d ok, %d failed, %.1f req/s, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    getSuccesses(), failures, getThroughput(), getLatencyMillis(50), getLatencyMillis(90),
+                    getLatencyMillis(99), getLatencyMillis(100));
+        }
+    }
+
+    /**
+     * Sends frames to a server, cycling through them, with a fixed number of requests in flight.
+     *
+     * @param detector    the client that sends the frames, which must use the JPEG encoding.
+     * @param frames      the frames to send.
+     * @param concurrency the number of requests in flight.
+     * @param requests    the total number of requests.
+     *
+     * @return the report of the test.
+     *
+     * @throws InterruptedException if the test was interrupted.
+     */
+    public static Report run(RemoteStrawberryDetector detector, List<Frame> frames, int concurrency, int requests)
+            throws InterruptedException {
+        Semaphore slots = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        long[] latencies = new long[requests];
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            slots.acquire();
+            Frame frame = frames.get(i % frames.size());
+            long sent = System.nanoTime();
+            detector.sendAsync(frame.jpeg, frame.width, frame.height, CvType.CV_8UC4, 1).whenComplete((segments, error) -> {
+                if (error == null) {
+                    latencies[successes.getAndIncrement()] = System.nanoTime() - sent;
+                } else {
+                    failures.incrementAndGet();
+                }
+                slots.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        return new Report(Arrays.copyOf(latencies, successes.get()), failures.get(), elapsed);
+    }
+
+    /**
+     * Loads the JPEG images of a folder.
+     *
+     * @param folder the folder.
+     *
+     * @return the frames, sorted by file name.
+     *
+     * @throws IOException if an image could not be read.
+     */
+    public static List<Frame> loadFrames(File folder) throws IOException {
+        File[] files = folder.listFiles((directory, name) -> name.toLowerCase(Locale.ROOT).endsWith(".jpg"));
+        if (files == null || files.length == 0) {
+            throw new IOException("No JPEG images in " + folder);
+        }
+        Arrays.sort(files);
+        List<Frame> frames = new ArrayList<>();
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            frames.add(new Frame(Files.readAllBytes(file.toPath()), image.getWidth(), image.getHeight()));
+        }
+        return frames;
+    }
+
+    /**
+     * Runs a load test against a server and prints the report, after a short warm-up that opens
+     * the connections.
+     *
+     * @param args the optional host, concurrency, number of requests and image folder.
+     *
+     * @throws IOException          if the images could not be read.
+     * @throws InterruptedException if the test was interrupted.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : RemoteStrawberryDetector.DEFAULT_HOST;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        File folder = new File(args.length > 3 ? args[3] : DEFAULT_IMAGE_FOLDER);
+
+        List<Frame> frames = loadFrames(folder);
+        RemoteStrawberryDetector detector = new RemoteStrawberryDetector("color", host);
+        detector.setEncoding(RemoteStrawberryDetector.Encoding.JPEG);
+        run(detector, frames, concurrency, concurrency);
+        System.out.println(run(detector, frames, concurrency, requests));
+        System.exit(0);
+    }
+}
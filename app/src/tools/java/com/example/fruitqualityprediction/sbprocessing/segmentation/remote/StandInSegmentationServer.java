@@ -0,0 +1,269 @@
+package com.example.fruitqualityprediction.sbprocessing.segmentation.remote;
+
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberryDetector;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.StrawberrySegment;
+import com.example.fruitqualityprediction.sbprocessing.segmentation.color.ColorStrawberryDetector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for the segmentation server that {@link RemoteStrawberryDetector} talks to. It
+ * answers POST /segmentation/{method}?height&width&type[&encoding] with a JSON array of bounding
+ * boxes, so the client transport can be tested and benchmarked without external services. By
+ * default every method runs color segmentation, which needs the desktop OpenCV library:
+ * <pre>
+ * ./gradlew :app:runStandInSegmentationServer -PtoolArgs="[port] [threads]" -PopencvLibraryPath=/path/to/opencv/lib
+ * </pre>
+ */
+public class StandInSegmentationServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080; // The port the app connects to by default.
+    public static final int DEFAULT_THREADS = 4; // The default number of requests handled at the same time.
+
+    private static final String PATH = "/segmentation/"; // The path of the segmentation endpoint.
+
+    /**
+     * Detects strawberries in the body of a request.
+     */
+    public interface Detector {
+        /**
+         * Finds the bounding boxes of the strawberries in an uploaded image.
+         *
+         * @param method     the requested segmentation method.
+         * @param parameters the query parameters of the request.
+         * @param body       the uploaded image.
+         *
+         * @return the bounding boxes, in the coordinates of the uploaded image.
+         *
+         * @throws IOException if the image could not be decoded.
+         */
+        List<Rect> detect(String method, Map<String, String> parameters, byte[] body) throws IOException;
+    }
+
+    private final HttpServer server; // The HTTP server.
+    private final ExecutorService executor; // The threads that handle the requests.
+    private final Detector detector; // Detects the strawberries in the requests.
+
+    /**
+     * Starts a server.
+     *
+     * @param port     the port to listen on, or 0 for any free port.
+     * @param threads  the number of requests handled at the same time.
+     * @param detector detects the strawberries in the requests.
+     *
+     * @throws IOException if the port could not be opened.
+     */
+    public StandInSegmentationServer(int port, int threads, Detector detector) throws IOException {
+        this.detector = detector;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * A getter for the port the server listens on.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @param exchange the request and its response.
+     *
+     * @throws IOException if the response could not be sent.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Only POST is supported");
+                return;
+            }
+            String method = exchange.getRequestURI().getPath().substring(PATH.length());
+            if (method.isEmpty() || method.contains("/")) {
+                respond(exchange, 404, "Unknown segmentation method");
+                return;
+            }
+            byte[] body;
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                body = inputStream.readAllBytes();
+            }
+
+            List<Rect> boxes;
+            try {
+                boxes = detector.detect(method, parseQuery(exchange.getRequestURI().getRawQuery()), body);
+            } catch (IOException | RuntimeException e) {
+                respond(exchange, 400, String.valueOf(e.getMessage()));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            respond(exchange, 200, toJson(boxes));
+        }
+    }
+
+    /**
+     * Sends a response.
+     *
+     * @param exchange the request and its response.
+     * @param status   the HTTP status code.
+     * @param body     the body of the response.
+     *
+     * @throws IOException if the response could not be sent.
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Parses the query of a request.
+     *
+     * @param query the raw query, without the question mark, or null.
+     *
+     * @return the parameters by name.
+     */
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * Writes bounding boxes in the format that {@link RemoteStrawberryDetector} decodes.
+     *
+     * @param boxes the bounding boxes.
+     *
+     * @return the JSON array of boxes.
+     */
+    static String toJson(List<Rect> boxes) {
+        StringBuilder json = new StringBuilder("[");
+        for (Rect box : boxes) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"x\":").append(box.x)
+                    .append(",\"y\":").append(box.y)
+                    .append(",\"width\":").append(box.width)
+                    .append(",\"height\":").append(box.height)
+                    .append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Creates a detector that runs color segmentation for every method.
+     *
+     * @return the detector.
+     */
+    public static Detector createColorDetector() {
+        StrawberryDetector colorDetector = new ColorStrawberryDetector();
+        return (method, parameters, body) -> {
+            List<Rect> boxes = new ArrayList<>();
+            for (StrawberrySegment segment : colorDetector.detectStrawberries(decodeImage(parameters, body))) {
+                boxes.add(segment.getBoundingBox());
+            }
+            return boxes;
+        };
+    }
+
+    /**
+     * Decodes an uploaded image to RGBA, as the app would pass it to a detector.
+     *
+     * @param parameters the query parameters of the request.
+     * @param body       the uploaded image.
+     *
+     * @return the RGBA image.
+     *
+     * @throws IOException if the image could not be decoded.
+     */
+    static Mat decodeImage(Map<String, String> parameters, byte[] body) throws IOException {
+        String encoding = parameters.getOrDefault("encoding", "raw");
+        Mat rgba = new Mat();
+        if ("raw".equals(encoding)) {
+            int width, height, type;
+            try {
+                width = Integer.parseInt(parameters.get("width"));
+                height = Integer.parseInt(parameters.get("height"));
+                type = Integer.parseInt(parameters.get("type"));
+            } catch (NumberFormatException e) {
+                throw new IOException("Raw images need a width, height and type");
+            }
+            if ((long) width * height * CvType.channels(type) != body.length) {
+                throw new IOException("The body does not match the image size");
+            }
+            Mat image = new Mat(height, width, type);
+            image.put(0, 0, body);
+            if (image.channels() == 3) {
+                Imgproc.cvtColor(image, rgba, Imgproc.COLOR_RGB2RGBA);
+            } else {
+                rgba = image;
+            }
+        } else {
+            Mat image = Imgcodecs.imdecode(new MatOfByte(body), Imgcodecs.IMREAD_COLOR);
+            if (image.empty()) {
+                throw new IOException("Could not decode the " + encoding + " image");
+            }
+            Imgproc.cvtColor(image, rgba, Imgproc.COLOR_BGR2RGBA);
+        }
+        return rgba;
+    }
+
+    /**
+     * Runs the server with color segmentation until the process is stopped.
+     *
+     * @param args the optional port and number of threads.
+     *
+     * @throws IOException if the port could not be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        StandInSegmentationServer server = new StandInSegmentationServer(port, threads, createColorDetector());
+        System.out.println("Listening on localhost:" + server.getPort() + PATH + "{method}");
+    }
+}